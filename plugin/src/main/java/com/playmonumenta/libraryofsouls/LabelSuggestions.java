@@ -0,0 +1,134 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Labels sorted case-insensitively, for finding the ones that start with what was typed so far.
+ *
+ * A lookup is a binary search for the first match followed by a walk over the matches, so it
+ * only ever touches the labels it returns. Immutable once built, so it can be used from any thread -
+ * with / without return a modified copy.
+ */
+public class LabelSuggestions {
+	/* Normalized (lower case) labels, sorted, and the original labels in the same order */
+	private final String[] mKeys;
+	private final String[] mLabels;
+
+	public LabelSuggestions(Collection<String> labels) {
+		String[][] pairs = new String[labels.size()][];
+		int i = 0;
+		for (String label : labels) {
+			pairs[i++] = new String[] {SoulsLabelIndex.normalize(label), label};
+		}
+		Arrays.sort(pairs, Comparator.comparing((String[] pair) -> pair[0]));
+
+		mKeys = new String[pairs.length];
+		mLabels = new String[pairs.length];
+		for (i = 0; i < pairs.length; i++) {
+			mKeys[i] = pairs[i][0];
+			mLabels[i] = pairs[i][1];
+		}
+	}
+
+	private LabelSuggestions(String[] keys, String[] labels) {
+		mKeys = keys;
+		mLabels = labels;
+	}
+
+	/* Returns a copy with the label added, or replacing the label that is equal ignoring case */
+	public LabelSuggestions with(String label) {
+		String key = SoulsLabelIndex.normalize(label);
+		int index = lowerBound(key);
+		if (index < mKeys.length && mKeys[index].equals(key)) {
+			String[] labels = mLabels.clone();
+			labels[index] = label;
+			return new LabelSuggestions(mKeys, labels);
+		}
+
+		String[] keys = new String[mKeys.length + 1];
+		String[] labels = new String[mLabels.length + 1];
+		System.arraycopy(mKeys, 0, keys, 0, index);
+		System.arraycopy(mLabels, 0, labels, 0, index);
+		keys[index] = key;
+		labels[index] = label;
+		System.arraycopy(mKeys, index, keys, index + 1, mKeys.length - index);
+		System.arraycopy(mLabels, index, labels, index + 1, mLabels.length - index);
+		return new LabelSuggestions(keys, labels);
+	}
+
+	/* Returns a copy without the label, ignoring case, or this if it isn't here */
+	public LabelSuggestions without(String label) {
+		String key = SoulsLabelIndex.normalize(label);
+		int index = lowerBound(key);
+		if (index >= mKeys.length || !mKeys[index].equals(key)) {
+			return this;
+		}
+
+		String[] keys = new String[mKeys.length - 1];
+		String[] labels = new String[mLabels.length - 1];
+		System.arraycopy(mKeys, 0, keys, 0, index);
+		System.arraycopy(mLabels, 0, labels, 0, index);
+		System.arraycopy(mKeys, index + 1, keys, index, keys.length - index);
+		System.arraycopy(mLabels, index + 1, labels, index, labels.length - index);
+		return new LabelSuggestions(keys, labels);
+	}
+
+	/* Every label, in sorted order */
+	public List<String> getLabels() {
+		return Collections.unmodifiableList(Arrays.asList(mLabels));
+	}
+
+	/* Returns at most limit labels starting with prefix, ignoring case, in sorted order */
+	public String[] startingWith(String prefix, int limit) {
+		return startingWith(prefix, limit, this);
+	}
+
+	/* As above, over several sets of labels - each set in sorted order, one after the other */
+	public static String[] startingWith(String prefix, int limit, LabelSuggestions... sources) {
+		String key = prefix == null ? "" : SoulsLabelIndex.normalize(prefix);
+
+		int[] starts = new int[sources.length];
+		int count = 0;
+		for (int i = 0; i < sources.length && count < limit; i++) {
+			starts[i] = sources[i].lowerBound(key);
+			count += sources[i].countFrom(starts[i], key, limit - count);
+		}
+
+		String[] result = new String[count];
+		int pos = 0;
+		for (int i = 0; i < sources.length && pos < count; i++) {
+			LabelSuggestions source = sources[i];
+			for (int j = starts[i]; j < source.mKeys.length && pos < count && source.mKeys[j].startsWith(key); j++) {
+				result[pos++] = source.mLabels[j];
+			}
+		}
+		return result;
+	}
+
+	/* Index of the first key not less than key */
+	private int lowerBound(String key) {
+		int low = 0;
+		int high = mKeys.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (mKeys[mid].compareTo(key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int countFrom(int start, String key, int limit) {
+		int count = 0;
+		for (int i = start; i < mKeys.length && count < limit && mKeys[i].startsWith(key); i++) {
+			count++;
+		}
+		return count;
+	}
+}
@@ -19,51 +19,199 @@ public class LibraryOfSouls extends JavaPlugin {
 	private static LibraryOfSouls INSTANCE = null;
 
 	public static class Config {
-		private static boolean mReadOnly = true;
-		private static BestiaryArea mBestiary = null;
+		/* Replaced as a whole on each load, which may happen off the main thread, so readers never see half of one */
+		private static final class Values {
+			private boolean mReadOnly = true;
+			/* Threads used to decode entries while (re)loading the database */
+			private int mLoadThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+			/* Defer parsing soul NBT until it is first used */
+			private boolean mLazyLoad = false;
+			/* Keep past versions of souls in a memory-mapped file rather than on the heap */
+			private boolean mHistoryArchive = true;
+			/* In read-only mode, start from a binary copy of the last load when the database is unchanged */
+			private boolean mBinaryCache = true;
+			/* How long to wait after a change before saving, so bursts of edits are written together */
+			private int mSaveDelayMs = 1000;
+			/* Journal each edit, only rewriting the database files after a delay or once the journal is this large */
+			private boolean mJournal = true;
+			private int mJournalCompactDelayMs = 5 * 60 * 1000;
+			private int mJournalCompactBytes = 4 * 1024 * 1024;
+			/* Store one file per soul / party / pool instead of three database files */
+			private boolean mShardedLayout = false;
+			/* Most tab completion suggestions to send for a soul / group label */
+			private int mSuggestionLimit = 200;
+			/* Check the indexes updated by every edit against a full rebuild - slow, for debugging */
+			private boolean mVerifyIndexes = false;
+			/* Time each tick may spend summoning queued batches, in nanoseconds */
+			private int mSummonBudgetNs = 2 * 1000 * 1000;
+
+			private Values copy() {
+				Values values = new Values();
+				values.mReadOnly = mReadOnly;
+				values.mLoadThreads = mLoadThreads;
+				values.mLazyLoad = mLazyLoad;
+				values.mHistoryArchive = mHistoryArchive;
+				values.mBinaryCache = mBinaryCache;
+				values.mSaveDelayMs = mSaveDelayMs;
+				values.mJournal = mJournal;
+				values.mJournalCompactDelayMs = mJournalCompactDelayMs;
+				values.mJournalCompactBytes = mJournalCompactBytes;
+				values.mShardedLayout = mShardedLayout;
+				values.mSuggestionLimit = mSuggestionLimit;
+				values.mVerifyIndexes = mVerifyIndexes;
+				values.mSummonBudgetNs = mSummonBudgetNs;
+				return values;
+			}
+		}
+
+		private static volatile Values mValues = new Values();
 
 		static void load(Logger logger, File dataFolder) {
+			Values values = mValues.copy();
+
 			/* Main config file, currently mostly unused */
 			File configFile = new File(dataFolder, "config.yml");
 			if (configFile.exists() && configFile.isFile()) {
 				FileConfiguration yamlConfig = YamlConfiguration.loadConfiguration(configFile);
 
 				if (yamlConfig.isBoolean("read_only")) {
-					mReadOnly = yamlConfig.getBoolean("read_only", mReadOnly);
+					values.mReadOnly = yamlConfig.getBoolean("read_only", values.mReadOnly);
+				}
+
+				if (yamlConfig.isInt("load_threads")) {
+					values.mLoadThreads = Math.max(1, yamlConfig.getInt("load_threads", values.mLoadThreads));
+				}
+
+				if (yamlConfig.isBoolean("lazy_load")) {
+					values.mLazyLoad = yamlConfig.getBoolean("lazy_load", values.mLazyLoad);
+				}
+
+				if (yamlConfig.isBoolean("history_archive")) {
+					values.mHistoryArchive = yamlConfig.getBoolean("history_archive", values.mHistoryArchive);
+				}
+
+				if (yamlConfig.isBoolean("binary_cache")) {
+					values.mBinaryCache = yamlConfig.getBoolean("binary_cache", values.mBinaryCache);
+				}
+
+				if (yamlConfig.isInt("save_delay_ms")) {
+					values.mSaveDelayMs = Math.max(0, yamlConfig.getInt("save_delay_ms", values.mSaveDelayMs));
+				}
+
+				if (yamlConfig.isBoolean("journal")) {
+					values.mJournal = yamlConfig.getBoolean("journal", values.mJournal);
+				}
+
+				if (yamlConfig.isInt("journal_compact_delay_ms")) {
+					values.mJournalCompactDelayMs = Math.max(0, yamlConfig.getInt("journal_compact_delay_ms", values.mJournalCompactDelayMs));
+				}
+
+				if (yamlConfig.isInt("journal_compact_bytes")) {
+					values.mJournalCompactBytes = Math.max(0, yamlConfig.getInt("journal_compact_bytes", values.mJournalCompactBytes));
+				}
+
+				if (yamlConfig.isBoolean("sharded_layout")) {
+					values.mShardedLayout = yamlConfig.getBoolean("sharded_layout", values.mShardedLayout);
+				}
+
+				if (yamlConfig.isInt("suggestion_limit")) {
+					values.mSuggestionLimit = Math.max(1, yamlConfig.getInt("suggestion_limit", values.mSuggestionLimit));
+				}
+
+				if (yamlConfig.isBoolean("verify_indexes")) {
+					values.mVerifyIndexes = yamlConfig.getBoolean("verify_indexes", values.mVerifyIndexes);
+				}
+
+				if (yamlConfig.isInt("summon_budget_ns")) {
+					values.mSummonBudgetNs = Math.max(0, yamlConfig.getInt("summon_budget_ns", values.mSummonBudgetNs));
 				}
 			} else {
 				try {
 					configFile.getParentFile().mkdirs();
 					FileConfiguration yamlConfig = new YamlConfiguration();
-					yamlConfig.set("read_only", mReadOnly);
+					yamlConfig.set("read_only", values.mReadOnly);
 					yamlConfig.save(configFile);
 				} catch (IOException ex) {
 					logger.warning("Failed to save default config to '" + configFile.getPath() + "': " + ex.getMessage());
 				}
 			}
 
-			/* Bestiary config file */
-			configFile = new File(dataFolder, "bestiary_config.yml");
-			if (configFile.exists() && configFile.isFile() && SoulsDatabase.getInstance() != null) {
+			mValues = values;
+		}
+
+		/* Builds the bestiary from its config file for the given snapshot. Returns null if there isn't one */
+		static BestiaryArea loadBestiary(Logger logger, File dataFolder, SoulsSnapshot snapshot) {
+			File configFile = new File(dataFolder, "bestiary_config.yml");
+			if (configFile.exists() && configFile.isFile()) {
 				try {
 					FileConfiguration yamlConfig = YamlConfiguration.loadConfiguration(configFile);
 
 					if (yamlConfig.isConfigurationSection("bestiary")) {
-							mBestiary = new BestiaryArea(null, "Areas", yamlConfig.getConfigurationSection("bestiary"));
+						return new BestiaryArea(null, "Areas", yamlConfig.getConfigurationSection("bestiary"), snapshot);
 					}
 				} catch (Exception ex) {
 					logger.severe("Failed to load bestiary configuration: " + ex.getMessage());
 					ex.printStackTrace();
 				}
 			}
+			return null;
 		}
 
 		public static boolean isReadOnly() {
-			return mReadOnly;
+			return mValues.mReadOnly;
+		}
+
+		public static int getLoadThreads() {
+			return mValues.mLoadThreads;
+		}
+
+		public static boolean isLazyLoad() {
+			return mValues.mLazyLoad;
+		}
+
+		public static boolean isHistoryArchive() {
+			return mValues.mHistoryArchive;
+		}
+
+		public static boolean isBinaryCache() {
+			return mValues.mBinaryCache;
+		}
+
+		public static int getSaveDelayMs() {
+			return mValues.mSaveDelayMs;
+		}
+
+		public static boolean isJournal() {
+			return mValues.mJournal;
+		}
+
+		public static int getJournalCompactDelayMs() {
+			return mValues.mJournalCompactDelayMs;
+		}
+
+		public static int getJournalCompactBytes() {
+			return mValues.mJournalCompactBytes;
+		}
+
+		public static boolean isShardedLayout() {
+			return mValues.mShardedLayout;
+		}
+
+		public static int getSuggestionLimit() {
+			return mValues.mSuggestionLimit;
+		}
+
+		public static boolean isVerifyIndexes() {
+			return mValues.mVerifyIndexes;
+		}
+
+		public static int getSummonBudgetNs() {
+			return mValues.mSummonBudgetNs;
 		}
 
 		public static BestiaryArea getBestiary() {
-			return mBestiary;
+			SoulsDatabase database = SoulsDatabase.getInstance();
+			return database == null ? null : database.getSnapshot().getBestiary();
 		}
 	}
 
@@ -84,6 +232,8 @@ public class LibraryOfSouls extends JavaPlugin {
 		INSTANCE = this;
 
 		getServer().getPluginManager().registerEvents(new BestiaryManager(this), this);
+		new SoulsSummonQueue(this);
+		new SoulsPlacementService(this);
 
 		File directory = getDataFolder();
 		if (!directory.exists()) {
@@ -108,6 +258,22 @@ public class LibraryOfSouls extends JavaPlugin {
 
 	@Override
 	public void onDisable() {
+		SoulsDatabase database = SoulsDatabase.getInstance();
+		if (database != null) {
+			database.flushSaves();
+		}
+
+		SoulsSummonQueue summonQueue = SoulsSummonQueue.getInstance();
+		if (summonQueue != null) {
+			summonQueue.cancelAll();
+		}
+
+		/* After the queue, so summons already queued complete with what they summoned */
+		SoulsPlacementService placementService = SoulsPlacementService.getInstance();
+		if (placementService != null) {
+			placementService.cancelAll();
+		}
+
 		INSTANCE = null;
 		Bukkit.getScheduler().cancelTasks(this);
 	}
@@ -1,17 +1,32 @@
 package com.playmonumenta.libraryofsouls;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Entity;
+import org.bukkit.util.BoundingBox;
 
 public class LibraryOfSoulsAPI {
 	public static final String SOUL_PARTY_PREFIX = "#";
 	public static final String SOUL_POOL_PREFIX = "~";
 
+	/*
+	 * Returns a handle for the soul, soul party or soul pool with this label, for callers that use
+	 * the same label over and over. The handle only looks the label up again after the database
+	 * changes, so keep it (in a field, say) rather than calling this every time. The label
+	 * doesn't need to exist yet.
+	 */
+	public static SoulHandle resolve(String label) {
+		return new SoulHandle(label);
+	}
+
 	public static Entity summon(Location loc, String soulName) {
 		SoulsDatabase db = SoulsDatabase.getInstance();
 		if (db == null) {
@@ -57,6 +72,42 @@ public class LibraryOfSoulsAPI {
 		return db.listSoulGroupNames();
 	}
 
+	/* Part of the library, sorted by label - for listing it without copying the whole thing */
+	public static SoulsPage<SoulEntry> getSouls(int offset, int limit) {
+		SoulsDatabase db = SoulsDatabase.getInstance();
+		if (db == null) {
+			return null;
+		}
+		return db.getSoulsPage(offset, limit);
+	}
+
+	/*
+	 * At most limit souls whose label or name is similar to text, best match first. Tolerates
+	 * typos and missing words. Empty if the database isn't loaded.
+	 *
+	 * Right after an edit this builds the fuzzy index, so prefer calling it off the main thread.
+	 */
+	public static List<SoulEntry> findSouls(String text, int limit) {
+		SoulsDatabase db = SoulsDatabase.getInstance();
+		if (db == null) {
+			return new ArrayList<>();
+		}
+		return db.findSouls(text, limit);
+	}
+
+	/*
+	 * Soul parties and soul pools that directly contain label, sorted by label. Labels that no
+	 * longer exist are still reported, so this also finds dangling references. Empty if the
+	 * database isn't loaded.
+	 */
+	public static List<SoulGroup> getReferences(String label) {
+		SoulsDatabase db = SoulsDatabase.getInstance();
+		if (db == null) {
+			return new ArrayList<>();
+		}
+		return db.getReferences(label);
+	}
+
 	public static Map<Soul, Integer> getRandomSouls(String label, Random random) {
 		SoulsDatabase db = SoulsDatabase.getInstance();
 		if (db == null) {
@@ -69,6 +120,75 @@ public class LibraryOfSoulsAPI {
 		return group.getRandomSouls(random);
 	}
 
+	/*
+	 * Rolls the soul, soul party or soul pool with this label once, passing each soul rolled to
+	 * consumer. Parties and pools roll a cached, compiled plan, so this doesn't allocate.
+	 * Returns false if there is no such label.
+	 */
+	public static boolean forEachRandomSoul(String label, Random random, SoulConsumer consumer) {
+		SoulsDatabase db = SoulsDatabase.getInstance();
+		if (db == null) {
+			return false;
+		}
+		SoulGroup group = db.getSoulGroup(label);
+		if (group == null) {
+			return false;
+		}
+		group.forEachRandomSoul(random, consumer);
+		return true;
+	}
+
+	/*
+	 * Summons the soul group with this label like SoulGroup.summonGroup(), but spread over as
+	 * many ticks as it takes to stay within the configured time budget per tick. The future
+	 * completes on the main thread once everything has been summoned, and is already complete
+	 * (with nothing) if the label doesn't exist. Only call from the main thread.
+	 */
+	public static CompletableFuture<List<Entity>> summonBatch(String label, Random random, World world, BoundingBox spawnBb) {
+		SoulsDatabase db = SoulsDatabase.getInstance();
+		SoulGroup group = db == null ? null : db.getSoulGroup(label);
+		if (group == null) {
+			return CompletableFuture.completedFuture(new ArrayList<>());
+		}
+		return summonBatch(group, random, world, spawnBb);
+	}
+
+	public static CompletableFuture<List<Entity>> summonBatch(SoulGroup group, Random random, World world, BoundingBox spawnBb) {
+		SoulsSummonQueue queue = SoulsSummonQueue.getInstance();
+		if (queue == null) {
+			return CompletableFuture.completedFuture(new ArrayList<>());
+		}
+		return queue.summon(group, random, world, spawnBb);
+	}
+
+	/*
+	 * Like summonBatch(), but picks a position where each mob fits from chunk snapshots taken
+	 * asynchronously, rather than dropping mobs whose random position is inside a block.
+	 * Completes a few ticks later than summonBatch() would. Only call from the main thread.
+	 */
+	public static CompletableFuture<List<Entity>> summonPlaced(String label, Random random, World world, BoundingBox spawnBb) {
+		SoulsDatabase db = SoulsDatabase.getInstance();
+		SoulGroup group = db == null ? null : db.getSoulGroup(label);
+		if (group == null) {
+			return CompletableFuture.completedFuture(new ArrayList<>());
+		}
+		return summonPlaced(group, random, world, spawnBb);
+	}
+
+	public static CompletableFuture<List<Entity>> summonPlaced(SoulGroup group, Random random, World world, BoundingBox spawnBb) {
+		SoulsPlacementService placement = SoulsPlacementService.getInstance();
+		if (placement == null || SoulsSummonQueue.getInstance() == null) {
+			return CompletableFuture.completedFuture(new ArrayList<>());
+		}
+		return placement.summon(group, random, world, spawnBb);
+	}
+
+	/* Number of summons queued by summonBatch() and not done yet, for monitoring */
+	public static int getSummonQueueDepth() {
+		SoulsSummonQueue queue = SoulsSummonQueue.getInstance();
+		return queue == null ? 0 : queue.getQueueDepth();
+	}
+
 	public static Set<String> getSoulLocations() {
 		SoulsDatabase db = SoulsDatabase.getInstance();
 		if (db == null) {
@@ -0,0 +1,265 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+
+/*
+ * Decodes database entries on a ForkJoinPool while a file is being read.
+ *
+ * The calling thread only splits the file into entries - it finds where each one ends by
+ * matching brackets and quotes, without tokenizing or building anything but the entry's text.
+ * The pool does the rest in parallel: tokenizing each entry with the streaming type adapters,
+ * parsing its mojangson and extracting its label and name. Callers join the returned tasks in
+ * file order, so duplicate detection stays deterministic.
+ *
+ * The number of entries read but not yet decoded is bounded, so memory still scales
+ * with the pool size rather than the file size.
+ *
+ * When given the Fingerprints of a previous load, entries whose JSON hasn't changed
+ * aren't decoded at all - the previously loaded object is returned instead.
+ */
+public class ParallelEntryDecoder implements AutoCloseable {
+	private static final int MAX_IN_FLIGHT_PER_THREAD = 64;
+
+	/*
+	 * Loaded entries by a hash of the JSON they were decoded from.
+	 *
+	 * An entry is only handed out again if it hasn't been modified in memory since it was
+	 * loaded, as its JSON would no longer match.
+	 */
+	public static class Fingerprints<T extends SoulGroup> {
+		private static class Loaded<T> {
+			private final T mEntry;
+			private final long mModifiedOn;
+
+			private Loaded(T entry, long modifiedOn) {
+				mEntry = entry;
+				mModifiedOn = modifiedOn;
+			}
+		}
+
+		private final Map<String, Loaded<T>> mEntries = new ConcurrentHashMap<>();
+
+		private T get(String fingerprint) {
+			Loaded<T> loaded = mEntries.get(fingerprint);
+			if (loaded == null || loaded.mEntry.getModifiedOn() != loaded.mModifiedOn) {
+				return null;
+			}
+			return loaded.mEntry;
+		}
+
+		private void put(String fingerprint, T entry) {
+			mEntries.put(fingerprint, new Loaded<>(entry, entry.getModifiedOn()));
+		}
+	}
+
+	private static class DecodeTask<T extends SoulGroup> extends RecursiveTask<T> {
+		private static final long serialVersionUID = 1L;
+
+		private final TypeAdapter<T> mAdapter;
+		private final Semaphore mInFlight;
+		private final Fingerprints<T> mPrevious;
+		private final Fingerprints<T> mNext;
+		private String mJson;
+
+		private DecodeTask(TypeAdapter<T> adapter, Semaphore inFlight, String json, Fingerprints<T> previous, Fingerprints<T> next) {
+			mAdapter = adapter;
+			mInFlight = inFlight;
+			mJson = json;
+			mPrevious = previous;
+			mNext = next;
+		}
+
+		@Override
+		protected T compute() {
+			try {
+				String json = mJson;
+				/* Don't keep the raw JSON alive for as long as the task is referenced */
+				mJson = null;
+				if (mNext == null) {
+					return decode(json);
+				}
+
+				String fingerprint = fingerprint(json);
+				T entry = mPrevious == null ? null : mPrevious.get(fingerprint);
+				if (entry == null) {
+					entry = decode(json);
+				}
+				mNext.put(fingerprint, entry);
+				return entry;
+			} finally {
+				mInFlight.release();
+			}
+		}
+
+		private T decode(String json) {
+			try {
+				return mAdapter.read(new JsonReader(new StringReader(json)));
+			} catch (IOException ex) {
+				throw new JsonIOException(ex.getMessage(), ex);
+			}
+		}
+	}
+
+	/* Finds the text of each entry of a JSON array, reading the file in large chunks */
+	private static final class EntryScanner {
+		private final Reader mIn;
+		private final char[] mBuffer = new char[64 * 1024];
+		private int mPos = 0;
+		private int mLimit = 0;
+
+		private EntryScanner(Reader in) {
+			mIn = in;
+		}
+
+		private boolean fill() throws IOException {
+			mPos = 0;
+			mLimit = Math.max(0, mIn.read(mBuffer));
+			return mLimit > 0;
+		}
+
+		/* The next character that isn't whitespace, without consuming it, or -1 at the end */
+		private int peek() throws IOException {
+			while (true) {
+				if (mPos == mLimit && !fill()) {
+					return -1;
+				}
+				char c = mBuffer[mPos];
+				if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+					return c;
+				}
+				mPos++;
+			}
+		}
+
+		private void expect(char expected, String what) throws IOException {
+			int c = peek();
+			if (c == -1) {
+				throw new EOFException("Unexpected end of file, expected " + what);
+			} else if (c != expected) {
+				throw new IOException("Expected " + what + " but found '" + (char)c + "'");
+			}
+			mPos++;
+		}
+
+		/* Moves past the separator after an entry. Returns false once the array has ended */
+		private boolean nextEntry() throws IOException {
+			int c = peek();
+			if (c == ']') {
+				mPos++;
+				return false;
+			}
+			expect(',', "',' or ']' after database entry");
+			return true;
+		}
+
+		/* The text of the object starting here, up to its matching closing bracket */
+		private String nextObject() throws IOException {
+			if (peek() != '{') {
+				throw new IOException("Database entry is not an object!");
+			}
+
+			StringBuilder text = new StringBuilder();
+			int depth = 0;
+			boolean inString = false;
+			boolean escaped = false;
+			while (true) {
+				if (mPos == mLimit && !fill()) {
+					throw new EOFException("Unexpected end of file in database entry");
+				}
+				int start = mPos;
+				while (mPos < mLimit) {
+					char c = mBuffer[mPos++];
+					if (inString) {
+						if (escaped) {
+							escaped = false;
+						} else if (c == '\\') {
+							escaped = true;
+						} else if (c == '"') {
+							inString = false;
+						}
+					} else if (c == '"') {
+						inString = true;
+					} else if (c == '{' || c == '[') {
+						depth++;
+					} else if ((c == '}' || c == ']') && --depth == 0) {
+						text.append(mBuffer, start, mPos - start);
+						return text.toString();
+					}
+				}
+				text.append(mBuffer, start, mPos - start);
+			}
+		}
+	}
+
+	private final ForkJoinPool mPool;
+	private final Semaphore mInFlight;
+
+	public ParallelEntryDecoder(int threads) {
+		threads = Math.max(1, threads);
+		mPool = new ForkJoinPool(threads);
+		mInFlight = new Semaphore(threads * MAX_IN_FLIGHT_PER_THREAD);
+	}
+
+	/*
+	 * Reads the JSON array in and submits each of its entries for decoding. Tasks are returned
+	 * in the order the entries appear in the file.
+	 *
+	 * Unchanged entries are reused from previous (which may be null), and every entry read is
+	 * recorded into next.
+	 */
+	public <T extends SoulGroup> List<ForkJoinTask<T>> submitArray(Reader in, TypeAdapter<T> adapter,
+	                                                               Fingerprints<T> previous, Fingerprints<T> next) throws IOException, InterruptedException {
+		EntryScanner scanner = new EntryScanner(in);
+		scanner.expect('[', "a JSON array");
+		List<ForkJoinTask<T>> tasks = new ArrayList<>();
+		if (scanner.peek() == ']') {
+			return tasks;
+		}
+		do {
+			String json = scanner.nextObject();
+			mInFlight.acquire();
+			tasks.add(mPool.submit(new DecodeTask<T>(adapter, mInFlight, json, previous, next)));
+		} while (scanner.nextEntry());
+		return tasks;
+	}
+
+	/* Submits the single entry json for decoding */
+	public <T extends SoulGroup> ForkJoinTask<T> submit(String json, TypeAdapter<T> adapter) throws InterruptedException {
+		mInFlight.acquire();
+		return mPool.submit(new DecodeTask<T>(adapter, mInFlight, json, null, null));
+	}
+
+	@Override
+	public void close() {
+		mPool.shutdownNow();
+	}
+
+	private static String fingerprint(String json) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return Base64.getEncoder().encodeToString(digest.digest(json.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException ex) {
+			/* Every JVM is required to support SHA-256 */
+			throw new IllegalStateException(ex);
+		}
+	}
+}
@@ -0,0 +1,355 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Logger;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+/*
+ * Alternative on-disk layout with one file per soul, soul party and soul pool:
+ *
+ *   souls/<label>.json
+ *   soul_parties/<label>.json
+ *   soul_pools/<label>.json
+ *   souls_manifest.json
+ *
+ * The store remembers the size, modification time and content hash of every file it has
+ * read or written, along with the entry decoded from it. Refreshing only re-reads files
+ * whose size or modification time changed, and only decodes those whose content actually
+ * changed - everything else keeps its existing entry object.
+ *
+ * The manifest records the layout version and which file holds which label, for tooling.
+ * Files are discovered by listing the directories, so files added by hand or through git
+ * are picked up without editing the manifest.
+ *
+ * Not thread safe - callers must hold the database's file lock.
+ */
+public class ShardedSoulsStore {
+	private static final int FORMAT_VERSION = 1;
+	private static final String MANIFEST_FILE = "souls_manifest.json";
+	private static final String SOULS_DIR = "souls";
+	private static final String SOUL_PARTIES_DIR = "soul_parties";
+	private static final String SOUL_POOLS_DIR = "soul_pools";
+
+	private static final JsonParser PARSER = new JsonParser();
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/* A file as it was when last read or written. A null entry means the file couldn't be loaded */
+	private static class Shard<T> {
+		private final long mModified;
+		private final long mSize;
+		private final String mHash;
+		private final T mEntry;
+
+		private Shard(long modified, long size, String hash, T entry) {
+			mModified = modified;
+			mSize = size;
+			mHash = hash;
+			mEntry = entry;
+		}
+	}
+
+	/* One directory of entries of the same kind */
+	private static class ShardDirectory<T extends SoulGroup> {
+		private final String mName;
+		private final String mDescription;
+		private final Path mDir;
+		private final Map<Path, Shard<T>> mShards = new HashMap<>();
+		/* The file each label was last loaded from or written to */
+		private final Map<String, Path> mPaths = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+		private ShardDirectory(Path root, String name, String description) {
+			mName = name;
+			mDescription = description;
+			mDir = root.resolve(name);
+		}
+
+		private boolean hasChanges() throws IOException {
+			List<Path> paths = list();
+			if (paths.size() != mShards.size()) {
+				return true;
+			}
+			for (Path path : paths) {
+				Shard<T> shard = mShards.get(path);
+				if (shard == null || shard.mModified != Files.getLastModifiedTime(path).toMillis() || shard.mSize != Files.size(path)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/* Re-reads new and changed files. Returns whether any entry was added, changed or removed */
+		private boolean refresh(ParallelEntryDecoder decoder, TypeAdapter<T> adapter, Logger logger) throws Exception {
+			List<Path> paths = list();
+			boolean changed = mShards.keySet().retainAll(new HashSet<>(paths));
+
+			List<Path> decodePaths = new ArrayList<>();
+			List<Shard<T>> decodeShards = new ArrayList<>();
+			List<ForkJoinTask<T>> decodeTasks = new ArrayList<>();
+			for (Path path : paths) {
+				long modified = Files.getLastModifiedTime(path).toMillis();
+				long size = Files.size(path);
+				Shard<T> shard = mShards.get(path);
+				if (shard != null && shard.mModified == modified && shard.mSize == size) {
+					continue;
+				}
+
+				byte[] bytes = Files.readAllBytes(path);
+				String hash = sha256(bytes);
+				T previous = shard == null ? null : shard.mEntry;
+				if (shard != null && shard.mHash.equals(hash)) {
+					/* Touched but not changed, for example by a git checkout */
+					mShards.put(path, new Shard<>(modified, size, hash, previous));
+					continue;
+				}
+
+				try {
+					decodeTasks.add(decoder.submit(new String(bytes, StandardCharsets.UTF_8), adapter));
+					decodePaths.add(path);
+					/* Fingerprint and the entry to keep if the new contents turn out to be broken */
+					decodeShards.add(new Shard<>(modified, size, hash, previous));
+				} catch (Exception ex) {
+					logger.severe("Failed to load " + mDescription + " file '" + path + "': " + ex.getMessage());
+					mShards.put(path, new Shard<>(modified, size, hash, previous));
+				}
+			}
+
+			for (int i = 0; i < decodeTasks.size(); i++) {
+				Path path = decodePaths.get(i);
+				Shard<T> shard = decodeShards.get(i);
+				T entry;
+				try {
+					entry = decodeTasks.get(i).join();
+					changed = true;
+				} catch (Exception ex) {
+					logger.severe("Failed to load " + mDescription + " file '" + path + "': " + ex.getMessage());
+					entry = shard.mEntry;
+				}
+				mShards.put(path, new Shard<>(shard.mModified, shard.mSize, shard.mHash, entry));
+			}
+
+			return changed;
+		}
+
+		/* Adds every loaded entry to the map. Duplicate labels are resolved by file name order */
+		private void collect(Map<String, T> entries, Logger logger) {
+			List<Path> paths = new ArrayList<>(mShards.keySet());
+			Collections.sort(paths);
+
+			mPaths.clear();
+			for (Path path : paths) {
+				T entry = mShards.get(path).mEntry;
+				if (entry == null) {
+					continue;
+				}
+
+				String label = entry.getLabel();
+				if (entries.get(label) != null) {
+					logger.severe("Refused to load Library of Souls duplicate " + mDescription + " '" + label + "' from '" + path + "'");
+					continue;
+				}
+				entries.put(label, entry);
+				mPaths.put(label, path);
+			}
+		}
+
+		private void write(T entry, TypeAdapter<T> adapter) throws IOException {
+			String label = entry.getLabel();
+			Path path = mPaths.get(label);
+			if (path == null) {
+				path = mDir.resolve(fileName(label));
+			}
+
+			StringWriter json = new StringWriter();
+			JsonWriter writer = new JsonWriter(json);
+			writer.setIndent("  ");
+			writer.setHtmlSafe(true);
+			adapter.write(writer, entry);
+			writer.flush();
+			byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+
+			Files.createDirectories(mDir);
+			Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+			Files.write(tempPath, bytes);
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			mShards.put(path, new Shard<>(Files.getLastModifiedTime(path).toMillis(), bytes.length, sha256(bytes), entry));
+			mPaths.put(label, path);
+		}
+
+		private void delete(String label) throws IOException {
+			Path path = mPaths.remove(label);
+			if (path == null) {
+				path = mDir.resolve(fileName(label));
+			}
+			Files.deleteIfExists(path);
+			mShards.remove(path);
+		}
+
+		private JsonObject manifest() {
+			JsonObject files = new JsonObject();
+			for (Map.Entry<String, Path> entry : mPaths.entrySet()) {
+				files.addProperty(entry.getKey(), entry.getValue().getFileName().toString());
+			}
+			return files;
+		}
+
+		private List<Path> list() throws IOException {
+			List<Path> paths = new ArrayList<>();
+			if (Files.isDirectory(mDir)) {
+				try (DirectoryStream<Path> stream = Files.newDirectoryStream(mDir, "*.json")) {
+					for (Path path : stream) {
+						paths.add(path);
+					}
+				}
+			}
+			return paths;
+		}
+	}
+
+	private final Path mManifestPath;
+	private final ShardDirectory<SoulEntry> mSouls;
+	private final ShardDirectory<SoulPartyEntry> mSoulParties;
+	private final ShardDirectory<SoulPoolEntry> mSoulPools;
+
+	public ShardedSoulsStore(Path root) {
+		mManifestPath = root.resolve(MANIFEST_FILE);
+		mSouls = new ShardDirectory<>(root, SOULS_DIR, "mob");
+		mSoulParties = new ShardDirectory<>(root, SOUL_PARTIES_DIR, "soul party");
+		mSoulPools = new ShardDirectory<>(root, SOUL_POOLS_DIR, "soul pool");
+	}
+
+	/* Whether this layout has been written yet */
+	public boolean exists() {
+		return Files.isDirectory(mSouls.mDir);
+	}
+
+	/* The directories entries are stored in, which may not exist yet */
+	public List<Path> getDirectories() {
+		return Arrays.asList(mSouls.mDir, mSoulParties.mDir, mSoulPools.mDir);
+	}
+
+	/* Cheap check for whether a refresh would find anything - only looks at file sizes and times */
+	public boolean hasChanges() throws IOException {
+		return mSouls.hasChanges() || mSoulParties.hasChanges() || mSoulPools.hasChanges();
+	}
+
+	/*
+	 * Re-reads new and changed files and fills the maps with every loaded entry.
+	 *
+	 * Returns whether anything changed since the last refresh or write.
+	 */
+	public boolean load(ParallelEntryDecoder decoder, SoulEntryTypeAdapter soulAdapter, SoulPartyEntryTypeAdapter soulPartyAdapter, SoulPoolEntryTypeAdapter soulPoolAdapter,
+	                    Logger logger, Map<String, SoulEntry> souls, Map<String, SoulPartyEntry> soulParties, Map<String, SoulPoolEntry> soulPools) throws Exception {
+		checkManifest();
+
+		boolean changed = mSouls.refresh(decoder, soulAdapter, logger);
+		changed |= mSoulParties.refresh(decoder, soulPartyAdapter, logger);
+		changed |= mSoulPools.refresh(decoder, soulPoolAdapter, logger);
+
+		mSouls.collect(souls, logger);
+		mSoulParties.collect(soulParties, logger);
+		mSoulPools.collect(soulPools, logger);
+		return changed;
+	}
+
+	public void writeSoul(SoulEntry soul, SoulEntryTypeAdapter adapter) throws IOException {
+		mSouls.write(soul, adapter);
+	}
+
+	public void deleteSoul(String label) throws IOException {
+		mSouls.delete(label);
+	}
+
+	public void writeSoulParty(SoulPartyEntry soulParty, SoulPartyEntryTypeAdapter adapter) throws IOException {
+		mSoulParties.write(soulParty, adapter);
+	}
+
+	public void deleteSoulParty(String label) throws IOException {
+		mSoulParties.delete(label);
+	}
+
+	public void writeSoulPool(SoulPoolEntry soulPool, SoulPoolEntryTypeAdapter adapter) throws IOException {
+		mSoulPools.write(soulPool, adapter);
+	}
+
+	public void deleteSoulPool(String label) throws IOException {
+		mSoulPools.delete(label);
+	}
+
+	public void writeManifest() throws IOException {
+		JsonObject manifest = new JsonObject();
+		manifest.addProperty("format_version", FORMAT_VERSION);
+		manifest.add(mSouls.mName, mSouls.manifest());
+		manifest.add(mSoulParties.mName, mSoulParties.manifest());
+		manifest.add(mSoulPools.mName, mSoulPools.manifest());
+
+		Path tempPath = mManifestPath.resolveSibling(mManifestPath.getFileName() + ".tmp");
+		Files.write(tempPath, new GsonBuilder().setPrettyPrinting().create().toJson(manifest).getBytes(StandardCharsets.UTF_8));
+		Files.move(tempPath, mManifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/* Refuses to load a layout written by a newer version of this plugin */
+	private void checkManifest() throws Exception {
+		if (!Files.isRegularFile(mManifestPath)) {
+			return;
+		}
+
+		int version = PARSER.parse(new String(Files.readAllBytes(mManifestPath), StandardCharsets.UTF_8)).getAsJsonObject().get("format_version").getAsInt();
+		if (version > FORMAT_VERSION) {
+			throw new Exception("Souls manifest format " + version + " is newer than the supported format " + FORMAT_VERSION);
+		}
+	}
+
+	/* Labels are used as file names, with anything unsafe for a file name escaped */
+	private static String fileName(String label) {
+		StringBuilder name = new StringBuilder();
+		for (byte b : label.getBytes(StandardCharsets.UTF_8)) {
+			char c = (char)(b & 0xff);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-') {
+				name.append(c);
+			} else {
+				name.append('%').append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+			}
+		}
+		return name.append(".json").toString();
+	}
+
+	private static String sha256(byte[] bytes) {
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch (NoSuchAlgorithmException ex) {
+			/* Every JVM is required to support SHA-256 */
+			throw new IllegalStateException(ex);
+		}
+
+		char[] hex = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+		}
+		return new String(hex);
+	}
+}
@@ -0,0 +1,8 @@
+package com.playmonumenta.libraryofsouls;
+
+/* Receives the souls rolled by SoulGroup.forEachRandomSoul() */
+@FunctionalInterface
+public interface SoulConsumer {
+	/* The same soul may be passed more than once in one roll - the total is the sum of the counts */
+	void accept(Soul soul, int count);
+}
@@ -2,11 +2,11 @@ package com.playmonumenta.libraryofsouls;
 
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -25,29 +25,34 @@ import com.goncalomb.bukkit.mylib.reflect.NBTTagCompound;
 import com.goncalomb.bukkit.nbteditor.nbt.EntityNBT;
 import com.goncalomb.bukkit.nbteditor.nbt.variables.BooleanVariable;
 import com.goncalomb.bukkit.nbteditor.nbt.variables.EffectsVariable;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.playmonumenta.libraryofsouls.bestiary.BestiaryArea;
 import com.playmonumenta.libraryofsouls.bestiary.BestiaryEntryInterface;
 import com.playmonumenta.libraryofsouls.bestiary.BestiaryManager;
 import com.playmonumenta.libraryofsouls.bestiary.BestiarySoulInventory;
+import com.playmonumenta.libraryofsouls.utils.BlockOccupancyGrid;
 
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import net.kyori.adventure.text.format.TextDecoration;
 
 public class SoulEntry implements Soul, SoulGroup, BestiaryEntryInterface {
-	private static Gson gson = null;
-
 	private final Set<String> mLocs;
+	/* Resident history, current entry first. Copy-on-write so it can be saved from another thread */
 	private final List<SoulHistoryEntry> mHistory;
-	private String mLore;
+	/* Older history kept in the history archive, following mHistory. May be null */
+	private final SoulHistoryArchive.Range mArchivedHistory;
+	private volatile String mLore;
 
 	/* Create a SoulEntry object with existing history */
 	public SoulEntry(List<SoulHistoryEntry> history, Set<String> locationNames, String lore) throws Exception {
-		mHistory = history;
+		this(history, null, locationNames, lore);
+	}
+
+	/* Create a SoulEntry object with existing history, the oldest of which is archived */
+	public SoulEntry(List<SoulHistoryEntry> history, SoulHistoryArchive.Range archivedHistory, Set<String> locationNames, String lore) throws Exception {
+		mHistory = new CopyOnWriteArrayList<SoulHistoryEntry>(history);
+		mArchivedHistory = archivedHistory;
 
 		if (locationNames == null) {
 			mLocs = new HashSet<String>();
@@ -62,11 +67,10 @@ public class SoulEntry implements Soul, SoulGroup, BestiaryEntryInterface {
 		}
 
 		String refLabel = history.get(0).getLabel();
-		Component refName = history.get(0).getName();
 
 		for (SoulHistoryEntry entry : history) {
 			if (!entry.getLabel().equals(refLabel)) {
-				throw new Exception("Soul history has mismatching names! '" + refName + "' != '" + entry.getName());
+				throw new Exception("Soul history has mismatching names! '" + history.get(0).getName() + "' != '" + entry.getName());
 			}
 		}
 	}
@@ -76,21 +80,37 @@ public class SoulEntry implements Soul, SoulGroup, BestiaryEntryInterface {
 		SoulHistoryEntry newHist = new SoulHistoryEntry(player, nbt);
 
 		mLocs = new HashSet<String>();
-		mHistory = new ArrayList<SoulHistoryEntry>(1);
+		mHistory = new CopyOnWriteArrayList<SoulHistoryEntry>();
 		mHistory.add(newHist);
+		mArchivedHistory = null;
 		mLore = "";
 	}
 
+	private SoulEntry(SoulEntry other) {
+		mLocs = other.mLocs;
+		mHistory = new CopyOnWriteArrayList<SoulHistoryEntry>(other.mHistory);
+		mArchivedHistory = other.mArchivedHistory;
+		mLore = other.mLore;
+	}
+
+	/* A copy unaffected by later changes to this soul, so it can be saved from another thread. Make it where souls are changed - on the main thread */
+	SoulEntry frozenCopy() {
+		return new SoulEntry(this);
+	}
+
 	/* Update this SoulEntry so new soul is now current; preserve history */
 	public void update(Player player, NBTTagCompound nbt) throws Exception {
 		mHistory.add(0, new SoulHistoryEntry(player, nbt));
 	}
 
-	public void autoUpdate(Location loc) throws Exception {
+	/* Returns whether a new version was added, in which case the soul needs saving */
+	public boolean autoUpdate(Location loc) throws Exception {
 		SoulHistoryEntry latestEntry = mHistory.get(0);
 		if (latestEntry.requiresAutoUpdate()) {
 			mHistory.add(0, latestEntry.getAutoUpdate(loc));
+			return true;
 		}
+		return false;
 	}
 
 	/*--------------------------------------------------------------------------------
@@ -137,6 +157,11 @@ public class SoulEntry implements Soul, SoulGroup, BestiaryEntryInterface {
 		return mHistory.get(0).getRandomSouls(random);
 	}
 
+	@Override
+	public void forEachRandomSoul(Random random, SoulConsumer consumer) {
+		consumer.accept(mHistory.get(0), 1);
+	}
+
 	@Override
 	public Map<Soul, Double> getAverageSouls() {
 		return mHistory.get(0).getAverageSouls();
@@ -157,6 +182,11 @@ public class SoulEntry implements Soul, SoulGroup, BestiaryEntryInterface {
 		return mHistory.get(0).summonGroup(random, world, spawnBb);
 	}
 
+	@Override
+	public List<Entity> summonGroup(Random random, World world, BoundingBox spawnBb, BlockOccupancyGrid grid) {
+		return mHistory.get(0).summonGroup(random, world, spawnBb, grid);
+	}
+
 	/*
 	 * Soul Group Interface
 	 *--------------------------------------------------------------------------------*/
@@ -190,6 +220,10 @@ public class SoulEntry implements Soul, SoulGroup, BestiaryEntryInterface {
 		return mHistory.get(0).getName();
 	}
 
+	public String getPlainName() {
+		return mHistory.get(0).getPlainName();
+	}
+
 	@Override
 	public Component getDisplayName() {
 		return mHistory.get(0).getDisplayName();
@@ -227,12 +261,15 @@ public class SoulEntry implements Soul, SoulGroup, BestiaryEntryInterface {
 	 * BestiaryEntryInterface Interface
 	 */
 
-	private static final ItemStack NOT_FOUND_ITEM = new ItemStack(Material.PAPER);
+	/* Built on first use rather than when souls are first loaded, as item meta needs a running server - tests have none */
+	private static final class NotFoundItem {
+		private static final ItemStack ITEM = new ItemStack(Material.PAPER);
 
-	static {
-		ItemMeta meta = NOT_FOUND_ITEM.getItemMeta();
-		meta.displayName(Component.text("Mob not discovered!", NamedTextColor.DARK_RED, TextDecoration.ITALIC));
-		NOT_FOUND_ITEM.setItemMeta(meta);
+		static {
+			ItemMeta meta = ITEM.getItemMeta();
+			meta.displayName(Component.text("Mob not discovered!", NamedTextColor.DARK_RED, TextDecoration.ITALIC));
+			ITEM.setItemMeta(meta);
+		}
 	}
 
 	@Override
@@ -258,7 +295,7 @@ public class SoulEntry implements Soul, SoulGroup, BestiaryEntryInterface {
 			item.setItemMeta(meta);
 			return item;
 		}
-		return NOT_FOUND_ITEM;
+		return NotFoundItem.ITEM;
 	}
 
 	@Override
@@ -368,95 +405,41 @@ public class SoulEntry implements Soul, SoulGroup, BestiaryEntryInterface {
 		}
 	}
 
+	/* Archived history is decoded here, every time - callers shouldn't hold on to it */
 	public List<Soul> getHistory() {
-		return new ArrayList<Soul>(mHistory);
-	}
-
-	public Set<String> getLocationNames() {
-		return mLocs;
-	}
-
-	public static SoulEntry fromJson(JsonObject obj, boolean loadHistory) throws Exception {
-		if (gson == null) {
-			gson = new Gson();
-		}
-
-		JsonElement elem = obj.get("mojangson");
-
-		Set<String> locs = new HashSet<String>();
-		elem = obj.get("location_names");
-		if (elem != null) {
-			JsonArray array = elem.getAsJsonArray();
-			if (array == null) {
-				throw new Exception("Failed to parse location_names as JSON array");
-			}
-
-			Iterator<JsonElement> iter = array.iterator();
-			while (iter.hasNext()) {
-				JsonElement tagElement = iter.next();
-				if (!tagElement.isJsonPrimitive()) {
-					throw new Exception("location_names entry for '" + elem.toString() + "' is not a string!");
+		List<Soul> history = new ArrayList<Soul>(mHistory);
+		if (mArchivedHistory != null) {
+			SoulHistoryEntryTypeAdapter adapter = new SoulHistoryEntryTypeAdapter(mLocs, mLore, false);
+			for (String json : mArchivedHistory.read()) {
+				try {
+					history.add(adapter.fromJson(json));
+				} catch (Exception ex) {
+					LibraryOfSouls.getInstance().getLogger().warning("Failed to load archived history for '" + getLabel() + "': " + ex.getMessage());
 				}
-				locs.add(tagElement.getAsString());
 			}
 		}
+		return history;
+	}
 
-		String lore = new String();
-		elem = obj.get("lore");
-		if (elem != null) {
-			lore = elem.getAsString();
-		} else {
-			lore = "";
-		}
-
-		List<SoulHistoryEntry> history = new ArrayList<SoulHistoryEntry>();
-		elem = obj.get("history");
-		if (elem != null) {
-			JsonArray array = elem.getAsJsonArray();
-			if (array == null) {
-				throw new Exception("Failed to parse history as JSON array");
-			}
-
-			if (loadHistory) {
-				for (JsonElement historyElement : array) {
-					if (!historyElement.isJsonObject()) {
-						throw new Exception("history entry for '" + elem.toString() + "' is not a string!");
-					}
+	/* Resident history only, current entry first, as stored */
+	List<SoulHistoryEntry> getHistoryEntries() {
+		return mHistory;
+	}
 
-					history.add(SoulHistoryEntry.fromJson(historyElement.getAsJsonObject(), locs, lore));
-				}
-			} else {
-				if (array.size() >= 1) {
-					JsonElement historyElement = array.get(0);
-					if (!historyElement.isJsonObject()) {
-						throw new Exception("history entry for '" + elem.toString() + "' is not a string!");
-					}
+	/* History older than getHistoryEntries(), or null if it is all resident */
+	SoulHistoryArchive.Range getArchivedHistory() {
+		return mArchivedHistory;
+	}
 
-					history.add(SoulHistoryEntry.fromJson(historyElement.getAsJsonObject(), locs, lore));
-				}
-			}
-		}
+	public Set<String> getLocationNames() {
+		return mLocs;
+	}
 
-		return new SoulEntry(history, locs, lore);
+	public static SoulEntry fromJson(JsonObject obj, boolean loadHistory) throws Exception {
+		return new SoulEntryTypeAdapter(loadHistory, false).fromJsonTree(obj);
 	}
 
 	public JsonObject toJson() {
-		JsonObject obj = new JsonObject();
-
-		JsonArray histArray = new JsonArray();
-		for (SoulHistoryEntry hist : mHistory) {
-			histArray.add(hist.toJson());
-		}
-		obj.add("history", histArray);
-
-		obj.addProperty("lore", mLore);
-
-		JsonArray locsArray = new JsonArray();
-		for (String location : mLocs) {
-			locsArray.add(location);
-		}
-		obj.add("location_names", locsArray);
-
-		return obj;
+		return new SoulEntryTypeAdapter(true, false).toJsonTree(this).getAsJsonObject();
 	}
 }
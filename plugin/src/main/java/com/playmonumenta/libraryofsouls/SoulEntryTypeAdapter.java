@@ -0,0 +1,160 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/*
+ * Streaming (de)serializer for a whole soul, including its history.
+ *
+ * Entries are written with lore and location_names before history so that each
+ * history entry can be built directly as it is read. Files written in the older
+ * order (history first) still load - those history entries are buffered as JSON
+ * until the rest of the soul has been read.
+ */
+public class SoulEntryTypeAdapter extends TypeAdapter<SoulEntry> {
+	private static final JsonParser PARSER = new JsonParser();
+	private static final TypeAdapter<JsonElement> ELEMENT_ADAPTER = new Gson().getAdapter(JsonElement.class);
+
+	private final boolean mLoadHistory;
+	private final boolean mLazy;
+	private final SoulHistoryArchive mArchive;
+
+	/* In lazy mode, history entries defer parsing their NBT where possible (see SoulHistoryEntryTypeAdapter) */
+	public SoulEntryTypeAdapter(boolean loadHistory, boolean lazy) {
+		this(loadHistory, lazy, null);
+	}
+
+	/* If an archive is given, past versions are moved there as-is rather than decoded */
+	public SoulEntryTypeAdapter(boolean loadHistory, boolean lazy, SoulHistoryArchive archive) {
+		mLoadHistory = loadHistory;
+		mLazy = lazy;
+		mArchive = archive;
+	}
+
+	@Override
+	public void write(JsonWriter out, SoulEntry soul) throws IOException {
+		out.beginObject();
+
+		out.name("lore").value(soul.getLore());
+
+		out.name("location_names");
+		out.beginArray();
+		for (String location : soul.getLocationNames()) {
+			out.value(location);
+		}
+		out.endArray();
+
+		SoulHistoryEntryTypeAdapter historyAdapter = new SoulHistoryEntryTypeAdapter(soul.getLocationNames(), soul.getLore(), mLazy);
+		out.name("history");
+		out.beginArray();
+		for (SoulHistoryEntry hist : soul.getHistoryEntries()) {
+			historyAdapter.write(out, hist);
+		}
+		SoulHistoryArchive.Range archived = soul.getArchivedHistory();
+		if (archived != null) {
+			/* Copied through without decoding the NBT */
+			for (String json : archived.read()) {
+				ELEMENT_ADAPTER.write(out, PARSER.parse(json));
+			}
+		}
+		out.endArray();
+
+		out.endObject();
+	}
+
+	@Override
+	public SoulEntry read(JsonReader in) throws IOException {
+		Set<String> locs = new HashSet<String>();
+		String lore = null;
+		List<SoulHistoryEntry> history = new ArrayList<SoulHistoryEntry>();
+		/* History entries encountered before the lore, which is needed to build them */
+		List<JsonElement> pendingHistory = new ArrayList<JsonElement>();
+		/* Past versions headed for the archive, as raw JSON */
+		List<String> archivedHistory = new ArrayList<String>();
+
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "location_names":
+					in.beginArray();
+					while (in.hasNext()) {
+						if (in.peek() == JsonToken.BEGIN_OBJECT || in.peek() == JsonToken.BEGIN_ARRAY) {
+							throw new IOException("location_names entry is not a string!");
+						}
+						locs.add(in.nextString());
+					}
+					in.endArray();
+					break;
+				case "lore":
+					if (in.peek() == JsonToken.NULL) {
+						in.nextNull();
+						lore = "";
+					} else {
+						lore = in.nextString();
+					}
+					break;
+				case "history":
+					in.beginArray();
+					for (int index = 0; in.hasNext(); index++) {
+						if (in.peek() != JsonToken.BEGIN_OBJECT) {
+							throw new IOException("history entry is not an object!");
+						}
+
+						if (index > 0 && !mLoadHistory) {
+							/* Only the current version is needed - don't even parse the rest */
+							in.skipValue();
+						} else if (index > 0 && mArchive != null) {
+							archivedHistory.add(PARSER.parse(in).toString());
+						} else if (lore == null) {
+							pendingHistory.add(PARSER.parse(in));
+						} else {
+							history.add(new SoulHistoryEntryTypeAdapter(locs, lore, mLazy).read(in));
+						}
+					}
+					in.endArray();
+					break;
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+
+		if (lore == null) {
+			lore = "";
+		}
+
+		if (!pendingHistory.isEmpty()) {
+			SoulHistoryEntryTypeAdapter historyAdapter = new SoulHistoryEntryTypeAdapter(locs, lore, mLazy);
+			for (JsonElement historyElement : pendingHistory) {
+				history.add(historyAdapter.fromJsonTree(historyElement));
+			}
+		}
+
+		if (history.isEmpty()) {
+			throw new IOException("Soul entry has no history");
+		}
+
+		SoulHistoryArchive.Range archived = null;
+		if (!archivedHistory.isEmpty()) {
+			archived = mArchive.append(archivedHistory);
+		}
+
+		try {
+			return new SoulEntry(history, archived, locs, lore);
+		} catch (Exception ex) {
+			throw new IOException(ex.getMessage(), ex);
+		}
+	}
+}
@@ -4,6 +4,8 @@ import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.util.BoundingBox;
 
+import com.playmonumenta.libraryofsouls.utils.BlockOccupancyGrid;
+
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -17,6 +19,7 @@ public interface SoulGroup {
 
 	String getModifiedBy();
 
+	/* For soul parties and soul pools, these are cached and shared between callers - don't modify them */
 	Set<Soul> getPossibleSouls();
 
 	Set<String> getPossibleSoulGroupLabels();
@@ -27,6 +30,16 @@ public interface SoulGroup {
 
 	Map<Soul, Integer> getRandomSouls(Random random);
 
+	/*
+	 * Rolls the group once like getRandomSouls(), passing the souls to consumer instead of
+	 * collecting them. Soul parties and pools roll a compiled SoulSpawnPlan, without allocating.
+	 */
+	default void forEachRandomSoul(Random random, SoulConsumer consumer) {
+		for (Map.Entry<Soul, Integer> entry : getRandomSouls(random).entrySet()) {
+			consumer.accept(entry.getKey(), entry.getValue());
+		}
+	}
+
 	Map<Soul, Double> getAverageSouls();
 
 	/* Returns the minimum width/height of the group where they are set, otherwise null */
@@ -36,4 +49,12 @@ public interface SoulGroup {
 
 	/* Attempt to summon the soul group; may summon fewer mobs if spawn conditions are not met */
 	List<Entity> summonGroup(Random random, World world, BoundingBox spawnBb);
+
+	/*
+	 * Same as summonGroup(), testing spawn positions against grid - which must cover spawnBb in
+	 * world - so the blocks there are read once for the whole group rather than once per mob.
+	 */
+	default List<Entity> summonGroup(Random random, World world, BoundingBox spawnBb, BlockOccupancyGrid grid) {
+		return summonGroup(random, world, spawnBb);
+	}
 }
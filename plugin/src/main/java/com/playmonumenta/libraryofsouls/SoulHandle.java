@@ -0,0 +1,99 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.util.BoundingBox;
+
+/*
+ * A soul, soul party or soul pool by label, for other plugins to keep instead of the label.
+ *
+ * The handle remembers what its label resolved to and the generation of the snapshot it was
+ * resolved in. Using it only compares that generation with the current snapshot's, and looks
+ * the label up again when they differ - after a reload or an edit. A handle whose label
+ * doesn't exist (yet) is fine to keep, it behaves like a missing label until it does.
+ *
+ * Get one from LibraryOfSoulsAPI.resolve(). Safe to use from any thread.
+ */
+public class SoulHandle {
+	/* What the label resolved to in one snapshot - replaced as a whole so readers never see half of it */
+	private static final class Resolved {
+		private final long mGeneration;
+		private final SoulGroup mGroup;
+
+		private Resolved(long generation, SoulGroup group) {
+			mGeneration = generation;
+			mGroup = group;
+		}
+	}
+
+	private final String mLabel;
+	private volatile Resolved mResolved = null;
+
+	SoulHandle(String label) {
+		mLabel = label;
+	}
+
+	public String getLabel() {
+		return mLabel;
+	}
+
+	/* The soul, soul party or soul pool with this label, or null if there is none */
+	public SoulGroup get() {
+		SoulsDatabase db = SoulsDatabase.getInstance();
+		if (db == null) {
+			return null;
+		}
+		SoulsSnapshot snapshot = db.getSnapshot();
+		Resolved resolved = mResolved;
+		if (resolved == null || resolved.mGeneration != snapshot.getGeneration()) {
+			resolved = new Resolved(snapshot.getGeneration(), snapshot.getSoulGroup(mLabel));
+			mResolved = resolved;
+		}
+		return resolved.mGroup;
+	}
+
+	/* The soul with this label, or null if there is none or the label is a soul party / pool */
+	public SoulEntry getSoul() {
+		SoulGroup group = get();
+		return group instanceof SoulEntry ? (SoulEntry)group : null;
+	}
+
+	public boolean exists() {
+		return get() != null;
+	}
+
+	/* Same as LibraryOfSoulsAPI.summon() - null unless the label is a soul */
+	public Entity summon(Location loc) {
+		SoulEntry soul = getSoul();
+		return soul == null ? null : soul.summon(loc);
+	}
+
+	/* Same as LibraryOfSoulsAPI.getRandomSouls() - empty if the label doesn't exist */
+	public Map<Soul, Integer> getRandomSouls(Random random) {
+		SoulGroup group = get();
+		return group == null ? new HashMap<>() : group.getRandomSouls(random);
+	}
+
+	/* Returns false if the label doesn't exist */
+	public boolean forEachRandomSoul(Random random, SoulConsumer consumer) {
+		SoulGroup group = get();
+		if (group == null) {
+			return false;
+		}
+		group.forEachRandomSoul(random, consumer);
+		return true;
+	}
+
+	/* Empty if the label doesn't exist */
+	public List<Entity> summonGroup(Random random, World world, BoundingBox spawnBb) {
+		SoulGroup group = get();
+		return group == null ? new ArrayList<>() : group.summonGroup(random, world, spawnBb);
+	}
+}
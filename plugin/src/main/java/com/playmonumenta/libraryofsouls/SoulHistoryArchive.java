@@ -0,0 +1,186 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Off-heap store for the past versions of souls.
+ *
+ * While the database loads, every history entry except the current one is appended here
+ * as raw JSON instead of being decoded. Once loading is done the file is memory-mapped
+ * read-only and removed from the data folder - the mapping stays valid for as long as
+ * this archive (and so any SoulEntry pointing into it) is reachable.
+ *
+ * A soul's past versions are written contiguously as length-prefixed UTF-8 records, so
+ * each soul only needs to remember where its first record starts and how many follow.
+ */
+public class SoulHistoryArchive {
+	private static final String FILE_PREFIX = "souls_history";
+	private static final String FILE_SUFFIX = ".archive";
+
+	/*
+	 * A single mapping is limited to 2GB, so the file is mapped in segments.
+	 * Records never straddle two segments - a zero length means skip to the next one.
+	 */
+	private static final long SEGMENT_SIZE = 1L << 30;
+	private static final int HEADER_SIZE = 4;
+
+	/* The archived versions of one soul, oldest last */
+	public static class Range {
+		private final SoulHistoryArchive mArchive;
+		private final long mOffset;
+		private final int mCount;
+
+		private Range(SoulHistoryArchive archive, long offset, int count) {
+			mArchive = archive;
+			mOffset = offset;
+			mCount = count;
+		}
+
+		public int size() {
+			return mCount;
+		}
+
+		/* Returns the raw JSON of each archived version, newest first */
+		public List<String> read() {
+			return mArchive.read(mOffset, mCount);
+		}
+	}
+
+	private final Path mPath;
+	private DataOutputStream mOut;
+	private long mPosition = 0;
+	private volatile MappedByteBuffer[] mSegments = null;
+
+	public SoulHistoryArchive(Path directory) throws IOException {
+		mPath = Files.createTempFile(directory, FILE_PREFIX, FILE_SUFFIX);
+		mOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(mPath, StandardOpenOption.WRITE)));
+	}
+
+	/*
+	 * Removes archives left behind by a previous run. These normally delete themselves
+	 * once mapped, but that can fail on platforms that lock mapped files.
+	 */
+	public static void deleteStale(Path directory) throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+			for (Path path : stream) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	/* Appends all of a soul's past versions, newest first. Safe to call from any thread while loading */
+	public synchronized Range append(List<String> records) throws IOException {
+		if (mOut == null) {
+			throw new IOException("History archive is no longer accepting entries");
+		}
+
+		long offset = -1;
+		for (String record : records) {
+			byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+			long size = HEADER_SIZE + bytes.length;
+			if (bytes.length == 0 || size > SEGMENT_SIZE) {
+				throw new IOException("History entry of " + bytes.length + " bytes can not be archived");
+			}
+
+			long remaining = SEGMENT_SIZE - (mPosition % SEGMENT_SIZE);
+			if (size > remaining) {
+				/* Zero padding reads back as a zero length record */
+				for (long i = 0; i < remaining; i++) {
+					mOut.write(0);
+				}
+				mPosition += remaining;
+			}
+
+			if (offset < 0) {
+				offset = mPosition;
+			}
+			mOut.writeInt(bytes.length);
+			mOut.write(bytes);
+			mPosition += size;
+		}
+
+		return new Range(this, offset, records.size());
+	}
+
+	/* Stops accepting entries and maps the archive so ranges can be read */
+	public synchronized void finish() throws IOException {
+		mOut.close();
+		mOut = null;
+
+		MappedByteBuffer[] segments;
+		try (FileChannel channel = FileChannel.open(mPath, StandardOpenOption.READ)) {
+			long size = channel.size();
+			segments = new MappedByteBuffer[(int)((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+			}
+		}
+		mSegments = segments;
+
+		try {
+			Files.delete(mPath);
+		} catch (IOException ex) {
+			/* Some platforms refuse to delete mapped files - cleaned up by deleteStale() next time */
+			mPath.toFile().deleteOnExit();
+		}
+	}
+
+	/* Throws the archive away without mapping it, used when loading fails */
+	public synchronized void discard() {
+		try {
+			if (mOut != null) {
+				mOut.close();
+				mOut = null;
+			}
+			Files.deleteIfExists(mPath);
+		} catch (IOException ex) {
+			mPath.toFile().deleteOnExit();
+		}
+	}
+
+	private List<String> read(long offset, int count) {
+		MappedByteBuffer[] segments = mSegments;
+		if (segments == null) {
+			throw new IllegalStateException("History archive has not finished loading");
+		}
+		if (count == 0) {
+			return Collections.emptyList();
+		}
+
+		List<String> records = new ArrayList<>(count);
+		long position = offset;
+		while (records.size() < count) {
+			int segmentIndex = (int)(position / SEGMENT_SIZE);
+			int segmentOffset = (int)(position % SEGMENT_SIZE);
+			/* Duplicate so concurrent readers don't share a position */
+			ByteBuffer segment = segments[segmentIndex].duplicate();
+
+			int length = segment.remaining() - segmentOffset >= HEADER_SIZE ? segment.getInt(segmentOffset) : 0;
+			if (length == 0) {
+				position = (segmentIndex + 1) * SEGMENT_SIZE;
+				continue;
+			}
+
+			byte[] bytes = new byte[length];
+			segment.position(segmentOffset + HEADER_SIZE);
+			segment.get(bytes);
+			records.add(new String(bytes, StandardCharsets.UTF_8));
+			position += HEADER_SIZE + length;
+		}
+		return records;
+	}
+}
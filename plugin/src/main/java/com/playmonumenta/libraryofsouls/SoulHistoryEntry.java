@@ -31,9 +31,8 @@ import com.goncalomb.bukkit.nbteditor.bos.BookOfSouls;
 import com.goncalomb.bukkit.nbteditor.nbt.EntityNBT;
 import com.goncalomb.bukkit.nbteditor.nbt.ItemStackNBTWrapper;
 import com.goncalomb.bukkit.nbteditor.nbt.variables.ListVariable;
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.playmonumenta.libraryofsouls.utils.BlockOccupancyGrid;
 import com.playmonumenta.libraryofsouls.utils.Utils;
 
 import net.kyori.adventure.text.Component;
@@ -43,8 +42,6 @@ import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
 import net.kyori.adventure.text.serializer.plain.PlainComponentSerializer;
 
 public class SoulHistoryEntry implements Soul, SoulGroup {
-	private static Gson gson = null;
-
 	private class HitboxSize {
 		private double mWidth;
 		private double mHeight;
@@ -79,10 +76,20 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 		}
 	}
 
-	private final NBTTagCompound mNBT;
+	/*
+	 * In lazy mode only the raw mojangson is kept until the NBT or name is first needed.
+	 * Both are then parsed once and memoized - these may be read from any thread.
+	 */
+	private final String mMojangson;
+	private volatile NBTTagCompound mNBT;
 	private final long mModifiedOn;
 	private final String mModifiedBy;
-	private final Component mName;
+	private volatile Component mName;
+	/* The name as plain text - in lazy mode extracted without parsing the NBT */
+	private volatile String mPlainName;
+	/* Pre-extracted Boss / Elite tags, null if they must be read from the NBT */
+	private final Boolean mBoss;
+	private final Boolean mElite;
 	private final String mLabel;
 	private final Set<String> mLocs;
 	private final NamespacedKey mId;
@@ -94,7 +101,10 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 
 	/* Create a SoulHistoryEntry object with existing history */
 	public SoulHistoryEntry(NBTTagCompound nbt, long modifiedOn, String modifiedBy, Set<String> locations, String lore, Double width, Double height) throws Exception {
+		mMojangson = null;
 		mNBT = nbt;
+		mBoss = null;
+		mElite = null;
 		mModifiedOn = modifiedOn;
 		mModifiedBy = modifiedBy;
 		mLocs = locations;
@@ -104,7 +114,34 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 		mHeight = height;
 
 		mName = GsonComponentSerializer.gson().deserialize(nbt.getString("CustomName"));
-		mLabel = Utils.getLabelFromName(PlainComponentSerializer.plain().serialize(mName));
+		mPlainName = PlainComponentSerializer.plain().serialize(mName);
+		mLabel = Utils.getLabelFromName(mPlainName);
+		if (mLabel == null || mLabel.isEmpty()) {
+			throw new Exception("Refused to load Library of Souls mob with no name!");
+		}
+	}
+
+	/*
+	 * Create a SoulHistoryEntry object with existing history, without parsing its NBT.
+	 *
+	 * The label, plain text name, id and (if not null) boss / elite flags must have been
+	 * extracted from this same mojangson.
+	 */
+	public SoulHistoryEntry(String mojangson, String label, String plainName, NamespacedKey id, Boolean boss, Boolean elite, long modifiedOn, String modifiedBy, Set<String> locations, String lore, Double width, Double height) throws Exception {
+		mMojangson = mojangson;
+		mNBT = null;
+		mBoss = boss;
+		mElite = elite;
+		mModifiedOn = modifiedOn;
+		mModifiedBy = modifiedBy;
+		mLocs = locations;
+		mId = id;
+		mLore = lore;
+		mWidth = width;
+		mHeight = height;
+		mName = null;
+		mPlainName = plainName;
+		mLabel = label;
 		if (mLabel == null || mLabel.isEmpty()) {
 			throw new Exception("Refused to load Library of Souls mob with no name!");
 		}
@@ -116,7 +153,10 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 		loc.setY(loc.getWorld().getMaxHeight());
 		HitboxSize hitboxSize = new HitboxSize(loc, nbt);
 
+		mMojangson = null;
 		mNBT = nbt;
+		mBoss = null;
+		mElite = null;
 		mModifiedOn = Instant.now().getEpochSecond();
 		mModifiedBy = player.getName();
 		mLocs = new HashSet<String>();
@@ -126,7 +166,8 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 		mHeight = hitboxSize.height();
 
 		mName = GsonComponentSerializer.gson().deserialize(nbt.getString("CustomName"));
-		mLabel = Utils.getLabelFromName(PlainComponentSerializer.plain().serialize(mName));
+		mPlainName = PlainComponentSerializer.plain().serialize(mName);
+		mLabel = Utils.getLabelFromName(mPlainName);
 		if (mLabel == null || mLabel.isEmpty()) {
 			throw new Exception("Refused to load Library of Souls mob with no name!");
 		}
@@ -137,8 +178,8 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 	}
 
 	public SoulHistoryEntry getAutoUpdate(Location loc) throws Exception {
-		HitboxSize hitboxSize = new HitboxSize(loc, mNBT);
-		return new SoulHistoryEntry(mNBT,
+		HitboxSize hitboxSize = new HitboxSize(loc, getNBT());
+		return new SoulHistoryEntry(getNBT(),
 		                            Instant.now().getEpochSecond(),
 		                            "AutoUpdate",
 		                            mLocs,
@@ -221,6 +262,11 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 
 	@Override
 	public List<Entity> summonGroup(Random random, World world, BoundingBox spawnBb) {
+		return summonGroup(random, world, spawnBb, new BlockOccupancyGrid(world, spawnBb));
+	}
+
+	@Override
+	public List<Entity> summonGroup(Random random, World world, BoundingBox spawnBb, BlockOccupancyGrid grid) {
 		List<Entity> result = new ArrayList<>();
 		if (mWidth == null || mHeight == null) {
 			return result;
@@ -229,7 +275,7 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 		double y = spawnBb.getMinY() + random.nextDouble() * (spawnBb.getMaxY() - spawnBb.getMinY());
 		double z = spawnBb.getMinZ() + random.nextDouble() * (spawnBb.getMaxZ() - spawnBb.getMinZ());
 		Location loc = new Location(world, x, y, z);
-		if (!Utils.insideBlocks(loc, mWidth, mHeight)) {
+		if (!grid.insideBlocks(loc, mWidth, mHeight)) {
 			result.add(summon(loc));
 		}
 		return result;
@@ -245,7 +291,31 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 
 	@Override
 	public NBTTagCompound getNBT() {
-		return mNBT;
+		NBTTagCompound nbt = mNBT;
+		if (nbt == null) {
+			synchronized (this) {
+				nbt = mNBT;
+				if (nbt == null) {
+					try {
+						nbt = NBTTagCompound.fromString(mMojangson);
+					} catch (Exception ex) {
+						/* Shouldn't happen - the mojangson was already parsed once when it was loaded */
+						throw new IllegalStateException("Failed to parse Library of Souls mob '" + mLabel + "': " + ex.getMessage(), ex);
+					}
+					mNBT = nbt;
+				}
+			}
+		}
+		return nbt;
+	}
+
+	/* The mojangson as it should be saved - doesn't force parsing the NBT in lazy mode */
+	String getMojangson() {
+		NBTTagCompound nbt = mNBT;
+		if (nbt != null) {
+			return nbt.toString();
+		}
+		return mMojangson;
 	}
 
 	@Override
@@ -271,18 +341,38 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 
 	@Override
 	public Component getName() {
-		return mName;
+		Component name = mName;
+		if (name == null) {
+			name = GsonComponentSerializer.gson().deserialize(getNBT().getString("CustomName"));
+			/* Deserializing twice in a race is harmless - both results are equal */
+			mName = name;
+		}
+		return name;
+	}
+
+	/* Doesn't parse the NBT in lazy mode */
+	public String getPlainName() {
+		String plainName = mPlainName;
+		if (plainName == null) {
+			plainName = PlainComponentSerializer.plain().serialize(getName());
+			mPlainName = plainName;
+		}
+		return plainName;
 	}
 
 	@Override
 	public Component getDisplayName() {
-		return Component.text(PlainComponentSerializer.plain().serialize(mName), isElite() ? NamedTextColor.GOLD : isBoss() ? NamedTextColor.RED : NamedTextColor.WHITE).decoration(TextDecoration.ITALIC, false);
+		return Component.text(getPlainName(), isElite() ? NamedTextColor.GOLD : isBoss() ? NamedTextColor.RED : NamedTextColor.WHITE).decoration(TextDecoration.ITALIC, false);
 	}
 
 	@Override
 	public boolean isBoss() {
+		if (mBoss != null) {
+			return mBoss;
+		}
+
 		boolean isBoss = false;
-		NBTTagList tags = mNBT.getList("Tags");
+		NBTTagList tags = getNBT().getList("Tags");
 		if (tags != null && tags.size() > 0) {
 			for (Object obj : tags.getAsArray()) {
 				if (obj.equals("Boss")) {
@@ -295,8 +385,12 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 
 	@Override
 	public boolean isElite() {
+		if (mElite != null) {
+			return mElite;
+		}
+
 		boolean isElite = false;
-		NBTTagList tags = mNBT.getList("Tags");
+		NBTTagList tags = getNBT().getList("Tags");
 		if (tags != null && tags.size() > 0) {
 			for (Object obj : tags.getAsArray()) {
 				if (obj.equals("Elite")) {
@@ -309,7 +403,7 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 
 	@Override
 	public Entity summon(Location loc) {
-		return EntityNBT.fromEntityData(mNBT).spawn(loc);
+		return EntityNBT.fromEntityData(getNBT()).spawn(loc);
 	}
 
 	/*
@@ -346,13 +440,14 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 	}
 
 	private void regenerateItems() {
-		EntityNBT entityNBT = EntityNBT.fromEntityData(mNBT);
+		NBTTagCompound nbt = getNBT();
+		EntityNBT entityNBT = EntityNBT.fromEntityData(nbt);
 
 		try {
 			mBoS = (new BookOfSouls(entityNBT)).getBook();
 		} catch (Exception ex) {
 			Logger logger = LibraryOfSouls.getInstance().getLogger();
-			logger.warning("Library of souls entry for '" + mName + "' failed to load: " + ex.getMessage());
+			logger.warning("Library of souls entry for '" + getName() + "' failed to load: " + ex.getMessage());
 			ex.printStackTrace();
 
 			mPlaceholder = new ItemStack(Material.BARRIER);
@@ -577,21 +672,21 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 		bosWrap.getVariable("HideFlags").set("32", null);
 
 		String idStr = ChatColor.WHITE + "Type: ";
-		if (mNBT.getString("id").startsWith("minecraft:")) {
-			idStr += mNBT.getString("id").substring(10);
+		if (nbt.getString("id").startsWith("minecraft:")) {
+			idStr += nbt.getString("id").substring(10);
 		} else {
-			idStr += mNBT.getString("id");
+			idStr += nbt.getString("id");
 		}
 		((ListVariable)placeholderWrap.getVariable("Lore")).add(idStr, null);
 		((ListVariable)bosWrap.getVariable("Lore")).add(idStr, null);
 
-		if (mNBT.hasKey("Health")) {
-			String healthStr = ChatColor.WHITE + "Health: " + Double.toString(mNBT.getDouble("Health"));
+		if (nbt.hasKey("Health")) {
+			String healthStr = ChatColor.WHITE + "Health: " + Double.toString(nbt.getDouble("Health"));
 			((ListVariable)placeholderWrap.getVariable("Lore")).add(healthStr, null);
 			((ListVariable)bosWrap.getVariable("Lore")).add(healthStr, null);
 		}
 
-		NBTTagList tags = mNBT.getList("Tags");
+		NBTTagList tags = nbt.getList("Tags");
 		if (tags != null && tags.size() > 0) {
 			((ListVariable)placeholderWrap.getVariable("Lore")).add(ChatColor.WHITE + "Tags:", null);
 			((ListVariable)bosWrap.getVariable("Lore")).add(ChatColor.WHITE + "Tags:", null);
@@ -668,39 +763,10 @@ public class SoulHistoryEntry implements Soul, SoulGroup {
 
 
 	public JsonObject toJson() {
-		JsonObject obj = new JsonObject();
-
-		obj.addProperty("mojangson", mNBT.toString());
-		obj.addProperty("modified_on", mModifiedOn);
-		obj.addProperty("modified_by", mModifiedBy);
-		if (mWidth != null && mHeight != null) {
-			obj.addProperty("width", mWidth);
-			obj.addProperty("height", mHeight);
-		}
-
-		return obj;
+		return new SoulHistoryEntryTypeAdapter(mLocs, mLore, false).toJsonTree(this).getAsJsonObject();
 	}
 
 	public static SoulHistoryEntry fromJson(JsonObject obj, Set<String> locations, String lore) throws Exception {
-		if (gson == null) {
-			gson = new Gson();
-		}
-
-		JsonElement elem = obj.get("mojangson");
-
-		NBTTagCompound nbt = NBTTagCompound.fromString(elem.getAsString());
-		long modifiedOn = obj.get("modified_on").getAsLong();
-		String modifiedBy = "";
-		if (obj.has("modified_by")) {
-			modifiedBy = obj.get("modified_by").getAsString();
-		}
-		Double width = null;
-		Double height = null;
-		if (obj.has("width") && obj.has("height")) {
-			width = obj.get("width").getAsDouble();
-			height = obj.get("height").getAsDouble();
-		}
-
-		return new SoulHistoryEntry(nbt, modifiedOn, modifiedBy, locations, lore, width, height);
+		return new SoulHistoryEntryTypeAdapter(locations, lore, false).fromJsonTree(obj);
 	}
 }
@@ -0,0 +1,189 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.bukkit.NamespacedKey;
+import org.bukkit.Registry;
+import org.bukkit.entity.EntityType;
+
+import com.goncalomb.bukkit.mylib.reflect.NBTTagCompound;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.playmonumenta.libraryofsouls.utils.Utils;
+
+import net.kyori.adventure.text.serializer.gson.GsonComponentSerializer;
+import net.kyori.adventure.text.serializer.plain.PlainComponentSerializer;
+
+/*
+ * Streaming (de)serializer for a single soul history entry.
+ *
+ * History entries inherit the locations and lore of the SoulEntry that owns them,
+ * so one adapter is created per soul with those values already known.
+ *
+ * In lazy mode, the label, plain text name and entity id are read from the mojangson text by scanning for the
+ * top level CustomName and id tags rather than resolving the entity from the NBT, so entries
+ * are indexed under what their NBT actually says. The id is looked up in the entity type
+ * registry so that "zombie" and "minecraft:zombie" give the same key the eager path would.
+ * The mojangson is still parsed once here so that a broken one fails the load as it would
+ * eagerly, but the parsed NBT isn't kept. Entries where the scan can't find both tags are
+ * loaded eagerly as before.
+ */
+public class SoulHistoryEntryTypeAdapter extends TypeAdapter<SoulHistoryEntry> {
+	private final Set<String> mLocs;
+	private final String mLore;
+	private final boolean mLazy;
+
+	public SoulHistoryEntryTypeAdapter(Set<String> locations, String lore, boolean lazy) {
+		mLocs = locations;
+		mLore = lore;
+		mLazy = lazy;
+	}
+
+	@Override
+	public void write(JsonWriter out, SoulHistoryEntry entry) throws IOException {
+		out.beginObject();
+		out.name("mojangson").value(entry.getMojangson());
+		out.name("modified_on").value(entry.getModifiedOn());
+		out.name("modified_by").value(entry.getModifiedBy());
+		if (entry.getWidth() != null && entry.getHeight() != null) {
+			out.name("width").value(entry.getWidth());
+			out.name("height").value(entry.getHeight());
+		}
+		out.endObject();
+	}
+
+	@Override
+	public SoulHistoryEntry read(JsonReader in) throws IOException {
+		String mojangson = null;
+		Long modifiedOn = null;
+		String modifiedBy = "";
+		Double width = null;
+		Double height = null;
+
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "mojangson":
+					mojangson = in.nextString();
+					break;
+				case "modified_on":
+					modifiedOn = in.nextLong();
+					break;
+				case "modified_by":
+					if (in.peek() == JsonToken.NULL) {
+						in.nextNull();
+					} else {
+						modifiedBy = in.nextString();
+					}
+					break;
+				case "width":
+					width = in.nextDouble();
+					break;
+				case "height":
+					height = in.nextDouble();
+					break;
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+
+		if (mojangson == null) {
+			throw new IOException("Soul history entry is missing mojangson");
+		}
+		if (modifiedOn == null) {
+			throw new IOException("Soul history entry is missing modified_on");
+		}
+		if (width == null || height == null) {
+			width = null;
+			height = null;
+		}
+
+		try {
+			NBTTagCompound nbt = NBTTagCompound.fromString(mojangson);
+			if (mLazy) {
+				String[] tags = getTopLevelStrings(mojangson, "id", "CustomName");
+				NamespacedKey key = tags[0] == null ? null : NamespacedKey.fromString(tags[0]);
+				EntityType type = key == null ? null : Registry.ENTITY_TYPE.get(key);
+				String plainName = tags[1] == null ? null : PlainComponentSerializer.plain().serialize(GsonComponentSerializer.gson().deserialize(tags[1]));
+				String label = plainName == null ? null : Utils.getLabelFromName(plainName);
+				if (type != null && label != null && !label.isEmpty()) {
+					return new SoulHistoryEntry(mojangson, label, plainName, type.getKey(), null, null, modifiedOn, modifiedBy, mLocs, mLore, width, height);
+				}
+			}
+			return new SoulHistoryEntry(nbt, modifiedOn, modifiedBy, mLocs, mLore, width, height);
+		} catch (Exception ex) {
+			throw new IOException("Failed to load soul history entry: " + ex.getMessage(), ex);
+		}
+	}
+
+	/*
+	 * The values of the given string tags of the outermost compound of mojangson, null where
+	 * missing - tags of the same name nested deeper (passengers, items) are skipped over.
+	 * Quoted and unquoted keys and values are both handled.
+	 */
+	static String[] getTopLevelStrings(String mojangson, String... keys) {
+		String[] result = new String[keys.length];
+		int depth = 0;
+		String key = null;
+		int i = 0;
+		while (i < mojangson.length()) {
+			char c = mojangson.charAt(i);
+			if (c == '"' || c == '\'') {
+				StringBuilder value = new StringBuilder();
+				i++;
+				while (i < mojangson.length() && mojangson.charAt(i) != c) {
+					if (mojangson.charAt(i) == '\\' && i + 1 < mojangson.length()) {
+						i++;
+					}
+					value.append(mojangson.charAt(i));
+					i++;
+				}
+				i++;
+				key = storeToken(value.toString(), depth, key, keys, result, mojangson, i);
+			} else if (isUnquotedChar(c)) {
+				int start = i;
+				while (i < mojangson.length() && isUnquotedChar(mojangson.charAt(i))) {
+					i++;
+				}
+				key = storeToken(mojangson.substring(start, i), depth, key, keys, result, mojangson, i);
+			} else {
+				if (c == '{' || c == '[') {
+					depth++;
+				} else if (c == '}' || c == ']') {
+					depth--;
+				}
+				i++;
+			}
+		}
+		return result;
+	}
+
+	/* Records token if it is the value of one of keys at the top level, returns the key it may be the value of next */
+	private static String storeToken(String token, int depth, String key, String[] keys, String[] result, String mojangson, int end) {
+		int next = end;
+		while (next < mojangson.length() && Character.isWhitespace(mojangson.charAt(next))) {
+			next++;
+		}
+		if (next < mojangson.length() && mojangson.charAt(next) == ':') {
+			/* This token is a key */
+			return depth == 1 ? token : null;
+		}
+		if (key != null && depth == 1) {
+			for (int k = 0; k < keys.length; k++) {
+				if (keys[k].equals(key) && result[k] == null) {
+					result[k] = token;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean isUnquotedChar(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_' || c == '-' || c == '.' || c == '+';
+	}
+}
@@ -1,31 +1,30 @@
 package com.playmonumenta.libraryofsouls;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.util.BoundingBox;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.playmonumenta.libraryofsouls.utils.BlockOccupancyGrid;
 
 import dev.jorel.commandapi.exceptions.WrapperCommandSyntaxException;
 
 public class SoulPartyEntry implements SoulGroup {
-	private static Gson gson = null;
-
+	/* Copy-on-write so it can be saved from another thread */
 	private final List<SoulPartyHistoryEntry> mHistory;
 
 	/* Create a SoulPartyEntry object with existing history */
 	public SoulPartyEntry(List<SoulPartyHistoryEntry> history) throws Exception {
-		mHistory = history;
+		mHistory = new CopyOnWriteArrayList<SoulPartyHistoryEntry>(history);
 
 		String refLabel = history.get(0).getLabel();
 
@@ -40,10 +39,19 @@ public class SoulPartyEntry implements SoulGroup {
 	public SoulPartyEntry(Player player, String label) {
 		SoulPartyHistoryEntry newHist = new SoulPartyHistoryEntry(player, label);
 
-		mHistory = new ArrayList<SoulPartyHistoryEntry>(1);
+		mHistory = new CopyOnWriteArrayList<SoulPartyHistoryEntry>();
 		mHistory.add(newHist);
 	}
 
+	private SoulPartyEntry(SoulPartyEntry other) {
+		mHistory = new CopyOnWriteArrayList<SoulPartyHistoryEntry>(other.mHistory);
+	}
+
+	/* A copy unaffected by later changes to this soul party, so it can be saved from another thread. Make it where they are changed - on the main thread */
+	SoulPartyEntry frozenCopy() {
+		return new SoulPartyEntry(this);
+	}
+
 	/* Update this SoulPartyEntry so new soul is now current; preserve history */
 	public void update(Player player, String entryLabel, int count) throws WrapperCommandSyntaxException {
 		mHistory.add(0, mHistory.get(0).changeCount(player, entryLabel, count));
@@ -57,6 +65,15 @@ public class SoulPartyEntry implements SoulGroup {
 	 * Soul Group Interface
 	 */
 
+	/* These are cached, as working them out means expanding every group this contains */
+	private SoulsExpansionCache.Expansion expansion() {
+		SoulsDatabase db = SoulsDatabase.getInstance();
+		if (db == null) {
+			return SoulsExpansionCache.expand(mHistory.get(0));
+		}
+		return db.getSnapshot().getExpansion(this, mHistory.get(0));
+	}
+
 	@Override
 	public String getLabel() {
 		return mHistory.get(0).getLabel();
@@ -74,7 +91,7 @@ public class SoulPartyEntry implements SoulGroup {
 
 	@Override
 	public Set<Soul> getPossibleSouls() {
-		return mHistory.get(0).getPossibleSouls();
+		return expansion().getPossibleSouls();
 	}
 
 	@Override
@@ -89,27 +106,39 @@ public class SoulPartyEntry implements SoulGroup {
 
 	@Override
 	public Map<SoulGroup, Double> getAverageEntries() {
-		return mHistory.get(0).getAverageEntries();
+		return expansion().getAverageEntries();
 	}
 
 	@Override
 	public Map<Soul, Integer> getRandomSouls(Random random) {
-		return mHistory.get(0).getRandomSouls(random);
+		Map<Soul, Integer> result = new HashMap<>();
+		forEachRandomSoul(random, (soul, count) -> result.merge(soul, count, Integer::sum));
+		return result;
+	}
+
+	@Override
+	public void forEachRandomSoul(Random random, SoulConsumer consumer) {
+		getSpawnPlan().forEachRandomSoul(random, consumer);
+	}
+
+	/* Compiled once per version of this and database snapshot, without expanding anything else */
+	public SoulSpawnPlan getSpawnPlan() {
+		return mHistory.get(0).getSpawnPlan();
 	}
 
 	@Override
 	public Map<Soul, Double> getAverageSouls() {
-		return mHistory.get(0).getAverageSouls();
+		return expansion().getAverageSouls();
 	}
 
 	@Override
 	public Double getWidth() {
-		return mHistory.get(0).getWidth();
+		return expansion().getWidth();
 	}
 
 	@Override
 	public Double getHeight() {
-		return mHistory.get(0).getHeight();
+		return expansion().getHeight();
 	}
 
 	@Override
@@ -117,6 +146,11 @@ public class SoulPartyEntry implements SoulGroup {
 		return mHistory.get(0).summonGroup(random, world, spawnBb);
 	}
 
+	@Override
+	public List<Entity> summonGroup(Random random, World world, BoundingBox spawnBb, BlockOccupancyGrid grid) {
+		return mHistory.get(0).summonGroup(random, world, spawnBb, grid);
+	}
+
 	/*
 	 * Soul Group Interface
 	 *--------------------------------------------------------------------------------*/
@@ -125,48 +159,16 @@ public class SoulPartyEntry implements SoulGroup {
 		return new ArrayList<SoulGroup>(mHistory);
 	}
 
-	public static SoulPartyEntry fromJson(JsonObject obj, boolean loadHistory) throws Exception {
-		if (gson == null) {
-			gson = new Gson();
-		}
-
-		List<SoulPartyHistoryEntry> history = new ArrayList<SoulPartyHistoryEntry>();
-		JsonArray array = obj.getAsJsonArray("history");
-		if (array == null) {
-			throw new Exception("Failed to parse history as JSON array");
-		}
-
-		if (loadHistory) {
-			for (JsonElement historyElement : array) {
-				if (!historyElement.isJsonObject()) {
-					throw new Exception("history entry for '" + history.toString() + "' is not an object!");
-				}
-
-				history.add(SoulPartyHistoryEntry.fromJson(historyElement.getAsJsonObject()));
-			}
-		} else {
-			if (array.size() >= 1) {
-				JsonElement historyElement = array.get(0);
-				if (!historyElement.isJsonObject()) {
-					throw new Exception("history entry for '" + history.toString() + "' is not an object!");
-				}
-
-				history.add(SoulPartyHistoryEntry.fromJson(historyElement.getAsJsonObject()));
-			}
-		}
+	/* Current entry first, as stored */
+	List<SoulPartyHistoryEntry> getHistoryEntries() {
+		return mHistory;
+	}
 
-		return new SoulPartyEntry(history);
+	public static SoulPartyEntry fromJson(JsonObject obj, boolean loadHistory) throws Exception {
+		return new SoulPartyEntryTypeAdapter(loadHistory).fromJsonTree(obj);
 	}
 
 	public JsonObject toJson() {
-		JsonObject obj = new JsonObject();
-
-		JsonArray histArray = new JsonArray();
-		for (SoulPartyHistoryEntry hist : mHistory) {
-			histArray.add(hist.toJson());
-		}
-		obj.add("history", histArray);
-
-		return obj;
+		return new SoulPartyEntryTypeAdapter(true).toJsonTree(this).getAsJsonObject();
 	}
 }
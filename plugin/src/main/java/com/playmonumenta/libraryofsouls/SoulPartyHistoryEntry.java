@@ -14,20 +14,19 @@ import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.util.BoundingBox;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.playmonumenta.libraryofsouls.utils.BlockOccupancyGrid;
 
 import dev.jorel.commandapi.CommandAPI;
 import dev.jorel.commandapi.exceptions.WrapperCommandSyntaxException;
 
 public class SoulPartyHistoryEntry implements SoulGroup {
-	private static Gson gson = null;
-
 	private final String mLabel;
 	private final long mModifiedOn;
 	private final String mModifiedBy;
 	private final Map<String, Integer> mEntryCounts;
+	/* Compiled on first roll, and again whenever the database changes, as it refers to the entries directly */
+	private volatile SoulSpawnPlan mPlan = null;
 
 	/* Create a SoulPartyHistoryEntry object with existing history */
 	public SoulPartyHistoryEntry(String label, long modifiedOn, String modifiedBy, Map<String, Integer> entryCounts) {
@@ -54,11 +53,11 @@ public class SoulPartyHistoryEntry implements SoulGroup {
 			}
 			newEntryCounts.remove(entryLabel);
 		} else {
-			SoulGroup entry = SoulsDatabase.getInstance().getSoulGroup(entryLabel);
-			if (entry == null) {
+			SoulsSnapshot snapshot = SoulsDatabase.getInstance().getSnapshot();
+			if (snapshot.getSoulGroup(entryLabel) == null) {
 				CommandAPI.fail(entryLabel + " does not exist.");
 			}
-			if (entry.getPossibleSoulGroupLabels().contains(getLabel())) {
+			if (snapshot.getDependencies().reaches(entryLabel, getLabel())) {
 				CommandAPI.fail(entryLabel + " contains " + getLabel());
 			}
 			newEntryCounts.put(entryLabel, count);
@@ -70,6 +69,19 @@ public class SoulPartyHistoryEntry implements SoulGroup {
 		return new HashMap<String, Integer>(mEntryCounts);
 	}
 
+	/* The spawn plan for the current database snapshot */
+	public SoulSpawnPlan getSpawnPlan() {
+		SoulsDatabase db = SoulsDatabase.getInstance();
+		SoulsSnapshot snapshot = db == null ? null : db.getSnapshot();
+		SoulSpawnPlan plan = mPlan;
+		if (plan == null || !plan.isFor(snapshot)) {
+			/* Compiling twice in a race is harmless - both plans are equivalent */
+			plan = SoulSpawnPlan.compile(this, snapshot);
+			mPlan = plan;
+		}
+		return plan;
+	}
+
 	/*--------------------------------------------------------------------------------
 	 * Soul Group Interface
 	 */
@@ -233,6 +245,11 @@ public class SoulPartyHistoryEntry implements SoulGroup {
 
 	@Override
 	public List<Entity> summonGroup(Random random, World world, BoundingBox spawnBb) {
+		return summonGroup(random, world, spawnBb, new BlockOccupancyGrid(world, spawnBb));
+	}
+
+	@Override
+	public List<Entity> summonGroup(Random random, World world, BoundingBox spawnBb, BlockOccupancyGrid grid) {
 		List<Entity> result = new ArrayList<>();
 
 		for (Map.Entry<String, Integer> entry : mEntryCounts.entrySet()) {
@@ -240,7 +257,7 @@ public class SoulPartyHistoryEntry implements SoulGroup {
 			SoulGroup group = SoulsDatabase.getInstance().getSoulGroup(entry.getKey());
 			if (group != null) {
 				for (int i = 0; i < entryCount; i++) {
-					result.addAll(group.summonGroup(random, world, spawnBb));
+					result.addAll(group.summonGroup(random, world, spawnBb, grid));
 				}
 			}
 		}
@@ -253,35 +270,10 @@ public class SoulPartyHistoryEntry implements SoulGroup {
 	 *--------------------------------------------------------------------------------*/
 
 	public JsonObject toJson() {
-		JsonObject obj = new JsonObject();
-
-		JsonObject entryCountsObj = new JsonObject();
-		for (Map.Entry<String, Integer> entry : mEntryCounts.entrySet()) {
-			entryCountsObj.addProperty(entry.getKey(), entry.getValue());
-		}
-
-		obj.addProperty("label", mLabel);
-		obj.addProperty("modified_on", mModifiedOn);
-		obj.addProperty("modified_by", mModifiedBy);
-		obj.add("entry_counts", entryCountsObj);
-
-		return obj;
+		return new SoulPartyHistoryEntryTypeAdapter().toJsonTree(this).getAsJsonObject();
 	}
 
 	public static SoulPartyHistoryEntry fromJson(JsonObject obj) throws Exception {
-		if (gson == null) {
-			gson = new Gson();
-		}
-
-		String label = obj.get("label").getAsString();
-		long modifiedOn = obj.get("modified_on").getAsLong();
-		String modifiedBy = obj.get("modified_by").getAsString();
-
-		Map<String, Integer> entryCounts = new HashMap<>();
-		for (Map.Entry<String, JsonElement> entry : obj.getAsJsonObject("entry_counts").entrySet()) {
-			entryCounts.put(entry.getKey(), entry.getValue().getAsInt());
-		}
-
-		return new SoulPartyHistoryEntry(label, modifiedOn, modifiedBy, entryCounts);
+		return new SoulPartyHistoryEntryTypeAdapter().fromJsonTree(obj);
 	}
 }
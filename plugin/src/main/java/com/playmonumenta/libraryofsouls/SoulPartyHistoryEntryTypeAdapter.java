@@ -0,0 +1,68 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/* Streaming (de)serializer for a single soul party history entry */
+public class SoulPartyHistoryEntryTypeAdapter extends TypeAdapter<SoulPartyHistoryEntry> {
+	@Override
+	public void write(JsonWriter out, SoulPartyHistoryEntry hist) throws IOException {
+		out.beginObject();
+		out.name("label").value(hist.getLabel());
+		out.name("modified_on").value(hist.getModifiedOn());
+		out.name("modified_by").value(hist.getModifiedBy());
+		out.name("entry_counts");
+		out.beginObject();
+		for (Map.Entry<String, Integer> entry : hist.getEntryCounts().entrySet()) {
+			out.name(entry.getKey()).value(entry.getValue());
+		}
+		out.endObject();
+		out.endObject();
+	}
+
+	@Override
+	public SoulPartyHistoryEntry read(JsonReader in) throws IOException {
+		String label = null;
+		Long modifiedOn = null;
+		String modifiedBy = null;
+		Map<String, Integer> entryCounts = null;
+
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "label":
+					label = in.nextString();
+					break;
+				case "modified_on":
+					modifiedOn = in.nextLong();
+					break;
+				case "modified_by":
+					modifiedBy = in.nextString();
+					break;
+				case "entry_counts":
+					entryCounts = new HashMap<>();
+					in.beginObject();
+					while (in.hasNext()) {
+						entryCounts.put(in.nextName(), in.nextInt());
+					}
+					in.endObject();
+					break;
+				default:
+					in.skipValue();
+					break;
+			}
+		}
+		in.endObject();
+
+		if (label == null || modifiedOn == null || modifiedBy == null || entryCounts == null) {
+			throw new IOException("Soul party history entry is missing label, modified_on, modified_by or entry_counts");
+		}
+
+		return new SoulPartyHistoryEntry(label, modifiedOn, modifiedBy, entryCounts);
+	}
+}
@@ -1,31 +1,30 @@
 package com.playmonumenta.libraryofsouls;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.util.BoundingBox;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.playmonumenta.libraryofsouls.utils.BlockOccupancyGrid;
 
 import dev.jorel.commandapi.exceptions.WrapperCommandSyntaxException;
 
 public class SoulPoolEntry implements SoulGroup {
-	private static Gson gson = null;
-
+	/* Copy-on-write so it can be saved from another thread */
 	private final List<SoulPoolHistoryEntry> mHistory;
 
 	/* Create a SoulPoolEntry object with existing history */
 	public SoulPoolEntry(List<SoulPoolHistoryEntry> history) throws Exception {
-		mHistory = history;
+		mHistory = new CopyOnWriteArrayList<SoulPoolHistoryEntry>(history);
 
 		String refLabel = history.get(0).getLabel();
 
@@ -40,10 +39,19 @@ public class SoulPoolEntry implements SoulGroup {
 	public SoulPoolEntry(Player player, String label) {
 		SoulPoolHistoryEntry newHist = new SoulPoolHistoryEntry(player, label);
 
-		mHistory = new ArrayList<SoulPoolHistoryEntry>(1);
+		mHistory = new CopyOnWriteArrayList<SoulPoolHistoryEntry>();
 		mHistory.add(newHist);
 	}
 
+	private SoulPoolEntry(SoulPoolEntry other) {
+		mHistory = new CopyOnWriteArrayList<SoulPoolHistoryEntry>(other.mHistory);
+	}
+
+	/* A copy unaffected by later changes to this soul pool, so it can be saved from another thread. Make it where they are changed - on the main thread */
+	SoulPoolEntry frozenCopy() {
+		return new SoulPoolEntry(this);
+	}
+
 	/* Update this SoulPoolEntry so new soul is now current; preserve history */
 	public void update(Player player, String entryLabel, int weight) throws WrapperCommandSyntaxException {
 		mHistory.add(0, mHistory.get(0).changeWeight(player, entryLabel, weight));
@@ -53,10 +61,28 @@ public class SoulPoolEntry implements SoulGroup {
 		return mHistory.get(0).getEntryWeights();
 	}
 
+	/* Draws one entry by weight in constant time, or null if there is nothing to draw or the entry doesn't exist */
+	public SoulGroup sample(Random random) {
+		return mHistory.get(0).sample(random);
+	}
+
+	public SoulPoolSampler getSampler() {
+		return mHistory.get(0).getSampler();
+	}
+
 	/*--------------------------------------------------------------------------------
 	 * Soul Group Interface
 	 */
 
+	/* These are cached, as working them out means expanding every group this contains */
+	private SoulsExpansionCache.Expansion expansion() {
+		SoulsDatabase db = SoulsDatabase.getInstance();
+		if (db == null) {
+			return SoulsExpansionCache.expand(mHistory.get(0));
+		}
+		return db.getSnapshot().getExpansion(this, mHistory.get(0));
+	}
+
 	@Override
 	public String getLabel() {
 		return mHistory.get(0).getLabel();
@@ -74,7 +100,7 @@ public class SoulPoolEntry implements SoulGroup {
 
 	@Override
 	public Set<Soul> getPossibleSouls() {
-		return mHistory.get(0).getPossibleSouls();
+		return expansion().getPossibleSouls();
 	}
 
 	@Override
@@ -89,27 +115,39 @@ public class SoulPoolEntry implements SoulGroup {
 
 	@Override
 	public Map<SoulGroup, Double> getAverageEntries() {
-		return mHistory.get(0).getAverageEntries();
+		return expansion().getAverageEntries();
 	}
 
 	@Override
 	public Map<Soul, Integer> getRandomSouls(Random random) {
-		return mHistory.get(0).getRandomSouls(random);
+		Map<Soul, Integer> result = new HashMap<>();
+		forEachRandomSoul(random, (soul, count) -> result.merge(soul, count, Integer::sum));
+		return result;
+	}
+
+	@Override
+	public void forEachRandomSoul(Random random, SoulConsumer consumer) {
+		getSpawnPlan().forEachRandomSoul(random, consumer);
+	}
+
+	/* Compiled once per version of this and database snapshot, without expanding anything else */
+	public SoulSpawnPlan getSpawnPlan() {
+		return mHistory.get(0).getSpawnPlan();
 	}
 
 	@Override
 	public Map<Soul, Double> getAverageSouls() {
-		return mHistory.get(0).getAverageSouls();
+		return expansion().getAverageSouls();
 	}
 
 	@Override
 	public Double getWidth() {
-		return mHistory.get(0).getWidth();
+		return expansion().getWidth();
 	}
 
 	@Override
 	public Double getHeight() {
-		return mHistory.get(0).getHeight();
+		return expansion().getHeight();
 	}
 
 	@Override
@@ -117,6 +155,11 @@ public class SoulPoolEntry implements SoulGroup {
 		return mHistory.get(0).summonGroup(random, world, spawnBb);
 	}
 
+	@Override
+	public List<Entity> summonGroup(Random random, World world, BoundingBox spawnBb, BlockOccupancyGrid grid) {
+		return mHistory.get(0).summonGroup(random, world, spawnBb, grid);
+	}
+
 	/*
 	 * Soul Group Interface
 	 *--------------------------------------------------------------------------------*/
@@ -125,48 +168,16 @@ public class SoulPoolEntry implements SoulGroup {
 		return new ArrayList<SoulGroup>(mHistory);
 	}
 
-	public static SoulPoolEntry fromJson(JsonObject obj, boolean loadHistory) throws Exception {
-		if (gson == null) {
-			gson = new Gson();
-		}
-
-		List<SoulPoolHistoryEntry> history = new ArrayList<SoulPoolHistoryEntry>();
-		JsonArray array = obj.getAsJsonArray("history");
-		if (array == null) {
-			throw new Exception("Failed to parse history as JSON array");
-		}
-
-		if (loadHistory) {
-			for (JsonElement historyElement : array) {
-				if (!historyElement.isJsonObject()) {
-					throw new Exception("history entry for '" + history.toString() + "' is not an object!");
-				}
-
-				history.add(SoulPoolHistoryEntry.fromJson(historyElement.getAsJsonObject()));
-			}
-		} else {
-			if (array.size() >= 1) {
-				JsonElement historyElement = array.get(0);
-				if (!historyElement.isJsonObject()) {
-					throw new Exception("history entry for '" + history.toString() + "' is not an object!");
-				}
-
-				history.add(SoulPoolHistoryEntry.fromJson(historyElement.getAsJsonObject()));
-			}
-		}
+	/* Current entry first, as stored */
+	List<SoulPoolHistoryEntry> getHistoryEntries() {
+		return mHistory;
+	}
 
-		return new SoulPoolEntry(history);
+	public static SoulPoolEntry fromJson(JsonObject obj, boolean loadHistory) throws Exception {
+		return new SoulPoolEntryTypeAdapter(loadHistory).fromJsonTree(obj);
 	}
 
 	public JsonObject toJson() {
-		JsonObject obj = new JsonObject();
-
-		JsonArray histArray = new JsonArray();
-		for (SoulPoolHistoryEntry hist : mHistory) {
-			histArray.add(hist.toJson());
-		}
-		obj.add("history", histArray);
-
-		return obj;
+		return new SoulPoolEntryTypeAdapter(true).toJsonTree(this).getAsJsonObject();
 	}
 }
@@ -0,0 +1,71 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/* Streaming (de)serializer for a whole soul pool, including its history */
+public class SoulPoolEntryTypeAdapter extends TypeAdapter<SoulPoolEntry> {
+	private static final SoulPoolHistoryEntryTypeAdapter HISTORY_ADAPTER = new SoulPoolHistoryEntryTypeAdapter();
+
+	private final boolean mLoadHistory;
+
+	public SoulPoolEntryTypeAdapter(boolean loadHistory) {
+		mLoadHistory = loadHistory;
+	}
+
+	@Override
+	public void write(JsonWriter out, SoulPoolEntry soulPool) throws IOException {
+		out.beginObject();
+		out.name("history");
+		out.beginArray();
+		for (SoulPoolHistoryEntry hist : soulPool.getHistoryEntries()) {
+			HISTORY_ADAPTER.write(out, hist);
+		}
+		out.endArray();
+		out.endObject();
+	}
+
+	@Override
+	public SoulPoolEntry read(JsonReader in) throws IOException {
+		List<SoulPoolHistoryEntry> history = null;
+
+		in.beginObject();
+		while (in.hasNext()) {
+			if (in.nextName().equals("history")) {
+				history = new ArrayList<SoulPoolHistoryEntry>();
+				in.beginArray();
+				for (int index = 0; in.hasNext(); index++) {
+					if (in.peek() != JsonToken.BEGIN_OBJECT) {
+						throw new IOException("history entry is not an object!");
+					}
+
+					if (index > 0 && !mLoadHistory) {
+						in.skipValue();
+					} else {
+						history.add(HISTORY_ADAPTER.read(in));
+					}
+				}
+				in.endArray();
+			} else {
+				in.skipValue();
+			}
+		}
+		in.endObject();
+
+		if (history == null || history.isEmpty()) {
+			throw new IOException("Failed to parse history as JSON array");
+		}
+
+		try {
+			return new SoulPoolEntry(history);
+		} catch (Exception ex) {
+			throw new IOException(ex.getMessage(), ex);
+		}
+	}
+}
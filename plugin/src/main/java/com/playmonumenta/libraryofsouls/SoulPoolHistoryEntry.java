@@ -6,32 +6,30 @@ import java.util.HashSet;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
 import java.util.Random;
 import java.util.Set;
-import java.util.TreeMap;
 
 import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.util.BoundingBox;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.playmonumenta.libraryofsouls.utils.BlockOccupancyGrid;
 
 import dev.jorel.commandapi.CommandAPI;
 import dev.jorel.commandapi.exceptions.WrapperCommandSyntaxException;
 
 public class SoulPoolHistoryEntry implements SoulGroup {
-	private static Gson gson = null;
-
 	private final String mLabel;
 	private final long mModifiedOn;
 	private final String mModifiedBy;
 	private final Map<String, Integer> mEntryWeights;
-	private final NavigableMap<Long, String> mNavigableMap;
 	private final long mTotalWeight;
+	/* Built on first draw, and again whenever the database changes, as it refers to the entries directly */
+	private volatile SoulPoolSampler mSampler = null;
+	/* Compiled on first roll, and again whenever the database changes, as it refers to the entries directly */
+	private volatile SoulSpawnPlan mPlan = null;
 
 	/* Create a SoulPoolHistoryEntry object with existing history */
 	public SoulPoolHistoryEntry(String label, long modifiedOn, String modifiedBy, Map<String, Integer> entryWeights) {
@@ -44,12 +42,9 @@ public class SoulPoolHistoryEntry implements SoulGroup {
 		mEntryWeights = entryWeights;
 
 		long totalWeight = 0;
-		NavigableMap<Long, String> navigableMap = new TreeMap<>();
 		for (Map.Entry<String, Integer> entry : mEntryWeights.entrySet()) {
 			totalWeight += (long) entry.getValue();
-			navigableMap.put(totalWeight, entry.getKey());
 		}
-		mNavigableMap = navigableMap;
 		mTotalWeight = totalWeight;
 	}
 
@@ -67,11 +62,11 @@ public class SoulPoolHistoryEntry implements SoulGroup {
 			}
 			newEntryWeights.remove(entryLabel);
 		} else {
-			SoulGroup entry = SoulsDatabase.getInstance().getSoulGroup(entryLabel);
-			if (entry == null) {
+			SoulsSnapshot snapshot = SoulsDatabase.getInstance().getSnapshot();
+			if (snapshot.getSoulGroup(entryLabel) == null) {
 				CommandAPI.fail(entryLabel + " does not exist.");
 			}
-			if (entry.getPossibleSoulGroupLabels().contains(getLabel())) {
+			if (snapshot.getDependencies().reaches(entryLabel, getLabel())) {
 				CommandAPI.fail(entryLabel + " contains " + getLabel());
 			}
 			newEntryWeights.put(entryLabel, weight);
@@ -83,6 +78,37 @@ public class SoulPoolHistoryEntry implements SoulGroup {
 		return new HashMap<String, Integer>(mEntryWeights);
 	}
 
+	/* Draws one entry by weight, or null if there is nothing to draw or the entry doesn't exist */
+	public SoulGroup sample(Random random) {
+		return getSampler().sample(random);
+	}
+
+	/* The sampler for the current database snapshot */
+	public SoulPoolSampler getSampler() {
+		SoulsDatabase db = SoulsDatabase.getInstance();
+		SoulsSnapshot snapshot = db == null ? null : db.getSnapshot();
+		SoulPoolSampler sampler = mSampler;
+		if (sampler == null || !sampler.isFor(snapshot)) {
+			/* Building one twice in a race is harmless - both are equivalent */
+			sampler = new SoulPoolSampler(mEntryWeights, snapshot);
+			mSampler = sampler;
+		}
+		return sampler;
+	}
+
+	/* The spawn plan for the current database snapshot */
+	public SoulSpawnPlan getSpawnPlan() {
+		SoulsDatabase db = SoulsDatabase.getInstance();
+		SoulsSnapshot snapshot = db == null ? null : db.getSnapshot();
+		SoulSpawnPlan plan = mPlan;
+		if (plan == null || !plan.isFor(snapshot)) {
+			/* Compiling twice in a race is harmless - both plans are equivalent */
+			plan = SoulSpawnPlan.compile(this, snapshot);
+			mPlan = plan;
+		}
+		return plan;
+	}
+
 	/*--------------------------------------------------------------------------------
 	 * Soul Group Interface
 	 */
@@ -134,12 +160,7 @@ public class SoulPoolHistoryEntry implements SoulGroup {
 
 	@Override
 	public Map<SoulGroup, Integer> getRandomEntries(Random random) {
-		if (mTotalWeight == 0) {
-			return new HashMap<SoulGroup, Integer>();
-		}
-		long randomValue = random.nextLong() % mTotalWeight;
-		String selectedLabel = mNavigableMap.higherEntry(randomValue).getValue();
-		SoulGroup selected = SoulsDatabase.getInstance().getSoulGroup(selectedLabel);
+		SoulGroup selected = sample(random);
 		Map<SoulGroup, Integer> result = new HashMap<>();
 		if (selected != null) {
 			result.put(selected, 1);
@@ -164,12 +185,7 @@ public class SoulPoolHistoryEntry implements SoulGroup {
 
 	@Override
 	public Map<Soul, Integer> getRandomSouls(Random random) {
-		if (mTotalWeight == 0) {
-			return new HashMap<Soul, Integer>();
-		}
-		long randomValue = random.nextLong() % mTotalWeight;
-		String selectedLabel = mNavigableMap.higherEntry(randomValue).getValue();
-		SoulGroup selected = SoulsDatabase.getInstance().getSoulGroup(selectedLabel);
+		SoulGroup selected = sample(random);
 		if (selected != null) {
 			return selected.getRandomSouls(random);
 		} else {
@@ -235,16 +251,16 @@ public class SoulPoolHistoryEntry implements SoulGroup {
 
 	@Override
 	public List<Entity> summonGroup(Random random, World world, BoundingBox spawnBb) {
+		return summonGroup(random, world, spawnBb, new BlockOccupancyGrid(world, spawnBb));
+	}
+
+	@Override
+	public List<Entity> summonGroup(Random random, World world, BoundingBox spawnBb, BlockOccupancyGrid grid) {
 		List<Entity> result = new ArrayList<>();
 
-		if (mTotalWeight == 0) {
-			return result;
-		}
-		long randomValue = random.nextLong() % mTotalWeight;
-		String selectedLabel = mNavigableMap.higherEntry(randomValue).getValue();
-		SoulGroup selected = SoulsDatabase.getInstance().getSoulGroup(selectedLabel);
+		SoulGroup selected = sample(random);
 		if (selected != null) {
-			result.addAll(selected.summonGroup(random, world, spawnBb));
+			result.addAll(selected.summonGroup(random, world, spawnBb, grid));
 		}
 
 		return result;
@@ -255,35 +271,10 @@ public class SoulPoolHistoryEntry implements SoulGroup {
 	 *--------------------------------------------------------------------------------*/
 
 	public JsonObject toJson() {
-		JsonObject obj = new JsonObject();
-
-		JsonObject entryWeightsObj = new JsonObject();
-		for (Map.Entry<String, Integer> entry : mEntryWeights.entrySet()) {
-			entryWeightsObj.addProperty(entry.getKey(), entry.getValue());
-		}
-
-		obj.addProperty("label", mLabel);
-		obj.addProperty("modified_on", mModifiedOn);
-		obj.addProperty("modified_by", mModifiedBy);
-		obj.add("entry_weights", entryWeightsObj);
-
-		return obj;
+		return new SoulPoolHistoryEntryTypeAdapter().toJsonTree(this).getAsJsonObject();
 	}
 
 	public static SoulPoolHistoryEntry fromJson(JsonObject obj) throws Exception {
-		if (gson == null) {
-			gson = new Gson();
-		}
-
-		String label = obj.get("label").getAsString();
-		long modifiedOn = obj.get("modified_on").getAsLong();
-		String modifiedBy = obj.get("modified_by").getAsString();
-
-		Map<String, Integer> entryWeights = new HashMap<>();
-		for (Map.Entry<String, JsonElement> entry : obj.getAsJsonObject("entry_weights").entrySet()) {
-			entryWeights.put(entry.getKey(), entry.getValue().getAsInt());
-		}
-
-		return new SoulPoolHistoryEntry(label, modifiedOn, modifiedBy, entryWeights);
+		return new SoulPoolHistoryEntryTypeAdapter().fromJsonTree(obj);
 	}
 }
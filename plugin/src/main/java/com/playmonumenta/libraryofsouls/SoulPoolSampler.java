@@ -0,0 +1,120 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.Map;
+import java.util.Random;
+
+/*
+ * Draws entries of a soul pool in proportion to their weights, in constant time and without
+ * allocating, using Vose's alias method.
+ *
+ * Each of the n entries gets a column of equal height. Column i keeps prob[i] of it for entry i
+ * and gives the rest to entry alias[i], so a draw is picking a column and then one of its two
+ * entries. Building the columns takes O(n).
+ *
+ * The entries are resolved to soul groups when the sampler is built, against the snapshot it
+ * was built for. Entries that didn't exist then are drawn as null, so they keep their share of
+ * the weight as they always have. Immutable once built.
+ */
+public class SoulPoolSampler {
+	private final SoulsSnapshot mSnapshot;
+	private final SoulGroup[] mGroups;
+	private final double[] mProbabilities;
+	private final int[] mAliases;
+	private final boolean mEmpty;
+
+	public SoulPoolSampler(Map<String, Integer> entryWeights, SoulsSnapshot snapshot) {
+		int count = entryWeights.size();
+		mSnapshot = snapshot;
+		mGroups = new SoulGroup[count];
+		mProbabilities = new double[count];
+		mAliases = new int[count];
+
+		long totalWeight = 0;
+		long[] weights = new long[count];
+		int index = 0;
+		for (Map.Entry<String, Integer> entry : entryWeights.entrySet()) {
+			mGroups[index] = snapshot == null ? null : snapshot.getSoulGroup(entry.getKey());
+			weights[index] = Math.max(0, entry.getValue());
+			totalWeight += weights[index];
+			index++;
+		}
+		mEmpty = totalWeight == 0;
+		if (mEmpty) {
+			return;
+		}
+
+		/* Scale so the average weight is 1, then pair each column under 1 with one over it */
+		double[] scaled = new double[count];
+		int[] small = new int[count];
+		int[] large = new int[count];
+		int smallCount = 0;
+		int largeCount = 0;
+		for (int i = 0; i < count; i++) {
+			scaled[i] = (double)weights[i] * count / totalWeight;
+			if (scaled[i] < 1) {
+				small[smallCount++] = i;
+			} else {
+				large[largeCount++] = i;
+			}
+		}
+
+		while (smallCount > 0 && largeCount > 0) {
+			int less = small[--smallCount];
+			int more = large[--largeCount];
+			mProbabilities[less] = scaled[less];
+			mAliases[less] = more;
+			scaled[more] = (scaled[more] + scaled[less]) - 1;
+			if (scaled[more] < 1) {
+				small[smallCount++] = more;
+			} else {
+				large[largeCount++] = more;
+			}
+		}
+		/* What's left is 1 give or take rounding error, so always keeps its own entry */
+		while (largeCount > 0) {
+			int i = large[--largeCount];
+			mProbabilities[i] = 1;
+			mAliases[i] = i;
+		}
+		while (smallCount > 0) {
+			int i = small[--smallCount];
+			mProbabilities[i] = 1;
+			mAliases[i] = i;
+		}
+	}
+
+	/* Whether this was resolved against snapshot - otherwise the groups may be out of date */
+	public boolean isFor(SoulsSnapshot snapshot) {
+		return mSnapshot == snapshot;
+	}
+
+	/* Whether there is nothing to draw - no entries, or they all weigh 0 */
+	public boolean isEmpty() {
+		return mEmpty;
+	}
+
+	/* Draws one entry, which is null if its label didn't exist - or if there is nothing to draw */
+	public SoulGroup sample(Random random) {
+		int index = sampleIndex(random);
+		return index < 0 ? null : mGroups[index];
+	}
+
+	/* As above, but returns the index of the entry (see getEntry()), or -1 if there is nothing to draw */
+	public int sampleIndex(Random random) {
+		if (mEmpty) {
+			return -1;
+		}
+		int column = random.nextInt(mGroups.length);
+		return random.nextDouble() < mProbabilities[column] ? column : mAliases[column];
+	}
+
+	/* Number of entries, including those that didn't exist */
+	public int size() {
+		return mGroups.length;
+	}
+
+	/* The entry with this index, or null if it didn't exist */
+	public SoulGroup getEntry(int index) {
+		return mGroups[index];
+	}
+}
@@ -0,0 +1,237 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/*
+ * A soul group compiled down to what rolling it actually does, with every label already
+ * resolved, so it can be rolled over and over without lookups or allocation.
+ *
+ * Compiling a party multiplies out the counts of everything in it that isn't random, so a
+ * party of parties of souls becomes one fixed list of souls and counts. What's left is a
+ * step for each random part - a pool draws one of its compiled entries using the pool's alias
+ * sampler, and a party repeats a random entry as many times as its count.
+ *
+ * Plans refer to the entries of the snapshot they were compiled against, so each history entry
+ * caches the plan for the current snapshot and compiles a new one once the database changes,
+ * like its SoulPoolSampler. Immutable, so one plan can be rolled from any thread with its own Random.
+ */
+public class SoulSpawnPlan {
+	private abstract static class Step {
+		abstract void run(Random random, SoulConsumer consumer);
+	}
+
+	/* Always the same souls */
+	private static final class Fixed extends Step {
+		private final Soul[] mSouls;
+		private final int[] mCounts;
+
+		private Fixed(Map<Soul, Integer> counts) {
+			mSouls = counts.keySet().toArray(new Soul[0]);
+			mCounts = new int[mSouls.length];
+			for (int i = 0; i < mSouls.length; i++) {
+				mCounts[i] = counts.get(mSouls[i]);
+			}
+		}
+
+		@Override
+		void run(Random random, SoulConsumer consumer) {
+			for (int i = 0; i < mSouls.length; i++) {
+				consumer.accept(mSouls[i], mCounts[i]);
+			}
+		}
+	}
+
+	private static final class Repeat extends Step {
+		private final Step mStep;
+		private final int mCount;
+
+		private Repeat(Step step, int count) {
+			mStep = step;
+			mCount = count;
+		}
+
+		@Override
+		void run(Random random, SoulConsumer consumer) {
+			for (int i = 0; i < mCount; i++) {
+				mStep.run(random, consumer);
+			}
+		}
+	}
+
+	private static final class Sequence extends Step {
+		private final Step[] mSteps;
+
+		private Sequence(List<Step> steps) {
+			mSteps = steps.toArray(new Step[0]);
+		}
+
+		@Override
+		void run(Random random, SoulConsumer consumer) {
+			for (Step step : mSteps) {
+				step.run(random, consumer);
+			}
+		}
+	}
+
+	private static final class Pool extends Step {
+		private final SoulPoolSampler mSampler;
+		/* By sampler entry index, null where the entry doesn't exist */
+		private final Step[] mSteps;
+
+		private Pool(SoulPoolSampler sampler, Step[] steps) {
+			mSampler = sampler;
+			mSteps = steps;
+		}
+
+		@Override
+		void run(Random random, SoulConsumer consumer) {
+			int index = mSampler.sampleIndex(random);
+			if (index >= 0 && mSteps[index] != null) {
+				mSteps[index].run(random, consumer);
+			}
+		}
+	}
+
+	/* Soul groups implemented elsewhere - rolled the usual way, allocation and all */
+	private static final class Other extends Step {
+		private final SoulGroup mGroup;
+
+		private Other(SoulGroup group) {
+			mGroup = group;
+		}
+
+		@Override
+		void run(Random random, SoulConsumer consumer) {
+			for (Map.Entry<Soul, Integer> entry : mGroup.getRandomSouls(random).entrySet()) {
+				consumer.accept(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private final SoulsSnapshot mSnapshot;
+	private final Step mRoot;
+
+	private SoulSpawnPlan(SoulsSnapshot snapshot, Step root) {
+		mSnapshot = snapshot;
+		mRoot = root;
+	}
+
+	/* Compiles group against snapshot, which may be null if there is no database */
+	public static SoulSpawnPlan compile(SoulGroup group, SoulsSnapshot snapshot) {
+		return new SoulSpawnPlan(snapshot, compile(group, snapshot, new HashSet<>()));
+	}
+
+	/* Whether this was compiled against snapshot, so it still refers to the right entries */
+	public boolean isFor(SoulsSnapshot snapshot) {
+		return mSnapshot == snapshot;
+	}
+
+	/* Rolls the group once, passing each soul rolled to consumer */
+	public void forEachRandomSoul(Random random, SoulConsumer consumer) {
+		mRoot.run(random, consumer);
+	}
+
+	/*
+	 * Groups that contain themselves can't be created with commands, but can be by editing the
+	 * files. Rolling those recursed until the stack ran out - here the repeated group is skipped.
+	 * Groups are tracked by normalized label, as the top one is a history entry and the rest aren't.
+	 */
+	private static Step compile(SoulGroup group, SoulsSnapshot snapshot, Set<String> compiling) {
+		if (group instanceof SoulEntry) {
+			/* Rolling a soul gives its current version, so the plan does too */
+			Map<Soul, Integer> counts = new LinkedHashMap<>();
+			counts.put(((SoulEntry)group).getHistoryEntries().get(0), 1);
+			return new Fixed(counts);
+		} else if (group instanceof Soul) {
+			Map<Soul, Integer> counts = new LinkedHashMap<>();
+			counts.put((Soul)group, 1);
+			return new Fixed(counts);
+		}
+
+		Map<String, Integer> entryCounts;
+		SoulPoolSampler sampler;
+		if (group instanceof SoulPartyEntry) {
+			entryCounts = ((SoulPartyEntry)group).getEntryCounts();
+			sampler = null;
+		} else if (group instanceof SoulPartyHistoryEntry) {
+			entryCounts = ((SoulPartyHistoryEntry)group).getEntryCounts();
+			sampler = null;
+		} else if (group instanceof SoulPoolEntry) {
+			entryCounts = null;
+			sampler = samplerFor(((SoulPoolEntry)group).getSampler(), ((SoulPoolEntry)group).getEntryWeights(), snapshot);
+		} else if (group instanceof SoulPoolHistoryEntry) {
+			entryCounts = null;
+			sampler = samplerFor(((SoulPoolHistoryEntry)group).getSampler(), ((SoulPoolHistoryEntry)group).getEntryWeights(), snapshot);
+		} else {
+			return new Other(group);
+		}
+
+		String label = SoulsLabelIndex.normalize(group.getLabel());
+		if (!compiling.add(label)) {
+			return new Fixed(new LinkedHashMap<>());
+		}
+		Step result;
+		if (entryCounts != null) {
+			result = compileParty(entryCounts, snapshot, compiling);
+		} else {
+			result = compilePool(sampler, snapshot, compiling);
+		}
+		compiling.remove(label);
+		return result;
+	}
+
+	/*
+	 * The pool's own sampler is for the current database snapshot, which may already have moved
+	 * on from the one the plan is compiled against - its entries must come from the same snapshot
+	 */
+	private static SoulPoolSampler samplerFor(SoulPoolSampler sampler, Map<String, Integer> entryWeights, SoulsSnapshot snapshot) {
+		return sampler.isFor(snapshot) ? sampler : new SoulPoolSampler(entryWeights, snapshot);
+	}
+
+	private static Step compileParty(Map<String, Integer> entryCounts, SoulsSnapshot snapshot, Set<String> compiling) {
+		Map<Soul, Integer> fixed = new LinkedHashMap<>();
+		List<Step> steps = new ArrayList<>();
+		for (Map.Entry<String, Integer> entry : entryCounts.entrySet()) {
+			SoulGroup child = snapshot == null ? null : snapshot.getSoulGroup(entry.getKey());
+			int count = entry.getValue();
+			if (child == null || count <= 0) {
+				continue;
+			}
+
+			Step step = compile(child, snapshot, compiling);
+			if (step instanceof Fixed) {
+				Fixed childFixed = (Fixed)step;
+				for (int i = 0; i < childFixed.mSouls.length; i++) {
+					fixed.merge(childFixed.mSouls[i], childFixed.mCounts[i] * count, Integer::sum);
+				}
+			} else {
+				steps.add(count == 1 ? step : new Repeat(step, count));
+			}
+		}
+
+		if (!fixed.isEmpty()) {
+			steps.add(0, new Fixed(fixed));
+		}
+		if (steps.isEmpty()) {
+			return new Fixed(fixed);
+		}
+		return steps.size() == 1 ? steps.get(0) : new Sequence(steps);
+	}
+
+	private static Step compilePool(SoulPoolSampler sampler, SoulsSnapshot snapshot, Set<String> compiling) {
+		Step[] steps = new Step[sampler.size()];
+		for (int i = 0; i < steps.length; i++) {
+			SoulGroup child = sampler.getEntry(i);
+			if (child != null) {
+				steps[i] = compile(child, snapshot, compiling);
+			}
+		}
+		return new Pool(sampler, steps);
+	}
+}
@@ -0,0 +1,219 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.NamespacedKey;
+
+/*
+ * Compact binary copy of a loaded (read-only) database, used to skip JSON parsing on startup.
+ *
+ * The cache is keyed by a SHA-256 of the three database files and the journal, and is only
+ * used when that hash still matches. Souls are stored with their label, id, boss / elite flags
+ * and hitbox already extracted, and are loaded lazily - their mojangson isn't parsed until
+ * first used.
+ * Soul parties and pools are small and stored as their JSON.
+ *
+ * Only the current version of each soul is stored, so this is never used when history is loaded.
+ */
+public class SoulsBinaryCache {
+	private static final int MAGIC = 0x4C6F5343; /* "LoSC" */
+	private static final int FORMAT_VERSION = 2;
+
+	private static final int FLAG_BOSS = 0x1;
+	private static final int FLAG_ELITE = 0x2;
+	private static final int FLAG_HITBOX = 0x4;
+
+	/* Hashes the given files, in order. Files that don't exist hash differently from empty ones */
+	public static byte[] hashFiles(Path... paths) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		byte[] buffer = new byte[64 * 1024];
+		for (Path path : paths) {
+			if (!Files.exists(path)) {
+				digest.update((byte)1);
+				continue;
+			}
+			try (InputStream in = Files.newInputStream(path)) {
+				int len;
+				while ((len = in.read(buffer)) > 0) {
+					digest.update(buffer, 0, len);
+				}
+			}
+			/* Separate the files so content can't shift from one to the next */
+			digest.update((byte)0);
+		}
+		return digest.digest();
+	}
+
+	/*
+	 * Loads the cache into the given maps.
+	 *
+	 * Returns false (leaving the maps untouched) if there is no cache or it doesn't match the hash.
+	 */
+	public static boolean read(Path path, byte[] hash, Map<String, SoulEntry> souls, Map<String, SoulPartyEntry> soulParties, Map<String, SoulPoolEntry> soulPools) throws Exception {
+		if (!Files.isRegularFile(path)) {
+			return false;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				return false;
+			}
+			byte[] cachedHash = new byte[in.readUnsignedByte()];
+			in.readFully(cachedHash);
+			if (!Arrays.equals(hash, cachedHash)) {
+				return false;
+			}
+
+			List<SoulEntry> newSouls = new ArrayList<>();
+			for (int i = in.readInt(); i > 0; i--) {
+				newSouls.add(readSoul(in));
+			}
+
+			List<SoulPartyEntry> newSoulParties = new ArrayList<>();
+			SoulPartyEntryTypeAdapter partyAdapter = new SoulPartyEntryTypeAdapter(false);
+			for (int i = in.readInt(); i > 0; i--) {
+				newSoulParties.add(partyAdapter.fromJson(readString(in)));
+			}
+
+			List<SoulPoolEntry> newSoulPools = new ArrayList<>();
+			SoulPoolEntryTypeAdapter poolAdapter = new SoulPoolEntryTypeAdapter(false);
+			for (int i = in.readInt(); i > 0; i--) {
+				newSoulPools.add(poolAdapter.fromJson(readString(in)));
+			}
+
+			/* Only touch the maps once the whole file has been read successfully */
+			for (SoulEntry soul : newSouls) {
+				souls.put(soul.getLabel(), soul);
+			}
+			for (SoulPartyEntry soulParty : newSoulParties) {
+				soulParties.put(soulParty.getLabel(), soulParty);
+			}
+			for (SoulPoolEntry soulPool : newSoulPools) {
+				soulPools.put(soulPool.getLabel(), soulPool);
+			}
+		}
+
+		return true;
+	}
+
+	/* Writes the cache next to the destination and moves it into place, so readers never see a partial file */
+	public static void write(Path path, byte[] hash, Map<String, SoulEntry> souls, Map<String, SoulPartyEntry> soulParties, Map<String, SoulPoolEntry> soulPools) throws Exception {
+		/* A unique temp file, as shards sharing a data folder may write their caches at the same time */
+		Path tempPath = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeByte(hash.length);
+			out.write(hash);
+
+			out.writeInt(souls.size());
+			for (SoulEntry soul : souls.values()) {
+				writeSoul(out, soul);
+			}
+
+			out.writeInt(soulParties.size());
+			for (SoulPartyEntry soulParty : soulParties.values()) {
+				writeString(out, soulParty.toJson().toString());
+			}
+
+			out.writeInt(soulPools.size());
+			for (SoulPoolEntry soulPool : soulPools.values()) {
+				writeString(out, soulPool.toJson().toString());
+			}
+		} catch (Exception ex) {
+			Files.deleteIfExists(tempPath);
+			throw ex;
+		}
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeSoul(DataOutputStream out, SoulEntry soul) throws IOException {
+		SoulHistoryEntry current = soul.getHistoryEntries().get(0);
+
+		writeString(out, soul.getLore());
+		out.writeInt(soul.getLocationNames().size());
+		for (String location : soul.getLocationNames()) {
+			writeString(out, location);
+		}
+
+		writeString(out, current.getLabel());
+		writeString(out, current.getPlainName());
+		writeString(out, current.getId().toString());
+		out.writeLong(current.getModifiedOn());
+		writeString(out, current.getModifiedBy());
+
+		boolean hasHitbox = current.getWidth() != null && current.getHeight() != null;
+		int flags = (current.isBoss() ? FLAG_BOSS : 0) | (current.isElite() ? FLAG_ELITE : 0) | (hasHitbox ? FLAG_HITBOX : 0);
+		out.writeByte(flags);
+		if (hasHitbox) {
+			out.writeDouble(current.getWidth());
+			out.writeDouble(current.getHeight());
+		}
+
+		writeString(out, current.getMojangson());
+	}
+
+	private static SoulEntry readSoul(DataInputStream in) throws Exception {
+		String lore = readString(in);
+		Set<String> locs = new HashSet<>();
+		for (int i = in.readInt(); i > 0; i--) {
+			locs.add(readString(in));
+		}
+
+		String label = readString(in);
+		String plainName = readString(in);
+		NamespacedKey id = NamespacedKey.fromString(readString(in));
+		if (id == null) {
+			throw new Exception("Soul '" + label + "' has an invalid id in the binary cache");
+		}
+		long modifiedOn = in.readLong();
+		String modifiedBy = readString(in);
+
+		int flags = in.readUnsignedByte();
+		Double width = null;
+		Double height = null;
+		if ((flags & FLAG_HITBOX) != 0) {
+			width = in.readDouble();
+			height = in.readDouble();
+		}
+
+		String mojangson = readString(in);
+
+		List<SoulHistoryEntry> history = new ArrayList<>(1);
+		history.add(new SoulHistoryEntry(mojangson, label, plainName, id, (flags & FLAG_BOSS) != 0, (flags & FLAG_ELITE) != 0, modifiedOn, modifiedBy, locs, lore, width, height));
+		return new SoulEntry(history, locs, lore);
+	}
+
+	/* Length-prefixed UTF-8 - DataOutput.writeUTF() is limited to 64k, too small for some mojangson */
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Corrupt string length " + length + " in binary cache");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -1,17 +1,20 @@
 package com.playmonumenta.libraryofsouls;
 
-import java.nio.file.Files;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinTask;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -23,11 +26,7 @@ import org.bukkit.scheduler.BukkitRunnable;
 
 import com.goncalomb.bukkit.mylib.reflect.NBTTagCompound;
 import com.goncalomb.bukkit.nbteditor.bos.BookOfSouls;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
 import com.playmonumenta.libraryofsouls.utils.FileUtils;
 import com.playmonumenta.libraryofsouls.utils.Utils;
 
@@ -40,6 +39,8 @@ public class SoulsDatabase {
 	private static final String SOULS_DATABASE_FILE = "souls_database.json";
 	private static final String SOUL_PARTIES_DATABASE_FILE = "soul_parties_database.json";
 	private static final String SOUL_POOLS_DATABASE_FILE = "soul_pools_database.json";
+	private static final String BINARY_CACHE_FILE = "souls_cache.bin";
+	private static final String JOURNAL_FILE = "souls_journal.jsonl";
 
 	private static SoulsDatabase INSTANCE = null;
 
@@ -55,27 +56,26 @@ public class SoulsDatabase {
 	private final Path mSoulsDatabasePath;
 	private final Path mSoulPartiesDatabasePath;
 	private final Path mSoulPoolsDatabasePath;
-	private long mPreviousReloadMs = 0;
-	private boolean mIgnoreNextChange = false;
+	private final Path mBinaryCachePath;
+	private final Path mJournalPath;
+	/* Only set when configured to use the sharded layout */
+	private final ShardedSoulsStore mShardedStore;
+	private final SoulsDatabaseSaver mSaver;
+	/* Held while checking for changes or saving, so a save in progress is never mistaken for an outside change */
+	private final Object mFileLock = new Object();
+	/* What the database files looked like when last loaded or saved. Only used while holding mFileLock */
+	private final SoulsFileWatcher.Fingerprints mFingerprints;
+	private final SoulsFileWatcher mWatcher;
+	/* Entries of the last load of the database files, so unchanged ones are kept. Only used while holding mFileLock */
+	private ParallelEntryDecoder.Fingerprints<SoulEntry> mSoulFingerprints = null;
+	private ParallelEntryDecoder.Fingerprints<SoulPartyEntry> mSoulPartyFingerprints = null;
+	private ParallelEntryDecoder.Fingerprints<SoulPoolEntry> mSoulPoolFingerprints = null;
 
-	/* This is the primary database. One name, one SoulEntry per mob */
-	private Map<String, SoulEntry> mSouls = new TreeMap<String, SoulEntry>(COMPARATOR);
-
-	/* These are secondary databases for pools/parties of mobs */
-	private Map<String, SoulPartyEntry> mSoulParties = new TreeMap<>(COMPARATOR);
-	private Map<String, SoulPoolEntry> mSoulPools = new TreeMap<>(COMPARATOR);
-
-	/*
-	 * This is an index based on locations.
-	 * A SoulEntry may appear here many times, or not at all
-	 */
-	private final Map<String, List<SoulEntry>> mLocsIndex = new HashMap<>();
-	private final List<SoulEntry> mNoLocMobs = new ArrayList<>();
 	/*
-	 * This is an index based on mob ID (zombie, skeleton, etc.)
-	 * A SoulEntry may appear here many times
+	 * Every soul, soul party and soul pool, their indexes and the bestiary.
+	 * Replaced as a whole (only on the main thread) whenever anything changes, and safe to read from any thread
 	 */
-	private final Map<String, List<SoulEntry>> mTypesIndex = new HashMap<>();
+	private volatile SoulsSnapshot mSnapshot = new SoulsSnapshot(new TreeMap<>(COMPARATOR), new TreeMap<>(COMPARATOR), new TreeMap<>(COMPARATOR));
 
 	public SoulsDatabase(Plugin plugin, boolean loadHistory) throws Exception {
 		mPlugin = plugin;
@@ -83,46 +83,57 @@ public class SoulsDatabase {
 		mSoulsDatabasePath = Paths.get(mPlugin.getDataFolder().getPath(), SOULS_DATABASE_FILE);
 		mSoulPartiesDatabasePath = Paths.get(mPlugin.getDataFolder().getPath(), SOUL_PARTIES_DATABASE_FILE);
 		mSoulPoolsDatabasePath = Paths.get(mPlugin.getDataFolder().getPath(), SOUL_POOLS_DATABASE_FILE);
+		mBinaryCachePath = Paths.get(mPlugin.getDataFolder().getPath(), BINARY_CACHE_FILE);
+		mJournalPath = Paths.get(mPlugin.getDataFolder().getPath(), JOURNAL_FILE);
+		mShardedStore = LibraryOfSouls.Config.isShardedLayout() ? new ShardedSoulsStore(mPlugin.getDataFolder().toPath()) : null;
+		mFingerprints = new SoulsFileWatcher.Fingerprints(mSoulsDatabasePath, mSoulPartiesDatabasePath, mSoulPoolsDatabasePath, mJournalPath);
 
-		/* Periodically check the file to see if it has changed */
-		Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> {
-			try {
-				mPlugin.getLogger().fine("Polling souls database file...");
-				long lastModMs = Files.getLastModifiedTime(mSoulsDatabasePath).toMillis();
-				lastModMs = Math.max(lastModMs, Files.getLastModifiedTime(mSoulPartiesDatabasePath).toMillis());
-				lastModMs = Math.max(lastModMs, Files.getLastModifiedTime(mSoulPoolsDatabasePath).toMillis());
-				if (lastModMs > mPreviousReloadMs) {
-					/* File has changed since we read it */
-					if (!mIgnoreNextChange) {
-						/* This change wasn't expected - reload the database */
-						reloadAsync();
-					}
-
-					mPreviousReloadMs = lastModMs;
-					mIgnoreNextChange = false;
-				}
-			} catch (Exception e) {
-				mPlugin.getLogger().warning("Caught exception while polling database file: " + e.getMessage());
-				e.printStackTrace();
-			}
-		}, 200, 200);
+		try {
+			SoulHistoryArchive.deleteStale(mPlugin.getDataFolder().toPath());
+		} catch (Exception ex) {
+			mPlugin.getLogger().warning("Failed to remove old history archives: " + ex.getMessage());
+		}
+
+		/*
+		 * With the journal, edits are on disk as soon as they're journaled and the database files
+		 * are only compacted occasionally. Files written by the saver are fingerprinted so the
+		 * watcher below doesn't reload them. The sharded layout needs no journal, as it
+		 * only ever rewrites the files of entries that changed.
+		 */
+		boolean journal = LibraryOfSouls.Config.isJournal() && mShardedStore == null;
+		mSaver = new SoulsDatabaseSaver(mPlugin.getLogger(), mSoulsDatabasePath, mSoulPartiesDatabasePath, mSoulPoolsDatabasePath,
+		                                journal ? new SoulsJournal(mJournalPath) : null, mShardedStore,
+		                                journal ? LibraryOfSouls.Config.getJournalCompactDelayMs() : LibraryOfSouls.Config.getSaveDelayMs(),
+		                                LibraryOfSouls.Config.getJournalCompactBytes(), mFileLock, this::markFilesWritten);
+
+		/* Reloads as soon as the files are changed by something other than the saver - including the initial load */
+		List<Path> watchedDirs = mShardedStore == null ? new ArrayList<>() : mShardedStore.getDirectories();
+		mWatcher = new SoulsFileWatcher(mPlugin.getLogger(), mPlugin.getDataFolder().toPath(),
+		                                Arrays.asList(mSoulsDatabasePath, mSoulPartiesDatabasePath, mSoulPoolsDatabasePath, mJournalPath),
+		                                watchedDirs, this::checkForChanges);
 
 		INSTANCE = this;
+		mWatcher.start();
 	}
 
 	public void autoUpdate(CommandSender sender, Location loc) {
-		Iterator<Map.Entry<String, SoulEntry>> it = mSouls.entrySet().iterator();
+		Iterator<SoulEntry> it = mSnapshot.getSouls().iterator();
 		new BukkitRunnable() {
 			@Override
 			public void run() {
 				if (it.hasNext()) {
-					Map.Entry<String, SoulEntry> entry = it.next();
-					String name = entry.getKey();
-					SoulEntry soulEntry = entry.getValue();
+					SoulEntry soulEntry = it.next();
+					/* Skip souls replaced or removed since the update started */
+					if (mSnapshot.getSoul(soulEntry.getLabel()) != soulEntry) {
+						return;
+					}
 					try {
-						soulEntry.autoUpdate(loc);
+						if (soulEntry.autoUpdate(loc)) {
+							publish(mSnapshot.withSoul(soulEntry));
+							mSaver.soulChanged(soulEntry);
+						}
 					} catch (Exception ex) {
-						sender.sendMessage(ChatColor.RED + "Failed to auto-update " + name + ": " + ex.getMessage());
+						sender.sendMessage(ChatColor.RED + "Failed to auto-update " + soulEntry.getLabel() + ": " + ex.getMessage());
 					}
 				} else {
 					sender.sendMessage(ChatColor.GRAY + "Auto-update done.");
@@ -132,87 +143,111 @@ public class SoulsDatabase {
 		}.runTaskTimer(mPlugin, 0L, 1L);
 	}
 
+	/* The current state of the database, which will never change - hold on to it for a consistent view across several reads */
+	public SoulsSnapshot getSnapshot() {
+		return mSnapshot;
+	}
+
 	public List<SoulEntry> getSoulsByLocation(String location) {
-		if (location == null) {
-			return mNoLocMobs;
-		} else {
-			return mLocsIndex.get(location);
-		}
+		return mSnapshot.getSoulsByLocation(location);
 	}
 
 	public List<SoulEntry> getSoulsByType(String id) {
-		return mTypesIndex.get(id);
+		return mSnapshot.getSoulsByType(id);
 	}
 
+	/* Sorted by label. Unmodifiable, and doesn't change when the database does */
 	public List<SoulEntry> getSouls() {
-		List<SoulEntry> souls = new ArrayList<SoulEntry>(mSouls.size());
-		souls.addAll(mSouls.values());
-		return souls;
+		return mSnapshot.getSouls();
+	}
+
+	public SoulsPage<SoulEntry> getSoulsPage(int offset, int limit) {
+		return SoulsPage.of(mSnapshot.getSouls(), offset, limit);
 	}
 
 	public SoulEntry getSoul(int index) {
-		if (index >= mSouls.size()) {
+		List<SoulEntry> souls = mSnapshot.getSouls();
+		if (index < 0 || index >= souls.size()) {
 			return null;
 		}
 
-		return (SoulEntry)mSouls.values().toArray()[index];
+		return souls.get(index);
 	}
 
 	public SoulEntry getSoul(String name) {
-		return mSouls.get(name);
+		return mSnapshot.getSoul(name);
+	}
+
+	/* Souls similar to text, best match first - may build the fuzzy index, so best not called on the main thread */
+	public List<SoulEntry> findSouls(String text, int limit) {
+		return mSnapshot.getFuzzyIndex().find(text, limit);
 	}
 
 	public List<SoulPartyEntry> getSoulParties() {
-		List<SoulPartyEntry> soulParties = new ArrayList<SoulPartyEntry>(mSoulParties.size());
-		soulParties.addAll(mSoulParties.values());
-		return soulParties;
+		return mSnapshot.getSoulParties();
+	}
+
+	public SoulsPage<SoulPartyEntry> getSoulPartiesPage(int offset, int limit) {
+		return SoulsPage.of(mSnapshot.getSoulParties(), offset, limit);
 	}
 
 	public SoulPartyEntry getSoulParty(int index) {
-		if (index >= mSoulParties.size()) {
+		List<SoulPartyEntry> soulParties = mSnapshot.getSoulParties();
+		if (index < 0 || index >= soulParties.size()) {
 			return null;
 		}
 
-		return (SoulPartyEntry)mSoulParties.values().toArray()[index];
+		return soulParties.get(index);
 	}
 
 	public SoulPartyEntry getSoulParty(String label) {
-		SoulPartyEntry soulParty = mSoulParties.get(label);
-		return soulParty;
+		return mSnapshot.getSoulParty(label);
 	}
 
 	public List<SoulPoolEntry> getSoulPools() {
-		List<SoulPoolEntry> soulPools = new ArrayList<SoulPoolEntry>(mSoulPools.size());
-		soulPools.addAll(mSoulPools.values());
-		return soulPools;
+		return mSnapshot.getSoulPools();
+	}
+
+	public SoulsPage<SoulPoolEntry> getSoulPoolsPage(int offset, int limit) {
+		return SoulsPage.of(mSnapshot.getSoulPools(), offset, limit);
 	}
 
 	public SoulPoolEntry getSoulPool(int index) {
-		if (index >= mSoulPools.size()) {
+		List<SoulPoolEntry> soulPools = mSnapshot.getSoulPools();
+		if (index < 0 || index >= soulPools.size()) {
 			return null;
 		}
 
-		return (SoulPoolEntry)mSoulPools.values().toArray()[index];
+		return soulPools.get(index);
 	}
 
 	public SoulPoolEntry getSoulPool(String label) {
-		return mSoulPools.get(label);
+		return mSnapshot.getSoulPool(label);
+	}
+
+	/* Soul parties and soul pools directly containing label, sorted by label */
+	public List<SoulGroup> getReferences(String label) {
+		return mSnapshot.getDependencies().getReferences(label);
 	}
 
 	public SoulGroup getSoulGroup(String label) {
-		if (label.startsWith(LibraryOfSoulsAPI.SOUL_PARTY_PREFIX)) {
-			return mSoulParties.get(label);
-		} else if (label.startsWith(LibraryOfSoulsAPI.SOUL_POOL_PREFIX)) {
-			return mSoulPools.get(label);
-		} else {
-			return mSouls.get(label);
-		}
+		return mSnapshot.getSoulGroup(label);
 	}
 
 	/*################################################################################
 	 * Functions that change the database state
 	 */
 
+	/* Publishes a snapshot built by an edit, checking its indexes first if configured to */
+	private void publish(SoulsSnapshot snapshot) {
+		if (LibraryOfSouls.Config.isVerifyIndexes()) {
+			for (String problem : snapshot.checkIndexes()) {
+				mPlugin.getLogger().severe("Inconsistent souls index: " + problem);
+			}
+		}
+		mSnapshot = snapshot;
+	}
+
 	public void add(Player sender, BookOfSouls bos) {
 		SoulEntry soul;
 
@@ -221,7 +256,7 @@ public class SoulsDatabase {
 			String name = nbt.getString("CustomName");
 			String label = Utils.getLabelFromName(name);
 
-			if (mSouls.containsKey(label)) {
+			if (mSnapshot.getSoul(label) != null) {
 				sender.sendMessage(ChatColor.RED + "Mob '" + label + "' already exists!");
 				return;
 			}
@@ -232,10 +267,9 @@ public class SoulsDatabase {
 			return;
 		}
 
-		mSouls.put(soul.getLabel(), soul);
+		publish(mSnapshot.withSoul(soul));
 		sender.sendMessage(ChatColor.GREEN + "Added " + soul.getLabel());
-		updateIndex();
-		save();
+		mSaver.soulChanged(soul);
 	}
 
 	public void update(Player sender, BookOfSouls bos) {
@@ -246,7 +280,7 @@ public class SoulsDatabase {
 			String name = nbt.getString("CustomName");
 			String label = Utils.getLabelFromName(name);
 
-			soul = mSouls.get(label);
+			soul = mSnapshot.getSoul(label);
 			if (soul == null) {
 				sender.sendMessage(ChatColor.RED + "Mob '" + label + "' does not exist!");
 				return;
@@ -259,8 +293,9 @@ public class SoulsDatabase {
 		}
 
 		sender.sendMessage(ChatColor.GREEN + "Updated " + soul.getLabel());
-		updateIndex();
-		save();
+		/* Its locations or type may have changed */
+		publish(mSnapshot.withSoul(soul));
+		mSaver.soulChanged(soul);
 	}
 
 	// This function is only called in updateLore, where by definition the soul exists - also the bos doesnt change internally, only on the outside but maybe that needs to happen?
@@ -269,27 +304,42 @@ public class SoulsDatabase {
 			soul.update(sender, soul.getNBT());
 		} catch (Exception ex) {
 			sender.sendMessage("Exception when updating lore: " + ex + " for " + soul.getDisplayName());
+			return;
 		}
-		save();
+		/* The new version is the soul's current one now, so the snapshot's indexes need updating */
+		publish(mSnapshot.withSoul(soul));
+		mSaver.soulChanged(soul);
 	}
 
 	public void del(CommandSender sender, String name) {
-		if (!mSouls.containsKey(name)) {
+		if (mSnapshot.getSoul(name) == null) {
 			sender.sendMessage(ChatColor.RED + "Mob '" + name + "' does not exist!");
 		} else {
-			mSouls.remove(name);
+			publish(mSnapshot.withoutSoul(name));
 			sender.sendMessage(ChatColor.GREEN + "Removed " + name);
-			updateIndex();
-			save();
+			warnReferences(sender, name);
+			mSaver.soulRemoved(name);
+		}
+	}
+
+	/* After a delete - groups still containing the label now have a dangling reference */
+	private void warnReferences(CommandSender sender, String label) {
+		List<SoulGroup> references = mSnapshot.getDependencies().getReferences(label);
+		if (!references.isEmpty()) {
+			List<String> labels = new ArrayList<>();
+			for (SoulGroup group : references) {
+				labels.add(group.getLabel());
+			}
+			sender.sendMessage(ChatColor.GOLD + label + " is still used by " + String.join(", ", labels));
 		}
 	}
 
 	public void addParty(Player player, String label) {
 		SoulPartyEntry soulParty = new SoulPartyEntry(player, label);
 
-		mSoulParties.put(soulParty.getLabel(), soulParty);
+		publish(mSnapshot.withSoulParty(soulParty));
 		player.sendMessage(ChatColor.GREEN + "Added " + soulParty.getLabel());
-		save();
+		mSaver.soulPartyChanged(soulParty);
 	}
 
 	public void updateParty(Player player, String label, String entryLabel, int count) throws WrapperCommandSyntaxException {
@@ -304,26 +354,29 @@ public class SoulsDatabase {
 		}
 
 		soulParty.update(player, entryLabel, count);
+		/* Its contents changed, so the dependency graph needs updating */
+		publish(mSnapshot.withSoulParty(soulParty));
 		player.sendMessage(ChatColor.GREEN + "Updated " + soulParty.getLabel());
-		save();
+		mSaver.soulPartyChanged(soulParty);
 	}
 
 	public void delParty(CommandSender player, String label) {
-		if (!mSoulParties.containsKey(label)) {
+		if (mSnapshot.getSoulParty(label) == null) {
 			player.sendMessage(ChatColor.RED + "Soul party '" + label + "' does not exist!");
 		} else {
-			mSoulParties.remove(label);
+			publish(mSnapshot.withoutSoulParty(label));
 			player.sendMessage(ChatColor.GREEN + "Removed " + label);
-			save();
+			warnReferences(player, label);
+			mSaver.soulPartyRemoved(label);
 		}
 	}
 
 	public void addPool(Player player, String label) {
 		SoulPoolEntry soulPool = new SoulPoolEntry(player, label);
 
-		mSoulPools.put(soulPool.getLabel(), soulPool);
+		publish(mSnapshot.withSoulPool(soulPool));
 		player.sendMessage(ChatColor.GREEN + "Added " + soulPool.getLabel());
-		save();
+		mSaver.soulPoolChanged(soulPool);
 	}
 
 	public void updatePool(Player player, String label, String entryLabel, int weight) throws WrapperCommandSyntaxException {
@@ -338,241 +391,328 @@ public class SoulsDatabase {
 		}
 
 		soulPool.update(player, entryLabel, weight);
+		publish(mSnapshot.withSoulPool(soulPool));
 		player.sendMessage(ChatColor.GREEN + "Updated " + soulPool.getLabel());
-		save();
+		mSaver.soulPoolChanged(soulPool);
 	}
 
 	public void delPool(CommandSender player, String label) {
-		if (!mSoulPools.containsKey(label)) {
+		if (mSnapshot.getSoulPool(label) == null) {
 			player.sendMessage(ChatColor.RED + "Soul Pool '" + label + "' does not exist!");
 		} else {
-			mSoulPools.remove(label);
+			publish(mSnapshot.withoutSoulPool(label));
 			player.sendMessage(ChatColor.GREEN + "Removed " + label);
-			save();
+			warnReferences(player, label);
+			mSaver.soulPoolRemoved(label);
 		}
 	}
 
 	public void reloadAsync() throws Exception {
 		mPlugin.getLogger().info("Reloading souls library...");
-		Map<String, SoulEntry> newSouls = new TreeMap<>(COMPARATOR);
-		Map<String, SoulPartyEntry> newSoulParties = new TreeMap<>(COMPARATOR);
-		Map<String, SoulPoolEntry> newSoulPools = new TreeMap<>(COMPARATOR);
-
-		String content = FileUtils.readFile(mSoulsDatabasePath.toString());
-		if (content == null || content.isEmpty()) {
-			throw new Exception("Failed to read souls database");
+		TreeMap<String, SoulEntry> newSouls = new TreeMap<>(COMPARATOR);
+		TreeMap<String, SoulPartyEntry> newSoulParties = new TreeMap<>(COMPARATOR);
+		TreeMap<String, SoulPoolEntry> newSoulPools = new TreeMap<>(COMPARATOR);
+
+		/*
+		 * In read-only mode, a binary cache of the last successful load is used if
+		 * the database files haven't changed since it was written
+		 */
+		boolean sharded = useShardedLayout();
+		byte[] hash = null;
+		boolean fromCache = false;
+		if (!sharded && !mLoadHistory && LibraryOfSouls.Config.isBinaryCache()) {
+			try {
+				hash = SoulsBinaryCache.hashFiles(mSoulsDatabasePath, mSoulPartiesDatabasePath, mSoulPoolsDatabasePath, mJournalPath);
+				fromCache = SoulsBinaryCache.read(mBinaryCachePath, hash, newSouls, newSoulParties, newSoulPools);
+			} catch (Exception ex) {
+				mPlugin.getLogger().warning("Failed to read souls binary cache, loading from JSON instead: " + ex.getMessage());
+			}
 		}
 
-		Gson gson = new Gson();
-		JsonArray soulsArray = gson.fromJson(content, JsonArray.class);
-		if (soulsArray == null) {
-			throw new Exception("Failed to parse souls database as JSON array");
+		int journalRecords = 0;
+		if (sharded) {
+			loadSharded(newSouls, newSoulParties, newSoulPools);
+		} else if (fromCache) {
+			mPlugin.getLogger().info("Loaded souls library from binary cache");
+		} else {
+			loadJson(newSouls, newSoulParties, newSoulPools);
+			journalRecords = replayJournal(newSouls, newSoulParties, newSoulPools);
+		}
+
+		final int finalSoulCount = newSouls.size();
+		final int finalSoulPartyCount = newSoulParties.size();
+		final int finalSoulPoolCount = newSoulPools.size();
+		final boolean compactJournal = journalRecords > 0 && mLoadHistory;
+
+		/*
+		 * Reload the main plugin config / bestiary also after reloading the database. All of it
+		 * is built here, so the main thread only has to publish the finished snapshot
+		 */
+		LibraryOfSouls.Config.load(mPlugin.getLogger(), mPlugin.getDataFolder());
+		SoulsSnapshot snapshot = new SoulsSnapshot(newSouls, newSoulParties, newSoulPools);
+		final SoulsSnapshot finalSnapshot = snapshot.withBestiary(LibraryOfSouls.Config.loadBestiary(mPlugin.getLogger(), mPlugin.getDataFolder(), snapshot));
+		if (mLoadHistory) {
+			/* A journal left over from a previous run is folded into the database files */
+			mSaver.reset(newSouls.values(), newSoulParties.values(), newSoulPools.values(), compactJournal);
 		}
+		Bukkit.getScheduler().runTask(mPlugin, () -> {
+			mSnapshot = finalSnapshot;
 
-		content = FileUtils.readFile(mSoulPartiesDatabasePath.toString());
-		if (content == null || content.isEmpty()) {
-			throw new Exception("Failed to read soul parties database");
-		}
+			mPlugin.getLogger().info("Finished parsing souls library");
+			mPlugin.getLogger().info("Loaded " + Integer.toString(finalSoulCount) + " mob souls");
+			mPlugin.getLogger().info("Loaded " + Integer.toString(finalSoulPartyCount) + " mob soul parties");
+			mPlugin.getLogger().info("Loaded " + Integer.toString(finalSoulPoolCount) + " mob soul pools");
+		});
 
-		JsonArray soulPartiesArray = gson.fromJson(content, JsonArray.class);
-		if (soulPartiesArray == null) {
-			throw new Exception("Failed to parse soul parties database as JSON array");
+		if (hash != null && !fromCache) {
+			try {
+				SoulsBinaryCache.write(mBinaryCachePath, hash, newSouls, newSoulParties, newSoulPools);
+			} catch (Exception ex) {
+				mPlugin.getLogger().warning("Failed to write souls binary cache: " + ex.getMessage());
+			}
 		}
+	}
 
-		content = FileUtils.readFile(mSoulPoolsDatabasePath.toString());
-		if (content == null || content.isEmpty()) {
-			throw new Exception("Failed to read soul parties database");
+	/* Called by the watcher after the database files may have changed */
+	private void checkForChanges() {
+		try {
+			synchronized (mFileLock) {
+				if (useShardedLayout()) {
+					/* Files written by the saver are already known to the store, so only outside changes show up */
+					if (mShardedStore.hasChanges()) {
+						reloadAsync();
+					}
+				} else if (mFingerprints.update()) {
+					/* Contents changed since we read or wrote them - reload the database */
+					reloadAsync();
+				}
+			}
+		} catch (Exception e) {
+			mPlugin.getLogger().warning("Caught exception while checking database files: " + e.getMessage());
+			e.printStackTrace();
 		}
+	}
 
-		JsonArray soulPoolsArray = gson.fromJson(content, JsonArray.class);
-		if (soulPoolsArray == null) {
-			throw new Exception("Failed to parse soul pools database as JSON array");
+	/* Called by the saver, holding mFileLock, after it has written to the database files */
+	private void markFilesWritten() {
+		try {
+			mFingerprints.mark();
+		} catch (IOException ex) {
+			mPlugin.getLogger().warning("Failed to check written database files: " + ex.getMessage());
 		}
+	}
 
-		mPlugin.getLogger().info("Souls:");
-		int soulCount = 0;
-		for (JsonElement entry : soulsArray) {
-			JsonObject obj = entry.getAsJsonObject();
+	/* Whether to read and write the sharded layout. Read-only servers fall back to the database files until it exists */
+	private boolean useShardedLayout() {
+		return mShardedStore != null && (mShardedStore.exists() || mLoadHistory);
+	}
 
-			SoulEntry soul = SoulEntry.fromJson(obj, mLoadHistory);
-			String label = soul.getLabel();
+	/* Only called while holding mFileLock, as the store isn't thread safe */
+	private void loadSharded(Map<String, SoulEntry> newSouls, Map<String, SoulPartyEntry> newSoulParties, Map<String, SoulPoolEntry> newSoulPools) throws Exception {
+		if (!mShardedStore.exists()) {
+			/* First start with the sharded layout - convert the existing database files */
+			loadJson(newSouls, newSoulParties, newSoulPools);
+			replayJournal(newSouls, newSoulParties, newSoulPools);
 
-			if (newSouls.get(label) != null) {
-				mPlugin.getLogger().severe("Refused to load Library of Souls duplicate mob '" + label + "'");
-				continue;
+			for (SoulEntry soul : newSouls.values()) {
+				mShardedStore.writeSoul(soul, new SoulEntryTypeAdapter(true, false));
 			}
-
-			mPlugin.getLogger().fine("  " + label);
-
-			newSouls.put(label, soul);
-
-			soulCount++;
+			for (SoulPartyEntry soulParty : newSoulParties.values()) {
+				mShardedStore.writeSoulParty(soulParty, new SoulPartyEntryTypeAdapter(true));
+			}
+			for (SoulPoolEntry soulPool : newSoulPools.values()) {
+				mShardedStore.writeSoulPool(soulPool, new SoulPoolEntryTypeAdapter(true));
+			}
+			mShardedStore.writeManifest();
+			mPlugin.getLogger().info("Converted souls library to the sharded layout");
+			return;
 		}
 
-		mPlugin.getLogger().info("Soul parties:");
-		int soulPartyCount = 0;
-		for (JsonElement entry : soulPartiesArray) {
-			JsonObject obj = entry.getAsJsonObject();
-
-			SoulPartyEntry soulParty = SoulPartyEntry.fromJson(obj, mLoadHistory);
-			String label = soulParty.getLabel();
-
-			if (newSoulParties.get(label) != null) {
-				mPlugin.getLogger().severe("Refused to load Library of Souls duplicate soul party '" + label + "'");
-				continue;
+		SoulHistoryArchive archive = newHistoryArchive();
+		try (ParallelEntryDecoder decoder = new ParallelEntryDecoder(LibraryOfSouls.Config.getLoadThreads())) {
+			/* Only new and changed files are decoded - other entries are kept as they are */
+			boolean changed = mShardedStore.load(decoder, new SoulEntryTypeAdapter(mLoadHistory, LibraryOfSouls.Config.isLazyLoad(), archive),
+			                                     new SoulPartyEntryTypeAdapter(mLoadHistory), new SoulPoolEntryTypeAdapter(mLoadHistory),
+			                                     mPlugin.getLogger(), newSouls, newSoulParties, newSoulPools);
+			if (!changed) {
+				mPlugin.getLogger().info("No souls library files changed");
 			}
 
-			mPlugin.getLogger().fine("  " + label);
+			if (archive != null) {
+				archive.finish();
+			}
+		} catch (Exception ex) {
+			if (archive != null) {
+				archive.discard();
+			}
+			throw ex;
+		}
+	}
 
-			newSoulParties.put(label, soulParty);
+	/* Apply edits made since the database files were last compacted */
+	private int replayJournal(Map<String, SoulEntry> newSouls, Map<String, SoulPartyEntry> newSoulParties, Map<String, SoulPoolEntry> newSoulPools) throws Exception {
+		int records = SoulsJournal.replay(mJournalPath, mPlugin.getLogger(), newSouls, newSoulParties, newSoulPools,
+		                                  mLoadHistory, LibraryOfSouls.Config.isLazyLoad());
+		if (records > 0) {
+			mPlugin.getLogger().info("Replayed " + Integer.toString(records) + " souls journal records");
+		}
+		return records;
+	}
 
-			soulPartyCount++;
+	/* Past versions of souls are only kept when they can be edited, and then off-heap if possible */
+	private SoulHistoryArchive newHistoryArchive() throws Exception {
+		if (mLoadHistory && LibraryOfSouls.Config.isHistoryArchive()) {
+			return new SoulHistoryArchive(mPlugin.getDataFolder().toPath());
 		}
+		return null;
+	}
 
-		mPlugin.getLogger().info("Soul pools:");
-		int soulPoolCount = 0;
-		for (JsonElement entry : soulPoolsArray) {
-			JsonObject obj = entry.getAsJsonObject();
+	private void loadJson(Map<String, SoulEntry> newSouls, Map<String, SoulPartyEntry> newSoulParties, Map<String, SoulPoolEntry> newSoulPools) throws Exception {
+		/*
+		 * Each file is split into entries as it is read, so only entries currently being
+		 * decoded are held as text - never the whole file. Souls, parties and pools are
+		 * all decoded in parallel, then merged here in file order so that the first
+		 * occurrence of a duplicate label always wins.
+		 *
+		 * Entries whose JSON is unchanged since the last load keep their existing object,
+		 * along with its cached items and anything else keyed by it.
+		 */
 
-			SoulPoolEntry soulPool = SoulPoolEntry.fromJson(obj, mLoadHistory);
-			String label = soulPool.getLabel();
+		SoulHistoryArchive archive = newHistoryArchive();
+		ParallelEntryDecoder.Fingerprints<SoulEntry> soulFingerprints = new ParallelEntryDecoder.Fingerprints<>();
+		ParallelEntryDecoder.Fingerprints<SoulPartyEntry> soulPartyFingerprints = new ParallelEntryDecoder.Fingerprints<>();
+		ParallelEntryDecoder.Fingerprints<SoulPoolEntry> soulPoolFingerprints = new ParallelEntryDecoder.Fingerprints<>();
 
-			if (newSoulPools.get(label) != null) {
-				mPlugin.getLogger().severe("Refused to load Library of Souls duplicate soul pool '" + label + "'");
-				continue;
-			}
+		try (ParallelEntryDecoder decoder = new ParallelEntryDecoder(LibraryOfSouls.Config.getLoadThreads())) {
+			List<ForkJoinTask<SoulEntry>> soulTasks = submitDatabaseArray(decoder, mSoulsDatabasePath, "souls", new SoulEntryTypeAdapter(mLoadHistory, LibraryOfSouls.Config.isLazyLoad(), archive),
+			                                                              mSoulFingerprints, soulFingerprints);
 
-			mPlugin.getLogger().fine("  " + label);
+			List<ForkJoinTask<SoulPartyEntry>> soulPartyTasks = submitDatabaseArray(decoder, mSoulPartiesDatabasePath, "soul parties", new SoulPartyEntryTypeAdapter(mLoadHistory),
+			                                                                        mSoulPartyFingerprints, soulPartyFingerprints);
 
-			newSoulPools.put(label, soulPool);
+			List<ForkJoinTask<SoulPoolEntry>> soulPoolTasks = submitDatabaseArray(decoder, mSoulPoolsDatabasePath, "soul pools", new SoulPoolEntryTypeAdapter(mLoadHistory),
+			                                                                      mSoulPoolFingerprints, soulPoolFingerprints);
 
-			soulPoolCount++;
-		}
+			mPlugin.getLogger().info("Souls:");
+			for (ForkJoinTask<SoulEntry> task : soulTasks) {
+				SoulEntry soul = task.join();
+				String label = soul.getLabel();
 
-		final int finalSoulCount = soulCount;
-		final int finalSoulPartyCount = soulPartyCount;
-		final int finalSoulPoolCount = soulPoolCount;
-		Bukkit.getScheduler().runTask(mPlugin, () -> {
-			mSouls = newSouls;
-			mSoulParties = newSoulParties;
-			mSoulPools = newSoulPools;
-			updateIndex();
+				if (newSouls.get(label) != null) {
+					mPlugin.getLogger().severe("Refused to load Library of Souls duplicate mob '" + label + "'");
+					continue;
+				}
 
-			/* Reload the main plugin config / bestiary also after reloading the database */
-			LibraryOfSouls.Config.load(mPlugin.getLogger(), mPlugin.getDataFolder());
+				mPlugin.getLogger().fine("  " + label);
 
-			mPlugin.getLogger().info("Finished parsing souls library");
-			mPlugin.getLogger().info("Loaded " + Integer.toString(finalSoulCount) + " mob souls");
-			mPlugin.getLogger().info("Loaded " + Integer.toString(finalSoulPartyCount) + " mob soul parties");
-			mPlugin.getLogger().info("Loaded " + Integer.toString(finalSoulPoolCount) + " mob soul pools");
-		});
-	}
+				newSouls.put(label, soul);
+			}
 
-	/*
-	 * Functions that change the database state
-	 *################################################################################*/
+			mPlugin.getLogger().info("Soul parties:");
+			for (ForkJoinTask<SoulPartyEntry> task : soulPartyTasks) {
+				SoulPartyEntry soulParty = task.join();
+				String label = soulParty.getLabel();
 
-	private void updateIndex() {
-		mLocsIndex.clear();
-		mNoLocMobs.clear();
-		mTypesIndex.clear();
-		for (SoulEntry soul : mSouls.values()) {
-			/* Update location index */
-			Set<String> locs = soul.getLocationNames();
-			if (locs == null || locs.isEmpty()) {
-				mNoLocMobs.add(soul);
-			} else {
-				for (String tag : locs) {
-					List<SoulEntry> lst = mLocsIndex.get(tag);
-					if (lst == null) {
-						lst = new ArrayList<SoulEntry>();
-						mLocsIndex.put(tag, lst);
-					}
-					lst.add(soul);
+				if (newSoulParties.get(label) != null) {
+					mPlugin.getLogger().severe("Refused to load Library of Souls duplicate soul party '" + label + "'");
+					continue;
 				}
-			}
 
-			/* Update type index */
-			String id = soul.getId().getKey().toLowerCase();
-			List<SoulEntry> lst = mTypesIndex.get(id);
-			if (lst == null) {
-				lst = new ArrayList<SoulEntry>();
-				mTypesIndex.put(id, lst);
+				mPlugin.getLogger().fine("  " + label);
+
+				newSoulParties.put(label, soulParty);
 			}
-			lst.add(soul);
-		}
-	}
 
-	private void save() {
-		JsonArray soulArray = new JsonArray();
-		for (SoulEntry soul : mSouls.values()) {
-			soulArray.add(soul.toJson());
-		}
+			mPlugin.getLogger().info("Soul pools:");
+			for (ForkJoinTask<SoulPoolEntry> task : soulPoolTasks) {
+				SoulPoolEntry soulPool = task.join();
+				String label = soulPool.getLabel();
 
-		JsonArray soulPartyArray = new JsonArray();
-		for (SoulPartyEntry soulParty : mSoulParties.values()) {
-			soulPartyArray.add(soulParty.toJson());
-		}
+				if (newSoulPools.get(label) != null) {
+					mPlugin.getLogger().severe("Refused to load Library of Souls duplicate soul pool '" + label + "'");
+					continue;
+				}
 
-		JsonArray soulPoolArray = new JsonArray();
-		for (SoulPoolEntry soulPool : mSoulPools.values()) {
-			soulPoolArray.add(soulPool.toJson());
-		}
+				mPlugin.getLogger().fine("  " + label);
 
-		/* Mark the next change as expected so the watcher doesn't reload it */
-		mIgnoreNextChange = true;
-		Gson gson = new GsonBuilder().setPrettyPrinting().create();
-		String soulsDatabasePath = mSoulsDatabasePath.toString();
-		String soulPartiesDatabasePath = mSoulPartiesDatabasePath.toString();
-		String soulPoolsDatabasePath = mSoulPoolsDatabasePath.toString();
+				newSoulPools.put(label, soulPool);
+			}
 
-		try {
-			FileUtils.writeFile(soulsDatabasePath, gson.toJson(soulArray));
+			if (archive != null) {
+				archive.finish();
+			}
 		} catch (Exception ex) {
-			mPlugin.getLogger().severe("Failed to save souls database to '" + soulsDatabasePath + "': " + ex.getMessage());
+			if (archive != null) {
+				archive.discard();
+			}
+			throw ex;
 		}
 
-		try {
-			FileUtils.writeFile(soulPartiesDatabasePath, gson.toJson(soulPartyArray));
-		} catch (Exception ex) {
-			mPlugin.getLogger().severe("Failed to save soul parties database to '" + soulPartiesDatabasePath + "': " + ex.getMessage());
-		}
+		mSoulFingerprints = soulFingerprints;
+		mSoulPartyFingerprints = soulPartyFingerprints;
+		mSoulPoolFingerprints = soulPoolFingerprints;
+	}
 
-		try {
-			FileUtils.writeFile(soulPoolsDatabasePath, gson.toJson(soulPoolArray));
-		} catch (Exception ex) {
-			mPlugin.getLogger().severe("Failed to save soul pools database to '" + soulPoolsDatabasePath + "': " + ex.getMessage());
+	/*
+	 * Functions that change the database state
+	 *################################################################################*/
+
+	/* Opens one of the database files, positioned just inside its top-level JSON array */
+	private static <T extends SoulGroup> List<ForkJoinTask<T>> submitDatabaseArray(ParallelEntryDecoder decoder, Path path, String description, TypeAdapter<T> adapter,
+	                                                                            ParallelEntryDecoder.Fingerprints<T> previous,
+	                                                                            ParallelEntryDecoder.Fingerprints<T> next) throws Exception {
+		try (Reader reader = FileUtils.newReader(path.toString())) {
+			return decoder.submitArray(reader, adapter, previous, next);
+		} catch (EOFException ex) {
+			throw new Exception("Failed to read " + description + " database");
+		} catch (IOException ex) {
+			throw new Exception("Failed to parse " + description + " database as JSON array: " + ex.getMessage());
 		}
 	}
 
+	/* Stops watching for changes and writes out any changes not yet saved. Blocks, only for use on shutdown */
+	public void flushSaves() {
+		mWatcher.close();
+		mSaver.shutdown();
+	}
+
 	public static SoulsDatabase getInstance() {
 		return INSTANCE;
 	}
 
 	public Set<String> listMobNames() {
-		return new HashSet<>(mSouls.keySet());
+		return addLabels(new HashSet<>(), mSnapshot.getSouls());
 	}
 
 	public Set<String> listSoulPartyNames() {
-		return new HashSet<>(mSoulParties.keySet());
+		return addLabels(new HashSet<>(), mSnapshot.getSoulParties());
 	}
 
 	public Set<String> listSoulPoolNames() {
-		return new HashSet<>(mSoulPools.keySet());
+		return addLabels(new HashSet<>(), mSnapshot.getSoulPools());
 	}
 
 	public Set<String> listSoulGroupNames() {
-		Set<String> result = new HashSet<String>(mSouls.keySet());
-		result.addAll(mSoulParties.keySet());
-		result.addAll(mSoulPools.keySet());
+		SoulsSnapshot snapshot = mSnapshot;
+		Set<String> result = new HashSet<String>();
+		addLabels(result, snapshot.getSouls());
+		addLabels(result, snapshot.getSoulParties());
+		addLabels(result, snapshot.getSoulPools());
 		return result;
 	}
 
+	private static Set<String> addLabels(Set<String> labels, List<? extends SoulGroup> entries) {
+		for (SoulGroup entry : entries) {
+			labels.add(entry.getLabel());
+		}
+		return labels;
+	}
+
 	public Set<String> listMobLocations() {
-		return mLocsIndex.keySet();
+		return mSnapshot.getLocations();
 	}
 
 	public Set<String> listMobTypes() {
-		return mTypesIndex.keySet();
+		return mSnapshot.getTypes();
 	}
 }
@@ -0,0 +1,454 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+/*
+ * Write-behind persistence for the database files.
+ *
+ * Callers hand over whichever entry changed. The first change starts a delay; anything else
+ * changed during that delay is written along with it, and an entry changed several times is
+ * only written once, in its newest state. Only files that actually changed are rewritten.
+ *
+ * Entries are mutable and keep changing on the main thread, so what is handed over is a
+ * frozen copy made there. The saver keeps its own frozen copy of every entry (its "image"),
+ * set on each load and updated from the changes, and writes the database files from that -
+ * it never reads the live entries.
+ *
+ * With a journal, every change is also appended to it straight away as a single record,
+ * holding only the changed entry's new current version.
+ * The database files are then only rewritten ("compacted") once the delay runs out or the
+ * journal grows past a size limit, after which the journal is cleared.
+ *
+ * With the sharded layout, only the files of the entries that changed are rewritten and
+ * there is no journal or image.
+ *
+ * Serialization and file I/O happen on a dedicated thread. Each file is written to a
+ * temporary file first and then moved over the original, so a crash mid-write never leaves
+ * a truncated database behind.
+ */
+public class SoulsDatabaseSaver {
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+	private static final SoulEntryTypeAdapter SOUL_ADAPTER = new SoulEntryTypeAdapter(true, false);
+	private static final SoulPartyEntryTypeAdapter SOUL_PARTY_ADAPTER = new SoulPartyEntryTypeAdapter(true);
+	private static final SoulPoolEntryTypeAdapter SOUL_POOL_ADAPTER = new SoulPoolEntryTypeAdapter(true);
+
+	private final Logger mLogger;
+	private final Path mSoulsDatabasePath;
+	private final Path mSoulPartiesDatabasePath;
+	private final Path mSoulPoolsDatabasePath;
+	/* May be null, in which case every change waits for the next full write */
+	private final SoulsJournal mJournal;
+	/* Set when using the sharded layout, in which case the paths above are unused */
+	private final ShardedSoulsStore mStore;
+	private final long mDelayMs;
+	private final long mJournalLimitBytes;
+	/* Held while files are being written, so the database's file watcher doesn't see partial saves */
+	private final Object mWriteLock;
+	/* Run under mWriteLock after any file has been written */
+	private final Runnable mOnWritten;
+
+	/* Threads are only started once there is something to save */
+	private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "LibraryOfSouls-Saver");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/* Frozen copies of changed entries to write by label, null meaning deleted. Guarded by this */
+	private Map<String, SoulEntry> mPendingSouls = newLabelMap();
+	private Map<String, SoulPartyEntry> mPendingSoulParties = newLabelMap();
+	private Map<String, SoulPoolEntry> mPendingSoulPools = newLabelMap();
+	/* A new image from the latest load, replacing the current one before the pending changes are applied. Guarded by this */
+	private Map<String, SoulEntry> mResetSouls = null;
+	private Map<String, SoulPartyEntry> mResetSoulParties = null;
+	private Map<String, SoulPoolEntry> mResetSoulPools = null;
+	/* Whether the reset should be written out even without further changes. Guarded by this */
+	private boolean mResetDirty = false;
+	private ScheduledFuture<?> mScheduled = null;
+
+	/* Not sharded only: what the database files should contain, null until the first load. Saver thread only */
+	private Map<String, SoulEntry> mSoulImage = null;
+	private Map<String, SoulPartyEntry> mSoulPartyImage = null;
+	private Map<String, SoulPoolEntry> mSoulPoolImage = null;
+	/* Whether the image differs from the files. Saver thread only */
+	private boolean mSoulsDirty = false;
+	private boolean mSoulPartiesDirty = false;
+	private boolean mSoulPoolsDirty = false;
+
+	public SoulsDatabaseSaver(Logger logger, Path soulsDatabasePath, Path soulPartiesDatabasePath, Path soulPoolsDatabasePath,
+	                          SoulsJournal journal, ShardedSoulsStore store, long delayMs, long journalLimitBytes, Object writeLock, Runnable onWritten) {
+		mLogger = logger;
+		mSoulsDatabasePath = soulsDatabasePath;
+		mSoulPartiesDatabasePath = soulPartiesDatabasePath;
+		mSoulPoolsDatabasePath = soulPoolsDatabasePath;
+		mJournal = journal;
+		mStore = store;
+		mDelayMs = delayMs;
+		mJournalLimitBytes = journalLimitBytes;
+		mWriteLock = writeLock;
+		mOnWritten = onWritten;
+	}
+
+	/* Only call from the main thread, right after changing soul */
+	public synchronized void soulChanged(SoulEntry soul) {
+		mPendingSouls.put(soul.getLabel(), soul.frozenCopy());
+		journal(() -> SoulsJournal.pushRecord(soul));
+		schedule();
+	}
+
+	public synchronized void soulRemoved(String label) {
+		mPendingSouls.put(label, null);
+		journal(() -> SoulsJournal.delRecord(SoulsJournal.TYPE_SOUL, label));
+		schedule();
+	}
+
+	/* Only call from the main thread, right after changing soulParty */
+	public synchronized void soulPartyChanged(SoulPartyEntry soulParty) {
+		mPendingSoulParties.put(soulParty.getLabel(), soulParty.frozenCopy());
+		journal(() -> SoulsJournal.pushRecord(soulParty));
+		schedule();
+	}
+
+	public synchronized void soulPartyRemoved(String label) {
+		mPendingSoulParties.put(label, null);
+		journal(() -> SoulsJournal.delRecord(SoulsJournal.TYPE_SOUL_PARTY, label));
+		schedule();
+	}
+
+	/* Only call from the main thread, right after changing soulPool */
+	public synchronized void soulPoolChanged(SoulPoolEntry soulPool) {
+		mPendingSoulPools.put(soulPool.getLabel(), soulPool.frozenCopy());
+		journal(() -> SoulsJournal.pushRecord(soulPool));
+		schedule();
+	}
+
+	public synchronized void soulPoolRemoved(String label) {
+		mPendingSoulPools.put(label, null);
+		journal(() -> SoulsJournal.delRecord(SoulsJournal.TYPE_SOUL_POOL, label));
+		schedule();
+	}
+
+	/*
+	 * Sets what the database files contain after a load. Entries kept from the previous load
+	 * may be edited on the main thread meanwhile - such edits are handed over afterwards and
+	 * applied on top, so a copy caught mid-edit is never what ends up saved. With save, all three files are rewritten as soon as possible and the journal is cleared -
+	 * used when a journal left over from a previous run has been replayed.
+	 */
+	public synchronized void reset(Collection<SoulEntry> souls, Collection<SoulPartyEntry> soulParties, Collection<SoulPoolEntry> soulPools, boolean save) {
+		if (mStore != null) {
+			return;
+		}
+
+		mResetSouls = newLabelMap();
+		for (SoulEntry soul : souls) {
+			mResetSouls.put(soul.getLabel(), soul.frozenCopy());
+		}
+		mResetSoulParties = newLabelMap();
+		for (SoulPartyEntry soulParty : soulParties) {
+			mResetSoulParties.put(soulParty.getLabel(), soulParty.frozenCopy());
+		}
+		mResetSoulPools = newLabelMap();
+		for (SoulPoolEntry soulPool : soulPools) {
+			mResetSoulPools.put(soulPool.getLabel(), soulPool.frozenCopy());
+		}
+		mResetDirty = save;
+
+		if (save) {
+			if (mScheduled != null) {
+				mScheduled.cancel(false);
+			}
+			mScheduled = null;
+			if (!mExecutor.isShutdown()) {
+				mScheduled = mExecutor.schedule(this::writePending, 0, TimeUnit.MILLISECONDS);
+			}
+		} else if (mExecutor.isShutdown()) {
+			/* Nothing left to apply it */
+			mResetSouls = null;
+			mResetSoulParties = null;
+			mResetSoulPools = null;
+		} else {
+			/* Applied on the saver thread, so the image stays owned by it */
+			mExecutor.execute(this::applyReset);
+		}
+	}
+
+	/* Writes anything still pending and stops the saver thread. Blocks until done */
+	public void shutdown() {
+		synchronized (this) {
+			if (mScheduled != null) {
+				mScheduled.cancel(false);
+				mScheduled = null;
+			}
+		}
+
+		try {
+			mExecutor.submit(this::writePending).get(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException | ExecutionException | TimeoutException ex) {
+			mLogger.severe("Failed to save souls database on shutdown: " + ex.getMessage());
+		}
+		mExecutor.shutdown();
+	}
+
+	private void schedule() {
+		if (mScheduled == null && !mExecutor.isShutdown()) {
+			mScheduled = mExecutor.schedule(this::writePending, mDelayMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/* Records are built right away on the calling thread, only appending them happens on the saver thread */
+	private void journal(Supplier<JsonObject> recordSupplier) {
+		if (mJournal == null || mExecutor.isShutdown()) {
+			return;
+		}
+
+		JsonObject record = recordSupplier.get();
+
+		mExecutor.execute(() -> {
+			long size;
+			try {
+				synchronized (mWriteLock) {
+					mJournal.append(record);
+					mOnWritten.run();
+				}
+				size = mJournal.size();
+			} catch (Exception ex) {
+				/* The change is still pending, and will be saved by the next full write */
+				mLogger.severe("Failed to append to souls journal: " + ex.getMessage());
+				return;
+			}
+
+			if (size >= mJournalLimitBytes) {
+				writePending();
+			}
+		});
+	}
+
+	/* Saver thread only */
+	private void applyReset() {
+		synchronized (this) {
+			if (mResetSouls == null) {
+				return;
+			}
+			mSoulImage = mResetSouls;
+			mSoulPartyImage = mResetSoulParties;
+			mSoulPoolImage = mResetSoulPools;
+			mSoulsDirty |= mResetDirty;
+			mSoulPartiesDirty |= mResetDirty;
+			mSoulPoolsDirty |= mResetDirty;
+			mResetSouls = null;
+			mResetSoulParties = null;
+			mResetSoulPools = null;
+			mResetDirty = false;
+		}
+	}
+
+	private void writePending() {
+		if (mStore != null) {
+			writePendingShards();
+			return;
+		}
+
+		applyReset();
+		synchronized (this) {
+			if (mScheduled != null) {
+				mScheduled.cancel(false);
+				mScheduled = null;
+			}
+			if (mSoulImage == null) {
+				/* Not loaded yet - the changes stay pending until then */
+				return;
+			}
+			mSoulsDirty |= applyPending(mSoulImage, mPendingSouls);
+			mSoulPartiesDirty |= applyPending(mSoulPartyImage, mPendingSoulParties);
+			mSoulPoolsDirty |= applyPending(mSoulPoolImage, mPendingSoulPools);
+		}
+
+		if (!mSoulsDirty && !mSoulPartiesDirty && !mSoulPoolsDirty) {
+			return;
+		}
+
+		synchronized (mWriteLock) {
+			if (mSoulsDirty && write(mSoulsDatabasePath, "souls", mSoulImage.values(), SOUL_ADAPTER)) {
+				mSoulsDirty = false;
+			}
+			if (mSoulPartiesDirty && write(mSoulPartiesDatabasePath, "soul parties", mSoulPartyImage.values(), SOUL_PARTY_ADAPTER)) {
+				mSoulPartiesDirty = false;
+			}
+			if (mSoulPoolsDirty && write(mSoulPoolsDatabasePath, "soul pools", mSoulPoolImage.values(), SOUL_POOL_ADAPTER)) {
+				mSoulPoolsDirty = false;
+			}
+
+			/* Only once every change it holds is safely in the database files */
+			if (!mSoulsDirty && !mSoulPartiesDirty && !mSoulPoolsDirty && mJournal != null) {
+				try {
+					mJournal.clear();
+				} catch (IOException ex) {
+					mLogger.severe("Failed to clear souls journal: " + ex.getMessage());
+				}
+			}
+			mOnWritten.run();
+		}
+
+		if (mSoulsDirty || mSoulPartiesDirty || mSoulPoolsDirty) {
+			/* Try again later rather than waiting for the next change */
+			synchronized (this) {
+				schedule();
+			}
+		}
+	}
+
+	/* Moves pending changes into image, returning whether there were any */
+	private static <T> boolean applyPending(Map<String, T> image, Map<String, T> pending) {
+		if (pending.isEmpty()) {
+			return false;
+		}
+		for (Map.Entry<String, T> entry : pending.entrySet()) {
+			if (entry.getValue() == null) {
+				image.remove(entry.getKey());
+			} else {
+				image.put(entry.getKey(), entry.getValue());
+			}
+		}
+		pending.clear();
+		return true;
+	}
+
+	private void writePendingShards() {
+		Map<String, SoulEntry> souls;
+		Map<String, SoulPartyEntry> soulParties;
+		Map<String, SoulPoolEntry> soulPools;
+		synchronized (this) {
+			souls = mPendingSouls;
+			soulParties = mPendingSoulParties;
+			soulPools = mPendingSoulPools;
+			mPendingSouls = newLabelMap();
+			mPendingSoulParties = newLabelMap();
+			mPendingSoulPools = newLabelMap();
+			if (mScheduled != null) {
+				mScheduled.cancel(false);
+				mScheduled = null;
+			}
+		}
+
+		if (souls.isEmpty() && soulParties.isEmpty() && soulPools.isEmpty()) {
+			return;
+		}
+
+		boolean success = true;
+		synchronized (mWriteLock) {
+			for (Map.Entry<String, SoulEntry> entry : souls.entrySet()) {
+				try {
+					if (entry.getValue() == null) {
+						mStore.deleteSoul(entry.getKey());
+					} else {
+						mStore.writeSoul(entry.getValue(), SOUL_ADAPTER);
+					}
+				} catch (Exception ex) {
+					mLogger.severe("Failed to save mob '" + entry.getKey() + "': " + ex.getMessage());
+					success = false;
+					synchronized (this) {
+						mPendingSouls.putIfAbsent(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+			for (Map.Entry<String, SoulPartyEntry> entry : soulParties.entrySet()) {
+				try {
+					if (entry.getValue() == null) {
+						mStore.deleteSoulParty(entry.getKey());
+					} else {
+						mStore.writeSoulParty(entry.getValue(), SOUL_PARTY_ADAPTER);
+					}
+				} catch (Exception ex) {
+					mLogger.severe("Failed to save soul party '" + entry.getKey() + "': " + ex.getMessage());
+					success = false;
+					synchronized (this) {
+						mPendingSoulParties.putIfAbsent(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+			for (Map.Entry<String, SoulPoolEntry> entry : soulPools.entrySet()) {
+				try {
+					if (entry.getValue() == null) {
+						mStore.deleteSoulPool(entry.getKey());
+					} else {
+						mStore.writeSoulPool(entry.getValue(), SOUL_POOL_ADAPTER);
+					}
+				} catch (Exception ex) {
+					mLogger.severe("Failed to save soul pool '" + entry.getKey() + "': " + ex.getMessage());
+					success = false;
+					synchronized (this) {
+						mPendingSoulPools.putIfAbsent(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+
+			try {
+				mStore.writeManifest();
+			} catch (Exception ex) {
+				mLogger.severe("Failed to save souls manifest: " + ex.getMessage());
+			}
+			mOnWritten.run();
+		}
+
+		if (!success) {
+			/* Try again later rather than waiting for the next change */
+			synchronized (this) {
+				schedule();
+			}
+		}
+	}
+
+	private static <T> Map<String, T> newLabelMap() {
+		/* Labels are case insensitive and sorted, like the database maps */
+		return new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	}
+
+	private <T> boolean write(Path path, String description, Collection<T> entries, TypeAdapter<T> adapter) {
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try {
+			try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tempPath), StandardCharsets.UTF_8)))) {
+				/* Same output as the Gson pretty printer these files were previously written with */
+				writer.setIndent("  ");
+				writer.setHtmlSafe(true);
+
+				writer.beginArray();
+				for (T entry : entries) {
+					adapter.write(writer, entry);
+				}
+				writer.endArray();
+			}
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (Exception ex) {
+			mLogger.severe("Failed to save " + description + " database to '" + path + "': " + ex.getMessage());
+			try {
+				Files.deleteIfExists(tempPath);
+			} catch (IOException ignored) {
+				/* Nothing more to do - the original file is still intact */
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,386 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Which soul parties and soul pools contain which labels, in both directions.
+ *
+ * Only groups contain anything, so a cycle can only go through groups. For each group the
+ * graph stores every group reachable from it as a bit set, which makes cycle checks a single
+ * lookup. Groups can also be listed in dependency order - every group after the groups it contains.
+ *
+ * Labels are compared ignoring case, and may name entries that don't exist (dangling references).
+ * Immutable once built - it only depends on soul parties and soul pools, so the snapshot only
+ * updates it when one of those changes. with / without return a modified copy, which only
+ * recomputes what is reachable from the changed group and from the groups containing it.
+ * Groups are numbered when they are added, and numbers of removed groups are not reused.
+ */
+public class SoulsDependencyGraph {
+	/* Normalized group label -> number, and the group by number (null where one was removed) */
+	private final Map<String, Integer> mGroupIndexes;
+	private final SoulGroup[] mGroups;
+	/* Normalized labels each group contains, by number */
+	private final List<String>[] mEntries;
+	/* Normalized label -> groups directly containing it, sorted by label */
+	private final Map<String, List<SoulGroup>> mReferences;
+	/* Groups reachable from each group, by number */
+	private final BitSet[] mReachable;
+	/* Every group after the groups it contains, worked out on first use after an update */
+	private volatile List<SoulGroup> mOrder;
+
+	@SuppressWarnings("unchecked")
+	public SoulsDependencyGraph(Collection<SoulPartyEntry> soulParties, Collection<SoulPoolEntry> soulPools) {
+		mGroupIndexes = new HashMap<>();
+		mGroups = new SoulGroup[soulParties.size() + soulPools.size()];
+		mEntries = new List[mGroups.length];
+		mReferences = new HashMap<>();
+		int index = 0;
+		for (SoulPartyEntry soulParty : soulParties) {
+			addGroup(index++, soulParty, soulParty.getEntryCounts().keySet());
+		}
+		for (SoulPoolEntry soulPool : soulPools) {
+			addGroup(index++, soulPool, soulPool.getEntryWeights().keySet());
+		}
+		for (Map.Entry<String, List<SoulGroup>> entry : mReferences.entrySet()) {
+			entry.getValue().sort((a, b) -> a.getLabel().compareToIgnoreCase(b.getLabel()));
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+
+		mReachable = new BitSet[mGroups.length];
+		mOrder = order(mReachable);
+	}
+
+	private SoulsDependencyGraph(Map<String, Integer> groupIndexes, SoulGroup[] groups, List<String>[] entries,
+	                             Map<String, List<SoulGroup>> references, BitSet[] reachable) {
+		mGroupIndexes = groupIndexes;
+		mGroups = groups;
+		mEntries = entries;
+		mReferences = references;
+		mReachable = reachable;
+		mOrder = null;
+	}
+
+	private void addGroup(int index, SoulGroup group, Collection<String> entries) {
+		mGroups[index] = group;
+		mGroupIndexes.put(SoulsLabelIndex.normalize(group.getLabel()), index);
+		mEntries[index] = normalize(entries);
+		for (String key : mEntries[index]) {
+			mReferences.computeIfAbsent(key, (k) -> new ArrayList<>()).add(group);
+		}
+	}
+
+	private static List<String> normalize(Collection<String> entries) {
+		List<String> normalized = new ArrayList<>(entries.size());
+		for (String entry : entries) {
+			normalized.add(SoulsLabelIndex.normalize(entry));
+		}
+		return Collections.unmodifiableList(normalized);
+	}
+
+	/*
+	 * Kahn's algorithm, starting from the groups that contain no other groups. Returns every group
+	 * after the groups it contains, with groups in or containing a cycle last, in no particular order.
+	 * Fills in reachable along the way if it is given.
+	 */
+	private List<SoulGroup> order(BitSet[] reachable) {
+		int[] pending = new int[mGroups.length];
+		List<List<Integer>> containedBy = new ArrayList<>();
+		for (int i = 0; i < mGroups.length; i++) {
+			containedBy.add(new ArrayList<>());
+		}
+		for (int i = 0; i < mGroups.length; i++) {
+			if (mGroups[i] == null) {
+				continue;
+			}
+			for (String entry : mEntries[i]) {
+				Integer child = mGroupIndexes.get(entry);
+				if (child != null) {
+					pending[i]++;
+					containedBy.get(child).add(i);
+				}
+			}
+		}
+
+		Deque<Integer> ready = new ArrayDeque<>();
+		for (int i = 0; i < mGroups.length; i++) {
+			if (mGroups[i] != null && pending[i] == 0) {
+				ready.add(i);
+			}
+		}
+		List<SoulGroup> order = new ArrayList<>(mGroups.length);
+		boolean[] done = new boolean[mGroups.length];
+		while (!ready.isEmpty()) {
+			int group = ready.poll();
+			if (reachable != null) {
+				/* Everything this contains is done already, so its reachable set is just theirs combined */
+				BitSet groupReachable = new BitSet(mGroups.length);
+				for (String entry : mEntries[group]) {
+					Integer child = mGroupIndexes.get(entry);
+					if (child != null) {
+						groupReachable.set(child);
+						groupReachable.or(reachable[child]);
+					}
+				}
+				reachable[group] = groupReachable;
+			}
+			done[group] = true;
+			order.add(mGroups[group]);
+
+			for (int parent : containedBy.get(group)) {
+				if (--pending[parent] == 0) {
+					ready.add(parent);
+				}
+			}
+		}
+
+		/* Whatever is left is in or contains a cycle - these shouldn't exist, but files can be edited by hand */
+		for (int i = 0; i < mGroups.length; i++) {
+			if (mGroups[i] != null && !done[i]) {
+				if (reachable != null) {
+					reachable[i] = search(i, null, reachable);
+				}
+				order.add(mGroups[i]);
+			}
+		}
+		return Collections.unmodifiableList(order);
+	}
+
+	/*
+	 * Breadth first search of the groups reachable from start. Groups outside of expand (all of
+	 * them if it is null) are not searched through - what they reach is taken from reachable.
+	 */
+	private BitSet search(int start, BitSet expand, BitSet[] reachable) {
+		BitSet result = new BitSet(mGroups.length);
+		Deque<Integer> queue = new ArrayDeque<>();
+		queue.add(start);
+		while (!queue.isEmpty()) {
+			for (String entry : mEntries[queue.poll()]) {
+				Integer child = mGroupIndexes.get(entry);
+				if (child == null || result.get(child)) {
+					continue;
+				}
+				result.set(child);
+				if (expand == null || expand.get(child)) {
+					queue.add(child);
+				} else {
+					result.or(reachable[child]);
+				}
+			}
+		}
+		return result;
+	}
+
+	/*--------------------------------------------------------------------------------
+	 * Building modified graphs
+	 */
+
+	/* Returns a copy of this graph with the soul party / pool added, or replacing the one with the same label */
+	public SoulsDependencyGraph with(SoulGroup group, Collection<String> entries) {
+		String label = SoulsLabelIndex.normalize(group.getLabel());
+		Integer existing = mGroupIndexes.get(label);
+		int number = existing == null ? mGroups.length : existing;
+
+		SoulGroup[] groups = Arrays.copyOf(mGroups, Math.max(mGroups.length, number + 1));
+		List<String>[] groupEntries = Arrays.copyOf(mEntries, groups.length);
+		Map<String, List<SoulGroup>> references = new HashMap<>(mReferences);
+		if (existing != null) {
+			removeReferences(references, mGroups[number], mEntries[number]);
+		}
+		groups[number] = group;
+		groupEntries[number] = normalize(entries);
+		for (String key : groupEntries[number]) {
+			List<SoulGroup> containing = new ArrayList<>(references.getOrDefault(key, Collections.emptyList()));
+			int index = 0;
+			while (index < containing.size() && containing.get(index).getLabel().compareToIgnoreCase(group.getLabel()) < 0) {
+				index++;
+			}
+			containing.add(index, group);
+			references.put(key, Collections.unmodifiableList(containing));
+		}
+
+		Map<String, Integer> groupIndexes = mGroupIndexes;
+		if (existing == null) {
+			groupIndexes = new HashMap<>(mGroupIndexes);
+			groupIndexes.put(label, number);
+		}
+
+		SoulsDependencyGraph result = new SoulsDependencyGraph(groupIndexes, groups, groupEntries, references,
+		                                                       Arrays.copyOf(mReachable, groups.length));
+		result.updateReachable(label);
+		return result;
+	}
+
+	/* Returns a copy of this graph without the soul party / pool with this label, or this graph if there is none */
+	public SoulsDependencyGraph without(String label) {
+		String key = SoulsLabelIndex.normalize(label);
+		Integer existing = mGroupIndexes.get(key);
+		if (existing == null) {
+			return this;
+		}
+		int number = existing;
+
+		SoulGroup[] groups = mGroups.clone();
+		List<String>[] groupEntries = mEntries.clone();
+		Map<String, List<SoulGroup>> references = new HashMap<>(mReferences);
+		removeReferences(references, mGroups[number], mEntries[number]);
+		groups[number] = null;
+		groupEntries[number] = null;
+
+		Map<String, Integer> groupIndexes = new HashMap<>(mGroupIndexes);
+		groupIndexes.remove(key);
+
+		BitSet[] reachable = mReachable.clone();
+		reachable[number] = null;
+		SoulsDependencyGraph result = new SoulsDependencyGraph(groupIndexes, groups, groupEntries, references, reachable);
+		result.updateReachable(key);
+		return result;
+	}
+
+	private static void removeReferences(Map<String, List<SoulGroup>> references, SoulGroup group, List<String> entries) {
+		for (String key : entries) {
+			List<SoulGroup> containing = references.get(key);
+			if (containing == null) {
+				continue;
+			}
+			List<SoulGroup> result = new ArrayList<>(containing);
+			result.removeIf((other) -> other == group);
+			if (result.isEmpty()) {
+				references.remove(key);
+			} else {
+				references.put(key, Collections.unmodifiableList(result));
+			}
+		}
+	}
+
+	/*
+	 * Recomputes what is reachable from the group with this normalized label and from every group
+	 * containing it, after its contents changed. Nothing else can reach a different set of groups.
+	 * Only called on a graph that isn't published yet.
+	 */
+	private void updateReachable(String label) {
+		BitSet affected = new BitSet(mGroups.length);
+		Integer changed = mGroupIndexes.get(label);
+		if (changed != null) {
+			affected.set(changed);
+		}
+		for (String containing : getContainingLabels(label)) {
+			affected.set(mGroupIndexes.get(containing));
+		}
+
+		/* Computed from the old sets of the groups outside affected, which are still correct */
+		BitSet[] updated = new BitSet[mGroups.length];
+		for (int i = affected.nextSetBit(0); i >= 0; i = affected.nextSetBit(i + 1)) {
+			updated[i] = search(i, affected, mReachable);
+		}
+		for (int i = affected.nextSetBit(0); i >= 0; i = affected.nextSetBit(i + 1)) {
+			mReachable[i] = updated[i];
+		}
+	}
+
+	/*--------------------------------------------------------------------------------
+	 * Reading
+	 */
+
+	/*
+	 * Whether to can be reached from from - that is, whether from is to or contains it at any
+	 * depth. Adding from to the group to would then make a cycle. Ignores case.
+	 */
+	public boolean reaches(String from, String to) {
+		String fromKey = SoulsLabelIndex.normalize(from);
+		String toKey = SoulsLabelIndex.normalize(to);
+		if (fromKey.equals(toKey)) {
+			return true;
+		}
+		Integer fromIndex = mGroupIndexes.get(fromKey);
+		Integer toIndex = mGroupIndexes.get(toKey);
+		return fromIndex != null && toIndex != null && mReachable[fromIndex].get(toIndex);
+	}
+
+	/* Soul parties and soul pools directly containing label, sorted by label. Ignores case */
+	public List<SoulGroup> getReferences(String label) {
+		return mReferences.getOrDefault(SoulsLabelIndex.normalize(label), Collections.emptyList());
+	}
+
+	/* Normalized labels of every group containing label at any depth, not including label itself */
+	public Set<String> getContainingLabels(String label) {
+		String start = SoulsLabelIndex.normalize(label);
+		Set<String> result = new HashSet<>();
+		Deque<String> queue = new ArrayDeque<>();
+		queue.add(start);
+		while (!queue.isEmpty()) {
+			for (SoulGroup group : mReferences.getOrDefault(queue.poll(), Collections.emptyList())) {
+				String key = SoulsLabelIndex.normalize(group.getLabel());
+				if (!key.equals(start) && result.add(key)) {
+					queue.add(key);
+				}
+			}
+		}
+		return result;
+	}
+
+	/* Every group after the groups it contains */
+	public List<SoulGroup> getTopologicalOrder() {
+		List<SoulGroup> order = mOrder;
+		if (order == null) {
+			order = order(null);
+			mOrder = order;
+		}
+		return order;
+	}
+
+	/* Groups whose contents lead back to themselves */
+	public List<SoulGroup> getCycles() {
+		List<SoulGroup> result = new ArrayList<>();
+		for (int i = 0; i < mGroups.length; i++) {
+			if (mGroups[i] != null && mReachable[i].get(i)) {
+				result.add(mGroups[i]);
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Whether both graphs have the same groups with the same contents, and the same groups
+	 * reachable from each, for SoulsSnapshot.checkIndexes()
+	 */
+	boolean sameEdges(SoulsDependencyGraph other) {
+		if (mGroupIndexes.size() != other.mGroupIndexes.size()) {
+			return false;
+		}
+		for (Map.Entry<String, Integer> entry : mGroupIndexes.entrySet()) {
+			Integer otherIndex = other.mGroupIndexes.get(entry.getKey());
+			if (otherIndex == null || !countLabels(mEntries[entry.getValue()]).equals(countLabels(other.mEntries[otherIndex]))
+			    || !reachableLabels(entry.getValue()).equals(other.reachableLabels(otherIndex))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Set<String> reachableLabels(int group) {
+		Set<String> labels = new HashSet<>();
+		for (int i = mReachable[group].nextSetBit(0); i >= 0; i = mReachable[group].nextSetBit(i + 1)) {
+			labels.add(SoulsLabelIndex.normalize(mGroups[i].getLabel()));
+		}
+		return labels;
+	}
+
+	private static Map<String, Integer> countLabels(List<String> labels) {
+		Map<String, Integer> counts = new HashMap<>();
+		for (String label : labels) {
+			counts.merge(label, 1, Integer::sum);
+		}
+		return counts;
+	}
+}
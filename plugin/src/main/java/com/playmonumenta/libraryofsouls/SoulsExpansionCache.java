@@ -0,0 +1,102 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Remembers what each soul party / pool expands to - its possible souls, average souls and
+ * entries, and width / height - so asking again doesn't walk the group tree again.
+ *
+ * Each snapshot has its own cache. A snapshot built by an edit starts with a copy of the
+ * previous cache, minus the changed label and every group that contains it at any depth
+ * (found through the dependency graph). Nothing else can have changed.
+ *
+ * Entries are keyed by normalized label and remember the history entry they were computed
+ * from, so a group changed in place but not published yet isn't given its old expansion.
+ * Safe to use from any thread.
+ */
+public class SoulsExpansionCache {
+	/* Everything derived from a group's contents, computed together. Immutable */
+	public static class Expansion {
+		private final SoulGroup mSource;
+		private final Set<Soul> mPossibleSouls;
+		private final Map<SoulGroup, Double> mAverageEntries;
+		private final Map<Soul, Double> mAverageSouls;
+		private final Double mWidth;
+		private final Double mHeight;
+
+		private Expansion(SoulGroup source) {
+			mSource = source;
+			/* History entries build new collections for every call, so these don't need copying */
+			mPossibleSouls = Collections.unmodifiableSet(source.getPossibleSouls());
+			mAverageEntries = Collections.unmodifiableMap(source.getAverageEntries());
+			mAverageSouls = Collections.unmodifiableMap(source.getAverageSouls());
+			mWidth = source.getWidth();
+			mHeight = source.getHeight();
+		}
+
+		public Set<Soul> getPossibleSouls() {
+			return mPossibleSouls;
+		}
+
+		public Map<SoulGroup, Double> getAverageEntries() {
+			return mAverageEntries;
+		}
+
+		public Map<Soul, Double> getAverageSouls() {
+			return mAverageSouls;
+		}
+
+		public Double getWidth() {
+			return mWidth;
+		}
+
+		public Double getHeight() {
+			return mHeight;
+		}
+	}
+
+	private final Map<String, Expansion> mExpansions;
+
+	public SoulsExpansionCache() {
+		mExpansions = new ConcurrentHashMap<>();
+	}
+
+	private SoulsExpansionCache(Map<String, Expansion> expansions) {
+		mExpansions = new ConcurrentHashMap<>(expansions);
+	}
+
+	/* Returns a copy without the expansions of these normalized labels */
+	public SoulsExpansionCache without(Collection<String> labels) {
+		SoulsExpansionCache result = new SoulsExpansionCache(mExpansions);
+		for (String label : labels) {
+			result.mExpansions.remove(label);
+		}
+		return result;
+	}
+
+	/*
+	 * Returns the expansion of the group whose current history entry is source, computing it if
+	 * needed. The group must be the one with its label in the snapshot owning this cache.
+	 *
+	 * Computing one expands the group's entries through their own cached expansions, so nested
+	 * groups are only ever expanded once. That recursion is why this doesn't use computeIfAbsent().
+	 */
+	public Expansion get(SoulGroup group, SoulGroup source) {
+		String label = SoulsLabelIndex.normalize(group.getLabel());
+		Expansion expansion = mExpansions.get(label);
+		if (expansion == null || expansion.mSource != source) {
+			expansion = new Expansion(source);
+			mExpansions.put(label, expansion);
+		}
+		return expansion;
+	}
+
+	/* For groups that aren't in the snapshot - computes the expansion without caching it */
+	public static Expansion expand(SoulGroup source) {
+		return new Expansion(source);
+	}
+}
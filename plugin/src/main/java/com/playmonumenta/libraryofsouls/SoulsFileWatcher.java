@@ -0,0 +1,240 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/*
+ * Watches the database files for changes on a dedicated daemon thread.
+ *
+ * Events are debounced - the change callback only runs once nothing has changed for
+ * DEBOUNCE_MS, so an editor or git writing several files in a row causes a single check.
+ * The callback decides whether anything actually changed (see Fingerprints).
+ *
+ * If the file system can't deliver change events (no WatchService, or only the JDK's own
+ * polling implementation), this falls back to running the callback every POLL_MS.
+ */
+public class SoulsFileWatcher {
+	private static final long DEBOUNCE_MS = 250;
+	private static final long POLL_MS = 10000;
+
+	private final Logger mLogger;
+	private final Path mRoot;
+	private final Set<Path> mFiles = new HashSet<>();
+	private final Set<Path> mDirectories = new HashSet<>();
+	private final Runnable mOnChange;
+	private final Thread mThread;
+	private volatile WatchService mWatchService = null;
+	private volatile boolean mClosed = false;
+
+	/*
+	 * Tracks the size, modification time and content hash of a set of files.
+	 *
+	 * Not thread safe.
+	 */
+	public static class Fingerprints {
+		private final Path[] mPaths;
+		private final long[] mModified;
+		private final long[] mSize;
+		private final byte[][] mHashes;
+
+		public Fingerprints(Path... paths) {
+			mPaths = paths;
+			mModified = new long[paths.length];
+			mSize = new long[paths.length];
+			mHashes = new byte[paths.length][];
+			Arrays.fill(mModified, Long.MIN_VALUE);
+		}
+
+		/*
+		 * Returns whether any file's contents differ from when it was last checked.
+		 *
+		 * Files are only hashed when their size or modification time changed, so a file that
+		 * was only touched (or rewritten with the same contents) doesn't count as a change.
+		 */
+		public boolean update() throws Exception {
+			boolean changed = false;
+			for (int i = 0; i < mPaths.length; i++) {
+				long modified = Files.exists(mPaths[i]) ? Files.getLastModifiedTime(mPaths[i]).toMillis() : -1;
+				long size = modified == -1 ? -1 : Files.size(mPaths[i]);
+				if (modified == mModified[i] && size == mSize[i]) {
+					continue;
+				}
+
+				byte[] hash = SoulsBinaryCache.hashFiles(mPaths[i]);
+				if (mHashes[i] == null || !Arrays.equals(hash, mHashes[i])) {
+					changed = true;
+				}
+				mModified[i] = modified;
+				mSize[i] = size;
+				mHashes[i] = hash;
+			}
+			return changed;
+		}
+
+		/*
+		 * Records the files as they are now, for files this plugin just wrote itself.
+		 *
+		 * Their contents aren't hashed here - any later change to them counts as a change.
+		 */
+		public void mark() throws IOException {
+			for (int i = 0; i < mPaths.length; i++) {
+				long modified = Files.exists(mPaths[i]) ? Files.getLastModifiedTime(mPaths[i]).toMillis() : -1;
+				long size = modified == -1 ? -1 : Files.size(mPaths[i]);
+				if (modified != mModified[i] || size != mSize[i]) {
+					mModified[i] = modified;
+					mSize[i] = size;
+					mHashes[i] = null;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Watches the given files directly inside root, and anything inside the given directories
+	 * (which are also directly inside root, and may not exist yet).
+	 *
+	 * onChange is run once when the watcher is started, then after every batch of changes.
+	 */
+	public SoulsFileWatcher(Logger logger, Path root, List<Path> files, List<Path> directories, Runnable onChange) {
+		mLogger = logger;
+		mRoot = root;
+		for (Path file : files) {
+			mFiles.add(file.getFileName());
+		}
+		for (Path directory : directories) {
+			mDirectories.add(directory.getFileName());
+		}
+		mOnChange = onChange;
+
+		mThread = new Thread(this::run, "LibraryOfSouls-Watcher");
+		mThread.setDaemon(true);
+	}
+
+	public void start() {
+		mThread.start();
+	}
+
+	public void close() {
+		mClosed = true;
+		WatchService watchService = mWatchService;
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException ex) {
+				mLogger.warning("Failed to close souls database watcher: " + ex.getMessage());
+			}
+		}
+		mThread.interrupt();
+	}
+
+	private void run() {
+		/* Watch first, so changes made while the initial check runs are still noticed afterwards */
+		try {
+			mWatchService = openWatchService();
+		} catch (Exception ex) {
+			mLogger.warning("Unable to watch souls database for changes, polling instead: " + ex.getMessage());
+		}
+		if (mClosed) {
+			/* Closed before the watch service was set, so close() couldn't close it */
+			close();
+			return;
+		}
+
+		mOnChange.run();
+
+		try {
+			if (mWatchService == null) {
+				while (!mClosed) {
+					Thread.sleep(POLL_MS);
+					mOnChange.run();
+				}
+			} else {
+				while (!mClosed) {
+					/* Wait for a relevant change, then until things have settled down */
+					while (!drain(mWatchService.take())) {
+						/* Nothing we care about */
+					}
+					WatchKey key;
+					while ((key = mWatchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+						drain(key);
+					}
+					mOnChange.run();
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException ex) {
+			/* Shutting down */
+		}
+	}
+
+	private WatchService openWatchService() throws IOException {
+		WatchService watchService = FileSystems.getDefault().newWatchService();
+		if (watchService.getClass().getName().equals("sun.nio.fs.PollingWatchService")) {
+			/* No native change notification - the JDK would just be polling too, only slower to notice */
+			watchService.close();
+			return null;
+		}
+
+		try {
+			register(watchService, mRoot);
+			for (Path directory : mDirectories) {
+				if (Files.isDirectory(mRoot.resolve(directory))) {
+					register(watchService, mRoot.resolve(directory));
+				}
+			}
+		} catch (IOException ex) {
+			watchService.close();
+			throw ex;
+		}
+		return watchService;
+	}
+
+	private static void register(WatchService watchService, Path dir) throws IOException {
+		dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+	}
+
+	/* Consumes the events of one key, returning whether any of them are relevant */
+	private boolean drain(WatchKey key) {
+		Path dir = (Path)key.watchable();
+		boolean relevant = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				/* Events were lost - anything could have changed */
+				relevant = true;
+				continue;
+			}
+
+			Path name = (Path)event.context();
+			if (!dir.equals(mRoot)) {
+				/* Anything inside a watched directory */
+				relevant = true;
+			} else if (mFiles.contains(name)) {
+				relevant = true;
+			} else if (mDirectories.contains(name)) {
+				relevant = true;
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+					try {
+						register(mWatchService, mRoot.resolve(name));
+					} catch (IOException ex) {
+						mLogger.warning("Failed to watch " + name + " for changes: " + ex.getMessage());
+					}
+				}
+			}
+		}
+		/* If the directory was removed the key is no longer valid, and is re-registered if it's created again */
+		key.reset();
+		return relevant;
+	}
+}
@@ -0,0 +1,307 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/*
+ * Typo tolerant search of soul labels and plain display names, using trigrams.
+ *
+ * Text is lower cased and split into words of letters and digits. Each word is padded with
+ * two spaces in front and one behind and cut into every run of three characters, so "Elder
+ * Knight" gives "  e", " el", "eld", ..., "  k", " kn", ..., "ht ". The label is one word, so
+ * "elderknight" also finds it. A query matches the souls that share enough of its trigrams,
+ * and one wrong letter only loses the three trigrams it is part of.
+ *
+ * Each trigram maps to the sorted numbers of the souls that contain it, so a search only
+ * touches souls sharing at least one trigram with the query rather than the whole library.
+ * Shared trigrams are counted in a small table sized to those souls, not to the library.
+ *
+ * Building the index needs every soul's plain name. Souls loaded lazily already have it without
+ * parsing their NBT, but others may not, so it should not be built on the main thread. Immutable once built - with / without return a modified copy,
+ * changing only the postings of the soul that changed. Souls are numbered when they are added,
+ * and numbers of removed souls are not reused until the index is rebuilt.
+ */
+public class SoulsFuzzyIndex {
+	/* Share of the query's trigrams a soul must contain to match */
+	private static final double MIN_COVERAGE = 0.5;
+
+	/* By number, null where a soul was removed */
+	private final SoulEntry[] mSouls;
+	/*
+	 * The distinct trigrams of each soul, by number. Souls are changed in place before the
+	 * index is updated, so this is the only record of where to remove them from.
+	 */
+	private final String[][] mTrigrams;
+	/* Normalized label -> number */
+	private final Map<String, Integer> mNumbers;
+	/* Trigram -> sorted soul numbers */
+	private final Map<String, int[]> mPostings;
+	private final Function<SoulEntry, String> mNameOf;
+
+	public SoulsFuzzyIndex(List<SoulEntry> souls) {
+		this(souls, SoulEntry::getPlainName);
+	}
+
+	/* Takes the plain name of each soul from nameOf instead, for tests - which can't parse NBT without a server */
+	SoulsFuzzyIndex(List<SoulEntry> souls, Function<SoulEntry, String> nameOf) {
+		mNameOf = nameOf;
+		mSouls = souls.toArray(new SoulEntry[0]);
+		mTrigrams = new String[mSouls.length][];
+		mNumbers = new HashMap<>();
+
+		Map<String, List<Integer>> postings = new HashMap<>();
+		for (int i = 0; i < mSouls.length; i++) {
+			mTrigrams[i] = trigrams(mSouls[i]);
+			mNumbers.put(SoulsLabelIndex.normalize(mSouls[i].getLabel()), i);
+			for (String trigram : mTrigrams[i]) {
+				postings.computeIfAbsent(trigram, (key) -> new ArrayList<>()).add(i);
+			}
+		}
+
+		mPostings = new HashMap<>();
+		for (Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+			mPostings.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+		}
+	}
+
+	private SoulsFuzzyIndex(SoulsFuzzyIndex other, SoulEntry[] souls, String[][] trigrams, Map<String, Integer> numbers, Map<String, int[]> postings) {
+		mNameOf = other.mNameOf;
+		mSouls = souls;
+		mTrigrams = trigrams;
+		mNumbers = numbers;
+		mPostings = postings;
+	}
+
+	private String[] trigrams(SoulEntry soul) {
+		Set<String> trigrams = trigrams(soul.getLabel());
+		trigrams.addAll(trigrams(mNameOf.apply(soul)));
+		return trigrams.toArray(new String[0]);
+	}
+
+	/* Returns a copy of this index with the soul added or replaced. Parses the soul's NBT */
+	public SoulsFuzzyIndex with(SoulEntry soul) {
+		String label = SoulsLabelIndex.normalize(soul.getLabel());
+		Integer existing = mNumbers.get(label);
+		int number = existing == null ? mSouls.length : existing;
+
+		Map<String, int[]> postings = new HashMap<>(mPostings);
+		if (existing != null) {
+			removePostings(postings, mTrigrams[number], number);
+		}
+		String[] trigrams = trigrams(soul);
+		for (String trigram : trigrams) {
+			int[] souls = postings.getOrDefault(trigram, new int[0]);
+			int index = Arrays.binarySearch(souls, number);
+			if (index < 0) {
+				index = -index - 1;
+				int[] result = new int[souls.length + 1];
+				System.arraycopy(souls, 0, result, 0, index);
+				result[index] = number;
+				System.arraycopy(souls, index, result, index + 1, souls.length - index);
+				postings.put(trigram, result);
+			}
+		}
+
+		SoulEntry[] souls = Arrays.copyOf(mSouls, Math.max(mSouls.length, number + 1));
+		String[][] trigramsByNumber = Arrays.copyOf(mTrigrams, souls.length);
+		souls[number] = soul;
+		trigramsByNumber[number] = trigrams;
+
+		Map<String, Integer> numbers = mNumbers;
+		if (existing == null) {
+			numbers = new HashMap<>(mNumbers);
+			numbers.put(label, number);
+		}
+		return new SoulsFuzzyIndex(this, souls, trigramsByNumber, numbers, postings);
+	}
+
+	/* Returns a copy of this index without the soul with this label, or this index if there is none */
+	public SoulsFuzzyIndex without(String label) {
+		String key = SoulsLabelIndex.normalize(label);
+		Integer existing = mNumbers.get(key);
+		if (existing == null) {
+			return this;
+		}
+		int number = existing;
+
+		Map<String, int[]> postings = new HashMap<>(mPostings);
+		removePostings(postings, mTrigrams[number], number);
+
+		SoulEntry[] souls = mSouls.clone();
+		String[][] trigramsByNumber = mTrigrams.clone();
+		souls[number] = null;
+		trigramsByNumber[number] = null;
+
+		Map<String, Integer> numbers = new HashMap<>(mNumbers);
+		numbers.remove(key);
+		return new SoulsFuzzyIndex(this, souls, trigramsByNumber, numbers, postings);
+	}
+
+	private static void removePostings(Map<String, int[]> postings, String[] trigrams, int number) {
+		for (String trigram : trigrams) {
+			int[] souls = postings.get(trigram);
+			int index = souls == null ? -1 : Arrays.binarySearch(souls, number);
+			if (index < 0) {
+				continue;
+			}
+			if (souls.length == 1) {
+				postings.remove(trigram);
+			} else {
+				int[] result = new int[souls.length - 1];
+				System.arraycopy(souls, 0, result, 0, index);
+				System.arraycopy(souls, index + 1, result, index, souls.length - index - 1);
+				postings.put(trigram, result);
+			}
+		}
+	}
+
+	/* Whether both indexes have the same souls under the same trigrams, for SoulsSnapshot.checkIndexes() */
+	public boolean samePostings(SoulsFuzzyIndex other) {
+		if (!mPostings.keySet().equals(other.mPostings.keySet())) {
+			return false;
+		}
+		for (Map.Entry<String, int[]> entry : mPostings.entrySet()) {
+			if (!entries(entry.getValue()).equals(other.entries(other.mPostings.get(entry.getKey())))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Set<SoulEntry> entries(int[] postings) {
+		Set<SoulEntry> result = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (int soul : postings) {
+			result.add(mSouls[soul]);
+		}
+		return result;
+	}
+
+	/*
+	 * Returns at most limit souls similar to text, best match first.
+	 *
+	 * Souls are ranked by how much of the query they contain, then by how close they are to
+	 * being exactly the query (so "knight" puts Knight ahead of EliteKnightCaptain), then by label.
+	 */
+	public List<SoulEntry> find(String text, int limit) {
+		Set<String> trigrams = trigrams(text);
+		if (trigrams.isEmpty() || limit <= 0) {
+			return new ArrayList<>();
+		}
+
+		Counter shared = new Counter();
+		for (String trigram : trigrams) {
+			int[] postings = mPostings.get(trigram);
+			if (postings == null) {
+				continue;
+			}
+			for (int soul : postings) {
+				shared.increment(soul);
+			}
+		}
+
+		int needed = (int)Math.ceil(trigrams.size() * MIN_COVERAGE);
+		List<int[]> matches = new ArrayList<>();
+		for (int slot = 0; slot < shared.mKeys.length; slot++) {
+			int soul = shared.mKeys[slot] - 1;
+			if (soul >= 0 && shared.mCounts[slot] >= needed) {
+				/* Shared trigrams, and the trigrams of the query and the soul together, for comparing similarity exactly */
+				matches.add(new int[] {soul, shared.mCounts[slot], trigrams.size() + mTrigrams[soul].length});
+			}
+		}
+
+		matches.sort(Comparator.comparingInt((int[] match) -> -match[1])
+			.thenComparingDouble((int[] match) -> -(double)match[1] / match[2])
+			.thenComparing((int[] match) -> mSouls[match[0]].getLabel(), String.CASE_INSENSITIVE_ORDER));
+
+		List<SoulEntry> result = new ArrayList<>(Math.min(limit, matches.size()));
+		for (int i = 0; i < matches.size() && i < limit; i++) {
+			result.add(mSouls[matches.get(i)[0]]);
+		}
+		return result;
+	}
+
+	/* Soul number -> count, open-addressed with linear probing and kept at most half full */
+	private static final class Counter {
+		/* Soul number + 1, so 0 marks an empty slot */
+		private int[] mKeys = new int[64];
+		private int[] mCounts = new int[64];
+		private int mSize = 0;
+
+		private void increment(int soul) {
+			int mask = mKeys.length - 1;
+			int slot = slot(soul, mask);
+			while (mKeys[slot] != 0 && mKeys[slot] != soul + 1) {
+				slot = (slot + 1) & mask;
+			}
+			if (mKeys[slot] == 0) {
+				if ((mSize + 1) * 2 > mKeys.length) {
+					grow();
+					increment(soul);
+					return;
+				}
+				mKeys[slot] = soul + 1;
+				mSize++;
+			}
+			mCounts[slot]++;
+		}
+
+		private void grow() {
+			int[] keys = mKeys;
+			int[] counts = mCounts;
+			mKeys = new int[keys.length * 2];
+			mCounts = new int[keys.length * 2];
+			int mask = mKeys.length - 1;
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != 0) {
+					int slot = slot(keys[i] - 1, mask);
+					while (mKeys[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					mKeys[slot] = keys[i];
+					mCounts[slot] = counts[i];
+				}
+			}
+		}
+
+		/* Souls sharing trigrams tend to have nearby numbers, so spread them out */
+		private static int slot(int soul, int mask) {
+			int hash = soul * 0x9E3779B9;
+			return (hash ^ (hash >>> 16)) & mask;
+		}
+	}
+
+	/*
+	 * The distinct trigrams of each word of text, and of all of its words run together - labels
+	 * are the name with everything but letters removed, so "elder knight" should find ElderKnight
+	 */
+	private static Set<String> trigrams(String text) {
+		Set<String> trigrams = new HashSet<>();
+		StringBuilder all = new StringBuilder();
+		for (String word : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+			if (!word.isEmpty()) {
+				addTrigrams(trigrams, word);
+				all.append(word);
+			}
+		}
+		if (all.length() > 0) {
+			addTrigrams(trigrams, all.toString());
+		}
+		return trigrams;
+	}
+
+	private static void addTrigrams(Set<String> trigrams, String word) {
+		String padded = "  " + word + " ";
+		for (int i = 0; i + 3 <= padded.length(); i++) {
+			trigrams.add(padded.substring(i, i + 3));
+		}
+	}
+}
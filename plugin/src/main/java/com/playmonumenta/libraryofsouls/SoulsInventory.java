@@ -39,7 +39,8 @@ public class SoulsInventory extends CustomInventory {
 	}
 
 	private void loadWindow() {
-		mCurrentSlots = mSouls.subList(mOffset, Math.min(mSouls.size(), mOffset + 36));
+		SoulsPage<? extends Soul> page = SoulsPage.of(mSouls, mOffset, 36);
+		mCurrentSlots = page.getEntries();
 
 		for (int i = 0; i < 36; i++) {
 			if (i < mCurrentSlots.size()) {
@@ -49,7 +50,7 @@ public class SoulsInventory extends CustomInventory {
 			}
 		}
 
-		if (mOffset > 0) {
+		if (page.hasPrevious()) {
 			_inventory.setItem(45, UtilsMc.newSingleItemStack(Material.ARROW, "[" + Integer.toString(mOffset / 36) + "] Previous Page"));
 			mHasPrevPage = true;
 		} else {
@@ -57,7 +58,7 @@ public class SoulsInventory extends CustomInventory {
 			_inventory.setItem(45, null);
 		}
 
-		if (mCurrentSlots.size() >= 36) {
+		if (page.hasNext()) {
 			_inventory.setItem(53, UtilsMc.newSingleItemStack(Material.ARROW, "[" + Integer.toString(mOffset / 36) + "] Next Page"));
 			mHasNextPage = true;
 		} else {
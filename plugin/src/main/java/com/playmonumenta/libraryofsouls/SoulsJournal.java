@@ -0,0 +1,239 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+
+/*
+ * Append-only log of database edits, kept next to the database files.
+ *
+ * Each line is one JSON record: making a new version an entry's current one ("push") or
+ * removing one ("del").
+ * A push only holds the new current version, so an edit costs the same however much history
+ * the entry has. It is skipped over if the entry's current version already matches, so
+ * replaying a record that is already reflected in the database files is harmless - the journal
+ * only has to be cleared after the files have been rewritten, never atomically with them.
+ *
+ * Records are built where the edit happens, on the main thread, as entries keep changing.
+ */
+public class SoulsJournal {
+	public static final String TYPE_SOUL = "soul";
+	public static final String TYPE_SOUL_PARTY = "party";
+	public static final String TYPE_SOUL_POOL = "pool";
+
+	private static final String OP_PUSH = "push";
+	private static final String OP_DEL = "del";
+
+	private static final SoulPartyHistoryEntryTypeAdapter SOUL_PARTY_HISTORY_ADAPTER = new SoulPartyHistoryEntryTypeAdapter();
+	private static final SoulPoolHistoryEntryTypeAdapter SOUL_POOL_HISTORY_ADAPTER = new SoulPoolHistoryEntryTypeAdapter();
+
+	/* Builds an entry from its history, current version first */
+	@FunctionalInterface
+	private interface EntryFactory<H, T> {
+		T create(List<H> history) throws Exception;
+	}
+
+	private static final JsonParser PARSER = new JsonParser();
+
+	private final Path mPath;
+
+	public SoulsJournal(Path path) {
+		mPath = path;
+	}
+
+	/* The current version of soul, with its lore and locations */
+	public static JsonObject pushRecord(SoulEntry soul) {
+		JsonObject record = new JsonObject();
+		record.addProperty("op", OP_PUSH);
+		record.addProperty("type", TYPE_SOUL);
+		record.addProperty("lore", soul.getLore());
+		JsonArray locs = new JsonArray();
+		for (String location : soul.getLocationNames()) {
+			locs.add(location);
+		}
+		record.add("location_names", locs);
+		record.add("current", new SoulHistoryEntryTypeAdapter(soul.getLocationNames(), soul.getLore(), false).toJsonTree(soul.getHistoryEntries().get(0)));
+		return record;
+	}
+
+	public static JsonObject pushRecord(SoulPartyEntry soulParty) {
+		JsonObject record = new JsonObject();
+		record.addProperty("op", OP_PUSH);
+		record.addProperty("type", TYPE_SOUL_PARTY);
+		record.add("current", SOUL_PARTY_HISTORY_ADAPTER.toJsonTree(soulParty.getHistoryEntries().get(0)));
+		return record;
+	}
+
+	public static JsonObject pushRecord(SoulPoolEntry soulPool) {
+		JsonObject record = new JsonObject();
+		record.addProperty("op", OP_PUSH);
+		record.addProperty("type", TYPE_SOUL_POOL);
+		record.add("current", SOUL_POOL_HISTORY_ADAPTER.toJsonTree(soulPool.getHistoryEntries().get(0)));
+		return record;
+	}
+
+	public static JsonObject delRecord(String type, String label) {
+		JsonObject record = new JsonObject();
+		record.addProperty("op", OP_DEL);
+		record.addProperty("type", type);
+		record.addProperty("label", label);
+		return record;
+	}
+
+	/* Appends one record and forces it to disk before returning */
+	public void append(JsonObject record) throws IOException {
+		byte[] bytes = (record.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+		try (FileChannel channel = FileChannel.open(mPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+	}
+
+	public long size() throws IOException {
+		return Files.exists(mPath) ? Files.size(mPath) : 0;
+	}
+
+	/* Empties the journal - only once everything in it has been written to the database files */
+	public void clear() throws IOException {
+		if (Files.exists(mPath)) {
+			try (FileChannel channel = FileChannel.open(mPath, StandardOpenOption.WRITE)) {
+				channel.truncate(0);
+				channel.force(true);
+			}
+		}
+	}
+
+	/*
+	 * Applies the journal at the given path, in order, on top of freshly loaded database maps.
+	 *
+	 * A record that can't be parsed (such as a final line cut short by a crash) is skipped with
+	 * a warning. Without loadHistory, a push replaces an entry's only version rather than adding
+	 * to its history. Returns the number of records applied.
+	 */
+	public static int replay(Path path, Logger logger, Map<String, SoulEntry> souls, Map<String, SoulPartyEntry> soulParties, Map<String, SoulPoolEntry> soulPools,
+	                         boolean loadHistory, boolean lazy) throws IOException {
+		if (!Files.exists(path)) {
+			return 0;
+		}
+
+		int applied = 0;
+		int lineNum = 0;
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNum++;
+				if (line.isEmpty()) {
+					continue;
+				}
+
+				try {
+					JsonObject record = PARSER.parse(line).getAsJsonObject();
+					String op = record.get("op").getAsString();
+					String type = record.get("type").getAsString();
+					switch (type) {
+						case TYPE_SOUL:
+							if (op.equals(OP_PUSH)) {
+								pushSoul(record, souls, loadHistory, lazy);
+							} else {
+								apply(op, record, souls);
+							}
+							break;
+						case TYPE_SOUL_PARTY:
+							if (op.equals(OP_PUSH)) {
+								push(record, soulParties, loadHistory, SOUL_PARTY_HISTORY_ADAPTER, SoulPartyEntry::getHistoryEntries, SoulPartyEntry::new);
+							} else {
+								apply(op, record, soulParties);
+							}
+							break;
+						case TYPE_SOUL_POOL:
+							if (op.equals(OP_PUSH)) {
+								push(record, soulPools, loadHistory, SOUL_POOL_HISTORY_ADAPTER, SoulPoolEntry::getHistoryEntries, SoulPoolEntry::new);
+							} else {
+								apply(op, record, soulPools);
+							}
+							break;
+						default:
+							throw new Exception("Unknown record type '" + type + "'");
+					}
+					applied++;
+				} catch (Exception ex) {
+					logger.warning("Skipping unreadable souls journal record on line " + lineNum + ": " + ex.getMessage());
+				}
+			}
+		}
+		return applied;
+	}
+
+	private static <T extends SoulGroup> void apply(String op, JsonObject record, Map<String, T> entries) throws Exception {
+		switch (op) {
+			case OP_DEL:
+				entries.remove(record.get("label").getAsString());
+				break;
+			default:
+				throw new Exception("Unknown record op '" + op + "'");
+		}
+	}
+
+	private static void pushSoul(JsonObject record, Map<String, SoulEntry> souls, boolean loadHistory, boolean lazy) throws Exception {
+		Set<String> locs = new HashSet<>();
+		for (JsonElement location : record.getAsJsonArray("location_names")) {
+			locs.add(location.getAsString());
+		}
+		String lore = record.has("lore") && !record.get("lore").isJsonNull() ? record.get("lore").getAsString() : "";
+		JsonElement currentJson = record.get("current");
+
+		List<SoulHistoryEntry> history = new ArrayList<>();
+		SoulHistoryEntry current = new SoulHistoryEntryTypeAdapter(locs, lore, lazy).fromJsonTree(currentJson);
+		history.add(current);
+
+		SoulEntry existing = souls.get(current.getLabel());
+		SoulHistoryArchive.Range archived = null;
+		if (existing != null && loadHistory) {
+			List<SoulHistoryEntry> previous = existing.getHistoryEntries();
+			SoulHistoryEntryTypeAdapter previousAdapter = new SoulHistoryEntryTypeAdapter(existing.getLocationNames(), existing.getLore(), false);
+			/* Already replayed - this version is the existing current one */
+			boolean same = previousAdapter.toJsonTree(previous.get(0)).equals(currentJson);
+			history.addAll(previous.subList(same ? 1 : 0, previous.size()));
+			archived = existing.getArchivedHistory();
+		}
+		souls.put(current.getLabel(), new SoulEntry(history, archived, locs, lore));
+	}
+
+	private static <H extends SoulGroup, T extends SoulGroup> void push(JsonObject record, Map<String, T> entries, boolean loadHistory, TypeAdapter<H> historyAdapter,
+	                                                                   Function<T, List<H>> getHistory, EntryFactory<H, T> factory) throws Exception {
+		JsonElement currentJson = record.get("current");
+		H current = historyAdapter.fromJsonTree(currentJson);
+		List<H> history = new ArrayList<>();
+		history.add(current);
+
+		T existing = entries.get(current.getLabel());
+		if (existing != null && loadHistory) {
+			List<H> previous = getHistory.apply(existing);
+			/* Already replayed - this version is the existing current one */
+			boolean same = historyAdapter.toJsonTree(previous.get(0)).equals(currentJson);
+			history.addAll(previous.subList(same ? 1 : 0, previous.size()));
+		}
+		entries.put(current.getLabel(), factory.create(history));
+	}
+}
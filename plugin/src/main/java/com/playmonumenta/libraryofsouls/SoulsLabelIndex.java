@@ -0,0 +1,186 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.Collection;
+
+/*
+ * Case-insensitive lookup of souls, soul parties and soul pools by label, all in one table.
+ *
+ * Labels are normalized to lower case once, when the index is built. Lookups hash and compare
+ * the label they are given one character at a time, so they never allocate. Soul party and soul
+ * pool labels always start with their prefix and soul labels never do, so all three share one
+ * table and the caller checks the type of what it finds.
+ *
+ * The table is open-addressed with linear probing and kept at most half full.
+ * Immutable once built - with / without return a modified copy.
+ */
+public class SoulsLabelIndex {
+	private final String[] mKeys;
+	private final SoulGroup[] mValues;
+	private final int mMask;
+	private final int mSize;
+
+	public SoulsLabelIndex(Collection<SoulEntry> souls, Collection<SoulPartyEntry> soulParties, Collection<SoulPoolEntry> soulPools) {
+		int size = souls.size() + soulParties.size() + soulPools.size();
+		int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1) << 1;
+		mKeys = new String[capacity];
+		mValues = new SoulGroup[capacity];
+		mMask = capacity - 1;
+
+		int count = 0;
+		for (SoulEntry soul : souls) {
+			count += insert(mKeys, mValues, soul) ? 1 : 0;
+		}
+		for (SoulPartyEntry soulParty : soulParties) {
+			count += insert(mKeys, mValues, soulParty) ? 1 : 0;
+		}
+		for (SoulPoolEntry soulPool : soulPools) {
+			count += insert(mKeys, mValues, soulPool) ? 1 : 0;
+		}
+		mSize = count;
+	}
+
+	private SoulsLabelIndex(String[] keys, SoulGroup[] values, int size) {
+		mKeys = keys;
+		mValues = values;
+		mMask = keys.length - 1;
+		mSize = size;
+	}
+
+	/*
+	 * Returns a copy of this index with the entry added, or replacing the entry with the same label.
+	 * Only copies the table, and only rehashes everything when it has to grow.
+	 */
+	public SoulsLabelIndex with(SoulGroup group) {
+		boolean replacing = get(group.getLabel()) != null;
+		int capacity = mKeys.length;
+		if (!replacing && (mSize + 1) * 2 > capacity) {
+			capacity *= 2;
+		}
+
+		String[] keys;
+		SoulGroup[] values;
+		if (capacity == mKeys.length) {
+			keys = mKeys.clone();
+			values = mValues.clone();
+		} else {
+			keys = new String[capacity];
+			values = new SoulGroup[capacity];
+			for (SoulGroup value : mValues) {
+				if (value != null) {
+					insert(keys, values, value);
+				}
+			}
+		}
+		insert(keys, values, group);
+		return new SoulsLabelIndex(keys, values, replacing ? mSize : mSize + 1);
+	}
+
+	/* Returns a copy of this index without the entry with this label, or this index if there is none */
+	public SoulsLabelIndex without(String label) {
+		int slot = find(label);
+		if (slot < 0) {
+			return this;
+		}
+
+		String[] keys = mKeys.clone();
+		SoulGroup[] values = mValues.clone();
+		/* Move later entries of the same run back into the hole, so no lookup stops short at it */
+		int hole = slot;
+		for (int next = (hole + 1) & mMask; keys[next] != null; next = (next + 1) & mMask) {
+			int home = hash(keys[next]) & mMask;
+			boolean homeAfterHole = hole <= next ? (home > hole && home <= next) : (home > hole || home <= next);
+			if (!homeAfterHole) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+		}
+		keys[hole] = null;
+		values[hole] = null;
+		return new SoulsLabelIndex(keys, values, mSize - 1);
+	}
+
+	/* Number of entries */
+	public int size() {
+		return mSize;
+	}
+
+	/* Lower cases a label the same way lookups compare it */
+	public static String normalize(String label) {
+		char[] chars = new char[label.length()];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(label.charAt(i));
+		}
+		return new String(chars);
+	}
+
+	/* Returns the soul, soul party or soul pool with this label, ignoring case, or null */
+	public SoulGroup get(String label) {
+		if (label == null) {
+			return null;
+		}
+
+		int slot = find(label);
+		return slot < 0 ? null : mValues[slot];
+	}
+
+	public SoulEntry getSoul(String label) {
+		SoulGroup group = get(label);
+		return group instanceof SoulEntry ? (SoulEntry)group : null;
+	}
+
+	public SoulPartyEntry getSoulParty(String label) {
+		SoulGroup group = get(label);
+		return group instanceof SoulPartyEntry ? (SoulPartyEntry)group : null;
+	}
+
+	public SoulPoolEntry getSoulPool(String label) {
+		SoulGroup group = get(label);
+		return group instanceof SoulPoolEntry ? (SoulPoolEntry)group : null;
+	}
+
+	/* Slot holding this label, or -1 */
+	private int find(String label) {
+		for (int slot = hash(label) & mMask; mKeys[slot] != null; slot = (slot + 1) & mMask) {
+			if (matches(mKeys[slot], label)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/* Later entries replace earlier ones with the same label. Returns whether the label was new */
+	private static boolean insert(String[] keys, SoulGroup[] values, SoulGroup group) {
+		int mask = keys.length - 1;
+		String key = normalize(group.getLabel());
+		int slot = hash(key) & mask;
+		while (keys[slot] != null && !keys[slot].equals(key)) {
+			slot = (slot + 1) & mask;
+		}
+		boolean added = keys[slot] == null;
+		keys[slot] = key;
+		values[slot] = group;
+		return added;
+	}
+
+	private static int hash(String label) {
+		int hash = 0;
+		for (int i = 0; i < label.length(); i++) {
+			hash = 31 * hash + Character.toLowerCase(label.charAt(i));
+		}
+		/* Spread the high bits, as only the low ones pick the slot */
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean matches(String key, String label) {
+		if (key.length() != label.length()) {
+			return false;
+		}
+		for (int i = 0; i < key.length(); i++) {
+			if (key.charAt(i) != Character.toLowerCase(label.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,52 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * One page of an ordered list of entries, and where it sits in the whole list.
+ *
+ * The entries are a view of the original list, not a copy - only page immutable lists,
+ * such as those from SoulsSnapshot.
+ */
+public class SoulsPage<T> {
+	private final List<T> mEntries;
+	private final int mOffset;
+	private final int mTotal;
+
+	private SoulsPage(List<T> entries, int offset, int total) {
+		mEntries = entries;
+		mOffset = offset;
+		mTotal = total;
+	}
+
+	/* Offsets past the end give an empty page, negative offsets and limits are treated as 0 */
+	public static <T> SoulsPage<T> of(List<T> all, int offset, int limit) {
+		int total = all.size();
+		int start = Math.min(Math.max(0, offset), total);
+		int end = (int)Math.min((long)start + Math.max(0, limit), total);
+		return new SoulsPage<>(Collections.unmodifiableList(all.subList(start, end)), start, total);
+	}
+
+	public List<T> getEntries() {
+		return mEntries;
+	}
+
+	/* Index of the first entry of this page in the whole list */
+	public int getOffset() {
+		return mOffset;
+	}
+
+	/* Number of entries in the whole list */
+	public int getTotal() {
+		return mTotal;
+	}
+
+	public boolean hasPrevious() {
+		return mOffset > 0;
+	}
+
+	public boolean hasNext() {
+		return mOffset + mEntries.size() < mTotal;
+	}
+}
@@ -0,0 +1,293 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.Tag;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.IllegalPluginAccessException;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.util.BoundingBox;
+
+/*
+ * Summons soul groups at positions picked off the main thread, instead of at random points
+ * that are dropped when they land in a block.
+ *
+ * The group is rolled on the main thread, then the chunks around the spawn box are loaded
+ * asynchronously and snapshotted a few per tick, as taking a snapshot copies the chunk's blocks
+ * on the main thread. From the snapshots an async task finds every position in
+ * the box where each hitbox size rolled fits - one per block the box covers. The mobs and
+ * those positions then go to SoulsSummonQueue, which picks one for each mob and checks it
+ * against the live blocks before summoning there, since blocks may have changed in the
+ * meantime. Mobs that fit nowhere in the box are tried at a random position.
+ *
+ * Snapshots only give each block's material, so solid blocks count as full cubes and fences
+ * and walls as a block and a half. That can reject a position next to a slab or a stair that
+ * would have fit, but never accepts one the live check would reject because of a full block.
+ *
+ * Spawn boxes too large to snapshot are queued for random placement as before.
+ * Only call from the main thread.
+ */
+public class SoulsPlacementService {
+	private static SoulsPlacementService INSTANCE = null;
+
+	/* Same margins as BlockOccupancyGrid - room for hitboxes up to 4 blocks around the box */
+	private static final int MARGIN_XZ = 3;
+	private static final int MAX_CELLS = 1 << 18;
+	private static final int MAX_CHUNKS = 64;
+	private static final int SNAPSHOTS_PER_TICK = 4;
+
+	private static final byte EMPTY = 0;
+	private static final byte SOLID = 1;
+	/* Solid and reaching half a block into the block above */
+	private static final byte TALL = 2;
+
+	/* The snapshots around one spawn box, with the shape of each material worked out beforehand */
+	private static final class Area {
+		private final int mMinChunkX;
+		private final int mMinChunkZ;
+		private final int mChunksX;
+		private final int mChunksZ;
+		/* By chunk x + chunk z * mChunksX, relative to the minimum. Null where the chunk was unloaded before its turn */
+		private final ChunkSnapshot[] mSnapshots;
+		private final int mMaxHeight;
+		private final byte[] mShapes;
+
+		private Area(int minChunkX, int minChunkZ, int chunksX, int chunksZ, ChunkSnapshot[] snapshots, int maxHeight, byte[] shapes) {
+			mMinChunkX = minChunkX;
+			mMinChunkZ = minChunkZ;
+			mChunksX = chunksX;
+			mChunksZ = chunksZ;
+			mSnapshots = snapshots;
+			mMaxHeight = maxHeight;
+			mShapes = shapes;
+		}
+
+		private byte getShape(int x, int y, int z) {
+			if (y < 0 || y >= mMaxHeight) {
+				return EMPTY;
+			}
+			int chunkX = (x >> 4) - mMinChunkX;
+			int chunkZ = (z >> 4) - mMinChunkZ;
+			ChunkSnapshot snapshot = chunkX < 0 || chunkZ < 0 || chunkX >= mChunksX || chunkZ >= mChunksZ ? null : mSnapshots[chunkX + chunkZ * mChunksX];
+			if (snapshot == null) {
+				/* Not snapshotted - assume the worst */
+				return SOLID;
+			}
+			return mShapes[snapshot.getBlockType(x & 15, y, z & 15).ordinal()];
+		}
+
+		/* Same cells and overlap test as Utils.insideBlocks(), with each block's shape guessed from its material */
+		private boolean insideBlocks(double feetX, double feetY, double feetZ, double width, double height) {
+			double minX = feetX - width/2.0;
+			double minZ = feetZ - width/2.0;
+			double maxX = feetX + width/2.0;
+			double maxY = feetY + height;
+			double maxZ = feetZ + width/2.0;
+
+			for (int z = (int) Math.floor(minZ); z <= (int) Math.ceil(maxZ); z++) {
+				for (int x = (int) Math.floor(minX); x <= (int) Math.ceil(maxX); x++) {
+					if (x >= maxX || x + 1 <= minX || z >= maxZ || z + 1 <= minZ) {
+						continue;
+					}
+					/* Starts a block lower, where only a tall block can reach up into the hitbox */
+					for (int y = (int) Math.floor(feetY) - 1; y < (int) Math.ceil(maxY); y++) {
+						byte shape = getShape(x, y, z);
+						if (shape != EMPTY && y < maxY && y + (shape == TALL ? 1.5 : 1) > feetY) {
+							return true;
+						}
+					}
+				}
+			}
+			return false;
+		}
+	}
+
+	private final Plugin mPlugin;
+	/* By Material ordinal */
+	private final byte[] mShapes;
+	/* Summons not finished yet, so they can still be completed if the plugin is disabled first */
+	private final Set<CompletableFuture<List<Entity>>> mPending = ConcurrentHashMap.newKeySet();
+
+	public SoulsPlacementService(Plugin plugin) {
+		mPlugin = plugin;
+
+		mShapes = new byte[Material.values().length];
+		for (Material mat : Material.values()) {
+			if (mat.isLegacy() || !mat.isBlock() || !mat.isSolid()) {
+				continue;
+			}
+			if (Tag.FENCES.isTagged(mat) || Tag.WALLS.isTagged(mat) || Tag.FENCE_GATES.isTagged(mat)) {
+				mShapes[mat.ordinal()] = TALL;
+			} else {
+				mShapes[mat.ordinal()] = SOLID;
+			}
+		}
+
+		INSTANCE = this;
+	}
+
+	public static SoulsPlacementService getInstance() {
+		return INSTANCE;
+	}
+
+	/*
+	 * Rolls group once and queues summoning what was rolled in spawnBb, at positions picked
+	 * asynchronously. The future completes on the main thread once everything has been summoned.
+	 */
+	public CompletableFuture<List<Entity>> summon(SoulGroup group, Random random, World world, BoundingBox spawnBb) {
+		SoulsSummonQueue queue = SoulsSummonQueue.getInstance();
+		Soul[] souls = SoulsSummonQueue.roll(group, random);
+
+		int minChunkX = ((int) Math.floor(spawnBb.getMinX()) - MARGIN_XZ) >> 4;
+		int minChunkZ = ((int) Math.floor(spawnBb.getMinZ()) - MARGIN_XZ) >> 4;
+		int maxChunkX = ((int) Math.ceil(spawnBb.getMaxX()) + MARGIN_XZ) >> 4;
+		int maxChunkZ = ((int) Math.ceil(spawnBb.getMaxZ()) + MARGIN_XZ) >> 4;
+		int chunksX = maxChunkX - minChunkX + 1;
+		int chunksZ = maxChunkZ - minChunkZ + 1;
+		long cells = (long) cellCount(spawnBb.getMinX(), spawnBb.getMaxX())
+		             * cellCount(spawnBb.getMinY(), spawnBb.getMaxY())
+		             * cellCount(spawnBb.getMinZ(), spawnBb.getMaxZ());
+		if (souls.length == 0 || cells > MAX_CELLS || (long) chunksX * chunksZ > MAX_CHUNKS) {
+			return queue.summon(souls, null, random, world, spawnBb);
+		}
+
+		CompletableFuture<List<Entity>> result = new CompletableFuture<>();
+		mPending.add(result);
+		result.whenComplete((entities, ex) -> mPending.remove(result));
+		List<CompletableFuture<Chunk>> chunks = new ArrayList<>();
+		for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+			for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+				chunks.add(world.getChunkAtAsync(chunkX, chunkZ));
+			}
+		}
+
+		CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).whenComplete((unused, ex) -> runOnMainThread(result, () -> {
+			if (ex != null) {
+				mPlugin.getLogger().warning("Failed to load chunks to place '" + group.getLabel() + "': " + ex.getMessage());
+				queue.summon(souls, null, random, world, spawnBb).thenAccept(result::complete);
+				return;
+			}
+
+			ChunkSnapshot[] snapshots = new ChunkSnapshot[chunks.size()];
+			snapshot(chunks, snapshots, 0, () -> {
+				Area area = new Area(minChunkX, minChunkZ, chunksX, chunksZ, snapshots, world.getMaxHeight(), mShapes);
+				Bukkit.getScheduler().runTaskAsynchronously(mPlugin, () -> {
+					double[][] positions = place(area, souls, spawnBb);
+					runOnMainThread(result, () -> queue.summon(souls, positions, random, world, spawnBb).thenAccept(result::complete));
+				});
+			});
+		}));
+
+		return result;
+	}
+
+	/* Snapshots a few chunks from start on, then the rest on the following ticks, then runs done */
+	private void snapshot(List<CompletableFuture<Chunk>> chunks, ChunkSnapshot[] snapshots, int start, Runnable done) {
+		int end = Math.min(chunks.size(), start + SNAPSHOTS_PER_TICK);
+		for (int i = start; i < end; i++) {
+			Chunk chunk = chunks.get(i).join();
+			/* Snapshotting an unloaded chunk would load it again on the main thread */
+			snapshots[i] = chunk.isLoaded() ? chunk.getChunkSnapshot(false, false, false) : null;
+		}
+
+		if (end < chunks.size()) {
+			Bukkit.getScheduler().runTask(mPlugin, () -> snapshot(chunks, snapshots, end, done));
+		} else {
+			done.run();
+		}
+	}
+
+	/* The positions where each soul fits, shared between souls of the same size. Null where it fits nowhere */
+	private static double[][] place(Area area, Soul[] souls, BoundingBox spawnBb) {
+		Map<List<Double>, double[]> positionsBySize = new HashMap<>();
+		double[][] result = new double[souls.length][];
+		for (int i = 0; i < souls.length; i++) {
+			Double width = souls[i].getWidth();
+			Double height = souls[i].getHeight();
+			if (width == null || height == null) {
+				continue;
+			}
+
+			double[] positions = positionsBySize.computeIfAbsent(List.of(width, height), (size) -> findPositions(area, spawnBb, width, height));
+			if (positions.length > 0) {
+				result[i] = positions;
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Every position where a mob of this size fits, as x, y, z triples - one per block the box
+	 * covers, in the middle of the part of the block inside the box, at the bottom of it.
+	 */
+	private static double[] findPositions(Area area, BoundingBox spawnBb, double width, double height) {
+		int minX = (int) Math.floor(spawnBb.getMinX());
+		int minY = (int) Math.floor(spawnBb.getMinY());
+		int minZ = (int) Math.floor(spawnBb.getMinZ());
+		int sizeX = cellCount(spawnBb.getMinX(), spawnBb.getMaxX());
+		int sizeY = cellCount(spawnBb.getMinY(), spawnBb.getMaxY());
+		int sizeZ = cellCount(spawnBb.getMinZ(), spawnBb.getMaxZ());
+
+		double[] positions = new double[sizeX * sizeY * sizeZ * 3];
+		int count = 0;
+		for (int y = minY; y < minY + sizeY; y++) {
+			double feetY = Math.max(y, spawnBb.getMinY());
+			for (int z = minZ; z < minZ + sizeZ; z++) {
+				double feetZ = (Math.max(z, spawnBb.getMinZ()) + Math.min(z + 1, spawnBb.getMaxZ())) / 2;
+				for (int x = minX; x < minX + sizeX; x++) {
+					double feetX = (Math.max(x, spawnBb.getMinX()) + Math.min(x + 1, spawnBb.getMaxX())) / 2;
+					if (!area.insideBlocks(feetX, feetY, feetZ, width, height)) {
+						positions[count++] = feetX;
+						positions[count++] = feetY;
+						positions[count++] = feetZ;
+					}
+				}
+			}
+		}
+
+		double[] result = new double[count];
+		System.arraycopy(positions, 0, result, 0, count);
+		return result;
+	}
+
+	/* Blocks covered by [min, max] along one axis - at least one, even for a flat box */
+	private static int cellCount(double min, double max) {
+		return Math.max(1, (int) Math.ceil(max) - (int) Math.floor(min));
+	}
+
+	/* Completes every summon not finished yet with nothing summoned, as their tasks won't run once the plugin is disabled */
+	public void cancelAll() {
+		for (CompletableFuture<List<Entity>> result : new ArrayList<>(mPending)) {
+			result.complete(new ArrayList<>());
+		}
+	}
+
+	/* Runs the next step of the summon result is for, or completes it with nothing summoned if the plugin is disabled */
+	private void runOnMainThread(CompletableFuture<List<Entity>> result, Runnable runnable) {
+		if (Bukkit.isPrimaryThread()) {
+			runnable.run();
+			return;
+		}
+		try {
+			if (mPlugin.isEnabled()) {
+				Bukkit.getScheduler().runTask(mPlugin, runnable);
+				return;
+			}
+		} catch (IllegalPluginAccessException ex) {
+			/* Disabled since it was checked */
+		}
+		result.complete(new ArrayList<>());
+	}
+}
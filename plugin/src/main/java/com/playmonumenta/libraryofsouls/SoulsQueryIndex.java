@@ -0,0 +1,388 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import com.goncalomb.bukkit.mylib.reflect.NBTTagList;
+
+import net.kyori.adventure.text.serializer.plain.PlainComponentSerializer;
+
+/*
+ * Inverted indexes over the souls of one snapshot, for searches like:
+ *   type:zombie tag:Elite loc:white modifiedby:Alice name:*knight*
+ *
+ * Every term in a query must match. Terms without a field search the name, and values
+ * may use * as a wildcard. Values are matched ignoring case.
+ *
+ * Souls are numbered when they are added to the index, and each value of each field maps to
+ * the sorted numbers of the souls that have it (its postings). A query intersects the postings
+ * of its terms, smallest first, so the cost depends on how many souls match rather than on the
+ * size of the library.
+ *
+ * Building the index parses the NBT of every soul, so it should not be built on the main thread.
+ * Immutable once built - with / without return a modified copy, changing only the postings of
+ * the soul that changed. Numbers of removed souls are not reused until the index is rebuilt.
+ */
+public class SoulsQueryIndex {
+	public static final String FIELD_TYPE = "type";
+	public static final String FIELD_LOCATION = "loc";
+	public static final String FIELD_TAG = "tag";
+	public static final String FIELD_MODIFIED_BY = "modifiedby";
+	public static final String FIELD_NAME = "name";
+
+	private static final Pattern NAME_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	/* By number, null where a soul was removed */
+	private final SoulEntry[] mSouls;
+	/*
+	 * The field:value terms each soul is posted under, by number. Souls are changed in place
+	 * before the index is updated, so this is the only record of where to remove them from.
+	 */
+	private final String[][] mTerms;
+	/* Normalized label -> number */
+	private final Map<String, Integer> mNumbers;
+	/* Field -> value -> postings */
+	private final Map<String, Map<String, int[]>> mPostings;
+	private final Function<SoulEntry, String[]> mTermsOf;
+
+	public SoulsQueryIndex(List<SoulEntry> souls) {
+		this(souls, SoulsQueryIndex::terms);
+	}
+
+	/* Takes the terms of each soul from termsOf instead, for tests - which can't parse NBT without a server */
+	SoulsQueryIndex(List<SoulEntry> souls, Function<SoulEntry, String[]> termsOf) {
+		mTermsOf = termsOf;
+		mSouls = souls.toArray(new SoulEntry[0]);
+		mTerms = new String[mSouls.length][];
+		mNumbers = new HashMap<>();
+
+		Map<String, Map<String, List<Integer>>> postings = new HashMap<>();
+		for (int i = 0; i < mSouls.length; i++) {
+			mTerms[i] = termsOf.apply(mSouls[i]);
+			mNumbers.put(SoulsLabelIndex.normalize(mSouls[i].getLabel()), i);
+			for (String term : mTerms[i]) {
+				int colon = term.indexOf(':');
+				/* Souls are added in order and their terms are distinct, so each list stays sorted */
+				postings.computeIfAbsent(term.substring(0, colon), (key) -> new HashMap<>())
+					.computeIfAbsent(term.substring(colon + 1), (key) -> new ArrayList<>()).add(i);
+			}
+		}
+
+		mPostings = new HashMap<>();
+		for (Map.Entry<String, Map<String, List<Integer>>> field : postings.entrySet()) {
+			Map<String, int[]> values = new HashMap<>();
+			for (Map.Entry<String, List<Integer>> value : field.getValue().entrySet()) {
+				values.put(value.getKey(), value.getValue().stream().mapToInt(Integer::intValue).toArray());
+			}
+			mPostings.put(field.getKey(), values);
+		}
+	}
+
+	private SoulsQueryIndex(SoulsQueryIndex other, SoulEntry[] souls, String[][] terms, Map<String, Integer> numbers, Map<String, Map<String, int[]>> postings) {
+		mTermsOf = other.mTermsOf;
+		mSouls = souls;
+		mTerms = terms;
+		mNumbers = numbers;
+		mPostings = postings;
+	}
+
+	/* The distinct field:value terms of a soul, values lower cased */
+	private static String[] terms(SoulEntry soul) {
+		Set<String> terms = new LinkedHashSet<>();
+
+		terms.add(FIELD_TYPE + ":" + soul.getId().getKey().toLowerCase());
+
+		if (soul.getLocationNames() != null) {
+			for (String location : soul.getLocationNames()) {
+				terms.add(FIELD_LOCATION + ":" + location.toLowerCase());
+			}
+		}
+
+		NBTTagList tags = soul.getNBT().getList("Tags");
+		if (tags != null) {
+			for (Object tag : tags.getAsArray()) {
+				terms.add(FIELD_TAG + ":" + tag.toString().toLowerCase());
+			}
+		}
+
+		if (soul.getModifiedBy() != null) {
+			terms.add(FIELD_MODIFIED_BY + ":" + soul.getModifiedBy().toLowerCase());
+		}
+
+		terms.add(FIELD_NAME + ":" + soul.getLabel().toLowerCase());
+		for (String token : NAME_SEPARATOR.split(PlainComponentSerializer.plain().serialize(soul.getName()))) {
+			if (!token.isEmpty()) {
+				terms.add(FIELD_NAME + ":" + token.toLowerCase());
+			}
+		}
+
+		return terms.toArray(new String[0]);
+	}
+
+	/*--------------------------------------------------------------------------------
+	 * Building modified indexes
+	 *
+	 * These copy the number arrays and the value maps of the fields the soul is posted under,
+	 * plus the postings of its terms. Nothing else is copied, and no other soul is parsed.
+	 */
+
+	/* Returns a copy of this index with the soul added or replaced. Parses the soul's NBT */
+	public SoulsQueryIndex with(SoulEntry soul) {
+		String label = SoulsLabelIndex.normalize(soul.getLabel());
+		Integer existing = mNumbers.get(label);
+		int number = existing == null ? mSouls.length : existing;
+
+		Map<String, Map<String, int[]>> postings = new HashMap<>(mPostings);
+		Set<String> copiedFields = new HashSet<>();
+		if (existing != null) {
+			removePostings(postings, copiedFields, mTerms[number], number);
+		}
+		String[] terms = mTermsOf.apply(soul);
+		addPostings(postings, copiedFields, terms, number);
+
+		SoulEntry[] souls = Arrays.copyOf(mSouls, Math.max(mSouls.length, number + 1));
+		String[][] termsByNumber = Arrays.copyOf(mTerms, souls.length);
+		souls[number] = soul;
+		termsByNumber[number] = terms;
+
+		Map<String, Integer> numbers = mNumbers;
+		if (existing == null) {
+			numbers = new HashMap<>(mNumbers);
+			numbers.put(label, number);
+		}
+		return new SoulsQueryIndex(this, souls, termsByNumber, numbers, postings);
+	}
+
+	/* Returns a copy of this index without the soul with this label, or this index if there is none */
+	public SoulsQueryIndex without(String label) {
+		String key = SoulsLabelIndex.normalize(label);
+		Integer existing = mNumbers.get(key);
+		if (existing == null) {
+			return this;
+		}
+		int number = existing;
+
+		Map<String, Map<String, int[]>> postings = new HashMap<>(mPostings);
+		removePostings(postings, new HashSet<>(), mTerms[number], number);
+
+		SoulEntry[] souls = mSouls.clone();
+		String[][] termsByNumber = mTerms.clone();
+		souls[number] = null;
+		termsByNumber[number] = null;
+
+		Map<String, Integer> numbers = new HashMap<>(mNumbers);
+		numbers.remove(key);
+		return new SoulsQueryIndex(this, souls, termsByNumber, numbers, postings);
+	}
+
+	private static void removePostings(Map<String, Map<String, int[]>> postings, Set<String> copiedFields, String[] terms, int number) {
+		for (String term : terms) {
+			int colon = term.indexOf(':');
+			Map<String, int[]> values = copyField(postings, copiedFields, term.substring(0, colon));
+			String value = term.substring(colon + 1);
+			int[] souls = values.get(value);
+			int index = souls == null ? -1 : Arrays.binarySearch(souls, number);
+			if (index < 0) {
+				continue;
+			}
+			if (souls.length == 1) {
+				values.remove(value);
+			} else {
+				int[] result = new int[souls.length - 1];
+				System.arraycopy(souls, 0, result, 0, index);
+				System.arraycopy(souls, index + 1, result, index, souls.length - index - 1);
+				values.put(value, result);
+			}
+		}
+	}
+
+	private static void addPostings(Map<String, Map<String, int[]>> postings, Set<String> copiedFields, String[] terms, int number) {
+		for (String term : terms) {
+			int colon = term.indexOf(':');
+			Map<String, int[]> values = copyField(postings, copiedFields, term.substring(0, colon));
+			String value = term.substring(colon + 1);
+			int[] souls = values.getOrDefault(value, new int[0]);
+			int index = Arrays.binarySearch(souls, number);
+			if (index >= 0) {
+				continue;
+			}
+			index = -index - 1;
+			int[] result = new int[souls.length + 1];
+			System.arraycopy(souls, 0, result, 0, index);
+			result[index] = number;
+			System.arraycopy(souls, index, result, index + 1, souls.length - index);
+			values.put(value, result);
+		}
+	}
+
+	/* The field's values, copied the first time this update touches them so the original index is left as it was */
+	private static Map<String, int[]> copyField(Map<String, Map<String, int[]>> postings, Set<String> copiedFields, String field) {
+		Map<String, int[]> values = postings.get(field);
+		if (copiedFields.add(field)) {
+			values = values == null ? new HashMap<>() : new HashMap<>(values);
+			postings.put(field, values);
+		}
+		return values;
+	}
+
+	/*
+	 * Whether both indexes post the same souls under the same values, for SoulsSnapshot.checkIndexes().
+	 * The numbers themselves may differ, as an updated index numbers new souls after the others.
+	 */
+	public boolean samePostings(SoulsQueryIndex other) {
+		Set<String> fields = new HashSet<>(mPostings.keySet());
+		fields.addAll(other.mPostings.keySet());
+		for (String field : fields) {
+			Map<String, int[]> values = mPostings.getOrDefault(field, Collections.emptyMap());
+			Map<String, int[]> otherValues = other.mPostings.getOrDefault(field, Collections.emptyMap());
+			if (!values.keySet().equals(otherValues.keySet())) {
+				return false;
+			}
+			for (Map.Entry<String, int[]> entry : values.entrySet()) {
+				if (!entries(entry.getValue()).equals(other.entries(otherValues.get(entry.getKey())))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private Set<SoulEntry> entries(int[] postings) {
+		Set<SoulEntry> result = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (int soul : postings) {
+			result.add(mSouls[soul]);
+		}
+		return result;
+	}
+
+	/* Returns the matching souls, sorted by label. Throws an exception describing any problem with the query */
+	public List<SoulEntry> query(String query) throws Exception {
+		List<int[]> terms = new ArrayList<>();
+		for (String term : query.trim().split("\\s+")) {
+			if (!term.isEmpty()) {
+				terms.add(postings(term));
+			}
+		}
+		if (terms.isEmpty()) {
+			throw new Exception("Search query is empty");
+		}
+
+		/* Intersecting the smallest first keeps every intermediate result as small as possible */
+		terms.sort(Comparator.comparingInt((int[] postings) -> postings.length));
+		int[] result = terms.get(0);
+		for (int i = 1; i < terms.size() && result.length > 0; i++) {
+			result = intersect(result, terms.get(i));
+		}
+
+		List<SoulEntry> souls = new ArrayList<>(result.length);
+		for (int soul : result) {
+			souls.add(mSouls[soul]);
+		}
+		/* Numbers follow label order except for souls added since the index was built, so this is mostly sorted already */
+		souls.sort(Comparator.comparing((SoulEntry soul) -> SoulsLabelIndex.normalize(soul.getLabel())));
+		return souls;
+	}
+
+	private int[] postings(String term) throws Exception {
+		String field = FIELD_NAME;
+		String value = term;
+		int colon = term.indexOf(':');
+		if (colon >= 0) {
+			field = normalizeField(term.substring(0, colon).toLowerCase());
+			value = term.substring(colon + 1);
+		}
+		if (value.isEmpty()) {
+			throw new Exception("No value given for '" + term + "'");
+		}
+		value = value.toLowerCase();
+
+		Map<String, int[]> values = mPostings.get(field);
+		if (values == null) {
+			return new int[0];
+		}
+
+		if (!value.contains("*")) {
+			int[] postings = values.get(value);
+			return postings == null ? new int[0] : postings;
+		}
+
+		/* Wildcard - the union of every matching value */
+		Pattern pattern = wildcard(value);
+		BitSet matches = new BitSet(mSouls.length);
+		for (Map.Entry<String, int[]> entry : values.entrySet()) {
+			if (pattern.matcher(entry.getKey()).matches()) {
+				for (int soul : entry.getValue()) {
+					matches.set(soul);
+				}
+			}
+		}
+		return matches.stream().toArray();
+	}
+
+	private static String normalizeField(String field) throws Exception {
+		switch (field) {
+			case FIELD_TYPE:
+			case "id":
+				return FIELD_TYPE;
+			case FIELD_LOCATION:
+			case "location":
+				return FIELD_LOCATION;
+			case FIELD_TAG:
+				return FIELD_TAG;
+			case FIELD_MODIFIED_BY:
+			case "author":
+				return FIELD_MODIFIED_BY;
+			case FIELD_NAME:
+			case "label":
+				return FIELD_NAME;
+			default:
+				throw new Exception("Unknown search field '" + field + "', expected one of type, loc, tag, modifiedby or name");
+		}
+	}
+
+	private static Pattern wildcard(String value) {
+		StringBuilder regex = new StringBuilder();
+		String[] parts = value.split("\\*", -1);
+		for (int i = 0; i < parts.length; i++) {
+			if (i > 0) {
+				regex.append(".*");
+			}
+			if (!parts[i].isEmpty()) {
+				regex.append(Pattern.quote(parts[i]));
+			}
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	/* Both sorted. Binary searches the larger for each of the smaller, so a tiny list against a huge one stays cheap */
+	private static int[] intersect(int[] smaller, int[] larger) {
+		int[] result = new int[smaller.length];
+		int count = 0;
+		int from = 0;
+		for (int soul : smaller) {
+			int index = Arrays.binarySearch(larger, from, larger.length, soul);
+			if (index >= 0) {
+				result[count++] = soul;
+				from = index + 1;
+			} else {
+				from = -index - 1;
+			}
+			if (from >= larger.length) {
+				break;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+}
@@ -0,0 +1,704 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.playmonumenta.libraryofsouls.bestiary.BestiaryArea;
+
+/*
+ * One consistent, immutable view of the database - every entry, the indexes built from
+ * them and the bestiary built from those.
+ *
+ * Snapshots are never modified once built (other than building the search indexes on first use), so they
+ * can be built on any thread and read from any thread once published. Changes are made by building a new snapshot (see the
+ * with / without functions) and publishing that instead - all but those search indexes are final fields, so a snapshot is
+ * safely visible to other threads however it is handed over.
+ *
+ * The entries themselves are still mutable objects, shared between snapshots.
+ */
+public class SoulsSnapshot {
+	private static final AtomicLong NEXT_GENERATION = new AtomicLong();
+
+	/* Different for every snapshot, so holders of resolved entries can tell when to resolve them again */
+	private final long mGeneration = NEXT_GENERATION.incrementAndGet();
+
+	/* Each sorted by label, ignoring case */
+	private final SoulEntry[] mSouls;
+	private final SoulPartyEntry[] mSoulParties;
+	private final SoulPoolEntry[] mSoulPools;
+	private final List<SoulEntry> mSoulsList;
+	private final List<SoulPartyEntry> mSoulPartiesList;
+	private final List<SoulPoolEntry> mSoulPoolsList;
+
+	/*
+	 * The locations and type each soul is indexed under, in the same order as mSouls. Souls are
+	 * changed in place before the new snapshot is built, so this is the only record of where
+	 * to remove their old entries from.
+	 */
+	private final String[][] mSoulLocations;
+	private final String[] mSoulTypes;
+
+	/* Lookup by label for all three of the above */
+	private final SoulsLabelIndex mLabels;
+
+	/* What each soul party / pool contains and what contains each label */
+	private final SoulsDependencyGraph mDependencies;
+	/* What each soul party / pool expands to, filled in as they are asked for */
+	private final SoulsExpansionCache mExpansions;
+
+	/*
+	 * This is an index based on locations.
+	 * A SoulEntry may appear here many times, or not at all
+	 */
+	private final Map<String, List<SoulEntry>> mLocsIndex;
+	private final List<SoulEntry> mNoLocMobs;
+	/*
+	 * This is an index based on mob ID (zombie, skeleton, etc.)
+	 * A SoulEntry may appear here many times
+	 */
+	private final Map<String, List<SoulEntry>> mTypesIndex;
+
+	/* For tab completion */
+	private final LabelSuggestions mSoulSuggestions;
+	private final LabelSuggestions mSoulPartySuggestions;
+	private final LabelSuggestions mSoulPoolSuggestions;
+	private final LabelSuggestions mLocationSuggestions;
+	private final LabelSuggestions mTypeSuggestions;
+
+	/*
+	 * Built on first use, as building them needs every soul's NBT or name - the only fields set after
+	 * the snapshot is built. Once built, edits update them.
+	 */
+	private volatile SoulsQueryIndex mQueryIndex = null;
+	private volatile SoulsFuzzyIndex mFuzzyIndex = null;
+
+	/* May be null if there is no bestiary configured */
+	private final BestiaryArea mBestiary;
+
+	/* The location and type indexes of a snapshot being built, starting from those of an existing one */
+	private static final class Postings {
+		private Map<String, List<SoulEntry>> mLocsIndex;
+		private List<SoulEntry> mNoLocMobs;
+		private Map<String, List<SoulEntry>> mTypesIndex;
+
+		private Postings(SoulsSnapshot snapshot) {
+			mLocsIndex = snapshot.mLocsIndex;
+			mNoLocMobs = snapshot.mNoLocMobs;
+			mTypesIndex = snapshot.mTypesIndex;
+		}
+
+		/* Removes the soul with this normalized label from the lists it was indexed in */
+		private void remove(String label, String[] locations, String type) {
+			if (locations.length == 0) {
+				mNoLocMobs = withoutPosting(mNoLocMobs, label);
+			} else {
+				mLocsIndex = withoutPostings(mLocsIndex, locations, label);
+			}
+			mTypesIndex = withoutPostings(mTypesIndex, new String[] {type}, label);
+		}
+
+		private void add(SoulEntry soul, String[] locations, String type) {
+			if (locations.length == 0) {
+				mNoLocMobs = withPosting(mNoLocMobs, soul);
+			} else {
+				mLocsIndex = withPostings(mLocsIndex, locations, soul);
+			}
+			mTypesIndex = withPostings(mTypesIndex, new String[] {type}, soul);
+		}
+	}
+
+	/* The maps must be ordered by label, ignoring case */
+	public SoulsSnapshot(SortedMap<String, SoulEntry> souls, SortedMap<String, SoulPartyEntry> soulParties, SortedMap<String, SoulPoolEntry> soulPools) {
+		this(souls.values().toArray(new SoulEntry[0]), soulParties.values().toArray(new SoulPartyEntry[0]),
+		     soulPools.values().toArray(new SoulPoolEntry[0]), null);
+	}
+
+	/* Builds every index from scratch */
+	private SoulsSnapshot(SoulEntry[] souls, SoulPartyEntry[] soulParties, SoulPoolEntry[] soulPools, BestiaryArea bestiary) {
+		mSouls = souls;
+		mSoulParties = soulParties;
+		mSoulPools = soulPools;
+		mSoulsList = Collections.unmodifiableList(Arrays.asList(souls));
+		mSoulPartiesList = Collections.unmodifiableList(Arrays.asList(soulParties));
+		mSoulPoolsList = Collections.unmodifiableList(Arrays.asList(soulPools));
+		mLabels = new SoulsLabelIndex(mSoulsList, mSoulPartiesList, mSoulPoolsList);
+		mDependencies = new SoulsDependencyGraph(mSoulPartiesList, mSoulPoolsList);
+		mExpansions = new SoulsExpansionCache();
+
+		String[][] soulLocations = new String[souls.length][];
+		String[] soulTypes = new String[souls.length];
+		Map<String, List<SoulEntry>> locsIndex = new HashMap<>();
+		List<SoulEntry> noLocMobs = new ArrayList<>();
+		Map<String, List<SoulEntry>> typesIndex = new HashMap<>();
+		for (int i = 0; i < souls.length; i++) {
+			SoulEntry soul = souls[i];
+			soulLocations[i] = indexedLocations(soul);
+			soulTypes[i] = indexedType(soul);
+
+			/* Update location index */
+			if (soulLocations[i].length == 0) {
+				noLocMobs.add(soul);
+			} else {
+				for (String tag : soulLocations[i]) {
+					locsIndex.computeIfAbsent(tag, (key) -> new ArrayList<>()).add(soul);
+				}
+			}
+
+			/* Update type index */
+			typesIndex.computeIfAbsent(soulTypes[i], (key) -> new ArrayList<>()).add(soul);
+		}
+		mSoulLocations = soulLocations;
+		mSoulTypes = soulTypes;
+		mLocsIndex = unmodifiableIndex(locsIndex);
+		mNoLocMobs = Collections.unmodifiableList(noLocMobs);
+		mTypesIndex = unmodifiableIndex(typesIndex);
+
+		mSoulSuggestions = new LabelSuggestions(labels(souls));
+		mSoulPartySuggestions = new LabelSuggestions(labels(soulParties));
+		mSoulPoolSuggestions = new LabelSuggestions(labels(soulPools));
+		mLocationSuggestions = new LabelSuggestions(mLocsIndex.keySet());
+		mTypeSuggestions = new LabelSuggestions(mTypesIndex.keySet());
+		mBestiary = bestiary;
+	}
+
+	/* Takes everything as it is, for the with / without functions */
+	private SoulsSnapshot(SoulEntry[] souls, String[][] soulLocations, String[] soulTypes, SoulPartyEntry[] soulParties, SoulPoolEntry[] soulPools,
+	                      SoulsLabelIndex labels, SoulsDependencyGraph dependencies, SoulsExpansionCache expansions, Postings postings,
+	                      LabelSuggestions soulSuggestions, LabelSuggestions soulPartySuggestions, LabelSuggestions soulPoolSuggestions,
+	                      LabelSuggestions locationSuggestions, LabelSuggestions typeSuggestions,
+	                      SoulsQueryIndex queryIndex, SoulsFuzzyIndex fuzzyIndex, BestiaryArea bestiary) {
+		mSouls = souls;
+		mSoulParties = soulParties;
+		mSoulPools = soulPools;
+		mSoulsList = Collections.unmodifiableList(Arrays.asList(souls));
+		mSoulPartiesList = Collections.unmodifiableList(Arrays.asList(soulParties));
+		mSoulPoolsList = Collections.unmodifiableList(Arrays.asList(soulPools));
+		mSoulLocations = soulLocations;
+		mSoulTypes = soulTypes;
+		mLabels = labels;
+		mDependencies = dependencies;
+		mExpansions = expansions;
+		mLocsIndex = postings.mLocsIndex;
+		mNoLocMobs = postings.mNoLocMobs;
+		mTypesIndex = postings.mTypesIndex;
+		mSoulSuggestions = soulSuggestions;
+		mSoulPartySuggestions = soulPartySuggestions;
+		mSoulPoolSuggestions = soulPoolSuggestions;
+		mLocationSuggestions = locationSuggestions;
+		mTypeSuggestions = typeSuggestions;
+		mQueryIndex = queryIndex;
+		mFuzzyIndex = fuzzyIndex;
+		mBestiary = bestiary;
+	}
+
+	/* As above, keeping the souls and everything indexing them */
+	private SoulsSnapshot(SoulsSnapshot other, SoulPartyEntry[] soulParties, SoulPoolEntry[] soulPools, SoulsLabelIndex labels, SoulsDependencyGraph dependencies,
+	                      SoulsExpansionCache expansions, LabelSuggestions soulPartySuggestions, LabelSuggestions soulPoolSuggestions, BestiaryArea bestiary) {
+		this(other.mSouls, other.mSoulLocations, other.mSoulTypes, soulParties, soulPools, labels, dependencies, expansions, new Postings(other),
+		     other.mSoulSuggestions, soulPartySuggestions, soulPoolSuggestions, other.mLocationSuggestions, other.mTypeSuggestions,
+		     other.mQueryIndex, other.mFuzzyIndex, bestiary);
+	}
+
+	/* Sorted, so the checker can compare them */
+	private static String[] indexedLocations(SoulEntry soul) {
+		Set<String> locs = soul.getLocationNames();
+		if (locs == null || locs.isEmpty()) {
+			return new String[0];
+		}
+		String[] result = locs.toArray(new String[0]);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private static String indexedType(SoulEntry soul) {
+		return soul.getId().getKey().toLowerCase();
+	}
+
+	private static List<String> labels(SoulGroup[] entries) {
+		List<String> labels = new ArrayList<>(entries.length);
+		for (SoulGroup entry : entries) {
+			labels.add(entry.getLabel());
+		}
+		return labels;
+	}
+
+	private static Map<String, List<SoulEntry>> unmodifiableIndex(Map<String, List<SoulEntry>> index) {
+		for (Map.Entry<String, List<SoulEntry>> entry : index.entrySet()) {
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		return Collections.unmodifiableMap(index);
+	}
+
+	/*--------------------------------------------------------------------------------
+	 * Building modified snapshots
+	 *
+	 * These only update the entries of the index that changed, so an edit costs copying a few
+	 * arrays rather than rebuilding every index. checkIndexes() verifies the result.
+	 */
+
+	/* Returns a copy of this snapshot with the given bestiary */
+	public SoulsSnapshot withBestiary(BestiaryArea bestiary) {
+		return new SoulsSnapshot(this, mSoulParties, mSoulPools, mLabels, mDependencies, mExpansions, mSoulPartySuggestions, mSoulPoolSuggestions, bestiary);
+	}
+
+	/*
+	 * Returns a copy of this snapshot with the given soul added or replaced, also used after a
+	 * soul was changed in place so the indexes are updated. The bestiary is kept as it is.
+	 *
+	 * The soul party / pool functions are used the same way.
+	 */
+	public SoulsSnapshot withSoul(SoulEntry soul) {
+		String label = SoulsLabelIndex.normalize(soul.getLabel());
+		String[] locations = indexedLocations(soul);
+		String type = indexedType(soul);
+		Postings postings = new Postings(this);
+		SoulEntry[] souls;
+		String[][] soulLocations;
+		String[] soulTypes;
+
+		int index = find(mSoulsList, label);
+		if (index >= 0) {
+			postings.remove(label, mSoulLocations[index], mSoulTypes[index]);
+			souls = mSouls.clone();
+			soulLocations = mSoulLocations.clone();
+			soulTypes = mSoulTypes.clone();
+		} else {
+			index = -index - 1;
+			souls = insert(mSouls, index);
+			soulLocations = insert(mSoulLocations, index);
+			soulTypes = insert(mSoulTypes, index);
+		}
+		souls[index] = soul;
+		soulLocations[index] = locations;
+		soulTypes[index] = type;
+		postings.add(soul, locations, type);
+
+		return new SoulsSnapshot(souls, soulLocations, soulTypes, mSoulParties, mSoulPools, mLabels.with(soul), mDependencies,
+		                         expansionsWithout(mDependencies, soul.getLabel()), postings,
+		                         mSoulSuggestions.with(soul.getLabel()), mSoulPartySuggestions, mSoulPoolSuggestions,
+		                         locationSuggestions(postings), typeSuggestions(postings),
+		                         queryIndexWith(soul, label), fuzzyIndexWith(soul, label), mBestiary);
+	}
+
+	public SoulsSnapshot withoutSoul(String label) {
+		String key = SoulsLabelIndex.normalize(label);
+		int index = find(mSoulsList, key);
+		if (index < 0) {
+			return this;
+		}
+
+		Postings postings = new Postings(this);
+		postings.remove(key, mSoulLocations[index], mSoulTypes[index]);
+		return new SoulsSnapshot(remove(mSouls, index), remove(mSoulLocations, index), remove(mSoulTypes, index), mSoulParties, mSoulPools,
+		                         mLabels.without(label), mDependencies, expansionsWithout(mDependencies, label), postings,
+		                         mSoulSuggestions.without(label), mSoulPartySuggestions, mSoulPoolSuggestions,
+		                         locationSuggestions(postings), typeSuggestions(postings),
+		                         queryIndexWith(null, label), fuzzyIndexWith(null, label), mBestiary);
+	}
+
+	public SoulsSnapshot withSoulParty(SoulPartyEntry soulParty) {
+		SoulsDependencyGraph dependencies = mDependencies.with(soulParty, soulParty.getEntryCounts().keySet());
+		return new SoulsSnapshot(this, withEntry(mSoulParties, soulParty), mSoulPools, mLabels.with(soulParty), dependencies,
+		                         expansionsWithout(dependencies, soulParty.getLabel()), mSoulPartySuggestions.with(soulParty.getLabel()),
+		                         mSoulPoolSuggestions, mBestiary);
+	}
+
+	public SoulsSnapshot withoutSoulParty(String label) {
+		SoulsDependencyGraph dependencies = mDependencies.without(label);
+		return new SoulsSnapshot(this, withoutEntry(mSoulParties, label), mSoulPools, mLabels.without(label), dependencies,
+		                         expansionsWithout(dependencies, label), mSoulPartySuggestions.without(label), mSoulPoolSuggestions, mBestiary);
+	}
+
+	public SoulsSnapshot withSoulPool(SoulPoolEntry soulPool) {
+		SoulsDependencyGraph dependencies = mDependencies.with(soulPool, soulPool.getEntryWeights().keySet());
+		return new SoulsSnapshot(this, mSoulParties, withEntry(mSoulPools, soulPool), mLabels.with(soulPool), dependencies,
+		                         expansionsWithout(dependencies, soulPool.getLabel()), mSoulPartySuggestions,
+		                         mSoulPoolSuggestions.with(soulPool.getLabel()), mBestiary);
+	}
+
+	public SoulsSnapshot withoutSoulPool(String label) {
+		SoulsDependencyGraph dependencies = mDependencies.without(label);
+		return new SoulsSnapshot(this, mSoulParties, withoutEntry(mSoulPools, label), mLabels.without(label), dependencies,
+		                         expansionsWithout(dependencies, label), mSoulPartySuggestions, mSoulPoolSuggestions.without(label), mBestiary);
+	}
+
+	/* The search indexes updated for the soul with this label, if they were built. soul is null if it was removed */
+	private SoulsQueryIndex queryIndexWith(SoulEntry soul, String label) {
+		SoulsQueryIndex queryIndex = mQueryIndex;
+		if (queryIndex == null) {
+			return null;
+		}
+		return soul == null ? queryIndex.without(label) : queryIndex.with(soul);
+	}
+
+	private SoulsFuzzyIndex fuzzyIndexWith(SoulEntry soul, String label) {
+		SoulsFuzzyIndex fuzzyIndex = mFuzzyIndex;
+		if (fuzzyIndex == null) {
+			return null;
+		}
+		return soul == null ? fuzzyIndex.without(label) : fuzzyIndex.with(soul);
+	}
+
+	/*
+	 * Keeps this snapshot's expansions, except those of label and of everything containing it -
+	 * before or after the change, as given by the new snapshot's dependencies.
+	 */
+	private SoulsExpansionCache expansionsWithout(SoulsDependencyGraph dependencies, String label) {
+		Set<String> stale = new HashSet<>(mDependencies.getContainingLabels(label));
+		stale.addAll(dependencies.getContainingLabels(label));
+		stale.add(SoulsLabelIndex.normalize(label));
+		return mExpansions.without(stale);
+	}
+
+	/* Location and type suggestions only change when a location or type appears or disappears */
+	private LabelSuggestions locationSuggestions(Postings postings) {
+		if (postings.mLocsIndex.keySet().equals(mLocsIndex.keySet())) {
+			return mLocationSuggestions;
+		}
+		return new LabelSuggestions(postings.mLocsIndex.keySet());
+	}
+
+	private LabelSuggestions typeSuggestions(Postings postings) {
+		if (postings.mTypesIndex.keySet().equals(mTypesIndex.keySet())) {
+			return mTypeSuggestions;
+		}
+		return new LabelSuggestions(postings.mTypesIndex.keySet());
+	}
+
+	/* Copies of the index and of the lists of keys only, with the soul removed. Keys left without souls are removed */
+	private static Map<String, List<SoulEntry>> withoutPostings(Map<String, List<SoulEntry>> index, String[] keys, String label) {
+		Map<String, List<SoulEntry>> result = new HashMap<>(index);
+		for (String key : keys) {
+			List<SoulEntry> souls = result.get(key);
+			if (souls != null) {
+				souls = withoutPosting(souls, label);
+				if (souls.isEmpty()) {
+					result.remove(key);
+				} else {
+					result.put(key, souls);
+				}
+			}
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	private static Map<String, List<SoulEntry>> withPostings(Map<String, List<SoulEntry>> index, String[] keys, SoulEntry soul) {
+		Map<String, List<SoulEntry>> result = new HashMap<>(index);
+		for (String key : keys) {
+			result.put(key, withPosting(result.getOrDefault(key, Collections.emptyList()), soul));
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	/* Lists in an index are sorted by label like mSouls, so these are a binary search and a copy */
+	private static List<SoulEntry> withoutPosting(List<SoulEntry> souls, String label) {
+		int index = find(souls, label);
+		if (index < 0) {
+			return souls;
+		}
+		List<SoulEntry> result = new ArrayList<>(souls);
+		result.remove(index);
+		return Collections.unmodifiableList(result);
+	}
+
+	private static List<SoulEntry> withPosting(List<SoulEntry> souls, SoulEntry soul) {
+		List<SoulEntry> result = new ArrayList<>(souls.size() + 1);
+		result.addAll(souls);
+		int index = find(souls, SoulsLabelIndex.normalize(soul.getLabel()));
+		if (index >= 0) {
+			result.set(index, soul);
+		} else {
+			result.add(-index - 1, soul);
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/* Returns a copy of the sorted array with the entry added, or replacing the entry with the same label */
+	private static <T extends SoulGroup> T[] withEntry(T[] entries, T entry) {
+		int index = find(Arrays.asList(entries), SoulsLabelIndex.normalize(entry.getLabel()));
+		if (index >= 0) {
+			T[] result = entries.clone();
+			result[index] = entry;
+			return result;
+		}
+
+		index = -index - 1;
+		T[] result = insert(entries, index);
+		result[index] = entry;
+		return result;
+	}
+
+	private static <T extends SoulGroup> T[] withoutEntry(T[] entries, String label) {
+		int index = find(Arrays.asList(entries), SoulsLabelIndex.normalize(label));
+		if (index < 0) {
+			return entries;
+		}
+		return remove(entries, index);
+	}
+
+	/* Copy of the array with an empty slot at index */
+	private static <T> T[] insert(T[] entries, int index) {
+		T[] result = Arrays.copyOf(entries, entries.length + 1);
+		System.arraycopy(entries, index, result, index + 1, entries.length - index);
+		result[index] = null;
+		return result;
+	}
+
+	private static <T> T[] remove(T[] entries, int index) {
+		T[] result = Arrays.copyOf(entries, entries.length - 1);
+		System.arraycopy(entries, index + 1, result, index, entries.length - index - 1);
+		return result;
+	}
+
+	/* Binary search by normalized label, with the same return value as Arrays.binarySearch() */
+	private static int find(List<? extends SoulGroup> entries, String key) {
+		int low = 0;
+		int high = entries.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = SoulsLabelIndex.normalize(entries.get(mid).getLabel()).compareTo(key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/*--------------------------------------------------------------------------------
+	 * Consistency checking
+	 */
+
+	/*
+	 * Compares every index against one built from scratch from the same entries, as they are now.
+	 * Returns a description of each difference, so an empty list means the indexes are consistent.
+	 *
+	 * This costs as much as a full rebuild - it is for tests and for the verify_indexes debug option.
+	 */
+	public List<String> checkIndexes() {
+		List<String> problems = new ArrayList<>();
+		SoulsSnapshot rebuilt = new SoulsSnapshot(mSouls, mSoulParties, mSoulPools, mBestiary);
+
+		checkOrder(problems, "Souls", mSoulsList);
+		checkOrder(problems, "Soul parties", mSoulPartiesList);
+		checkOrder(problems, "Soul pools", mSoulPoolsList);
+
+		for (int i = 0; i < mSouls.length; i++) {
+			if (!Arrays.equals(mSoulLocations[i], rebuilt.mSoulLocations[i]) || !mSoulTypes[i].equals(rebuilt.mSoulTypes[i])) {
+				problems.add("Soul '" + mSouls[i].getLabel() + "' is indexed under " + Arrays.toString(mSoulLocations[i]) + " / " + mSoulTypes[i]
+				             + " but should be under " + Arrays.toString(rebuilt.mSoulLocations[i]) + " / " + rebuilt.mSoulTypes[i]);
+			}
+		}
+
+		checkIndex(problems, "Location", mLocsIndex, rebuilt.mLocsIndex);
+		checkIndex(problems, "Type", mTypesIndex, rebuilt.mTypesIndex);
+		if (!mNoLocMobs.equals(rebuilt.mNoLocMobs)) {
+			problems.add("Souls without a location differ: " + labels(mNoLocMobs.toArray(new SoulGroup[0])) + " != " + labels(rebuilt.mNoLocMobs.toArray(new SoulGroup[0])));
+		}
+
+		if (mLabels.size() != rebuilt.mLabels.size()) {
+			problems.add("Label index has " + mLabels.size() + " entries, expected " + rebuilt.mLabels.size());
+		}
+		for (SoulGroup[] entries : new SoulGroup[][] {mSouls, mSoulParties, mSoulPools}) {
+			for (SoulGroup entry : entries) {
+				if (mLabels.get(entry.getLabel()) != entry) {
+					problems.add("Label index does not find '" + entry.getLabel() + "'");
+				}
+			}
+		}
+
+		SoulsQueryIndex queryIndex = mQueryIndex;
+		if (queryIndex != null && !queryIndex.samePostings(new SoulsQueryIndex(mSoulsList))) {
+			problems.add("Query index differs from the souls");
+		}
+		SoulsFuzzyIndex fuzzyIndex = mFuzzyIndex;
+		if (fuzzyIndex != null && !fuzzyIndex.samePostings(new SoulsFuzzyIndex(mSoulsList))) {
+			problems.add("Fuzzy index differs from the souls");
+		}
+
+		if (!mDependencies.sameEdges(rebuilt.mDependencies)) {
+			problems.add("Dependency graph differs from the soul parties and soul pools");
+		}
+
+		checkSuggestions(problems, "Soul", mSoulSuggestions, rebuilt.mSoulSuggestions);
+		checkSuggestions(problems, "Soul party", mSoulPartySuggestions, rebuilt.mSoulPartySuggestions);
+		checkSuggestions(problems, "Soul pool", mSoulPoolSuggestions, rebuilt.mSoulPoolSuggestions);
+		checkSuggestions(problems, "Location", mLocationSuggestions, rebuilt.mLocationSuggestions);
+		checkSuggestions(problems, "Type", mTypeSuggestions, rebuilt.mTypeSuggestions);
+
+		return problems;
+	}
+
+	private static void checkOrder(List<String> problems, String name, List<? extends SoulGroup> entries) {
+		for (int i = 1; i < entries.size(); i++) {
+			String previous = SoulsLabelIndex.normalize(entries.get(i - 1).getLabel());
+			if (previous.compareTo(SoulsLabelIndex.normalize(entries.get(i).getLabel())) >= 0) {
+				problems.add(name + " are out of order at '" + entries.get(i).getLabel() + "'");
+			}
+		}
+	}
+
+	private static void checkIndex(List<String> problems, String name, Map<String, List<SoulEntry>> index, Map<String, List<SoulEntry>> expected) {
+		Set<String> keys = new TreeSet<>(index.keySet());
+		keys.addAll(expected.keySet());
+		for (String key : keys) {
+			List<SoulEntry> souls = index.getOrDefault(key, Collections.emptyList());
+			List<SoulEntry> expectedSouls = expected.getOrDefault(key, Collections.emptyList());
+			/* Entries don't override equals(), so this compares identity */
+			if (!souls.equals(expectedSouls)) {
+				problems.add(name + " index differs for '" + key + "': " + labels(souls.toArray(new SoulGroup[0])) + " != " + labels(expectedSouls.toArray(new SoulGroup[0])));
+			}
+		}
+	}
+
+	private static void checkSuggestions(List<String> problems, String name, LabelSuggestions suggestions, LabelSuggestions expected) {
+		if (!suggestions.getLabels().equals(expected.getLabels())) {
+			problems.add(name + " suggestions differ: " + suggestions.getLabels() + " != " + expected.getLabels());
+		}
+	}
+
+	/*--------------------------------------------------------------------------------
+	 * Reading
+	 */
+
+	/* Sorted by label */
+	public List<SoulEntry> getSouls() {
+		return mSoulsList;
+	}
+
+	public List<SoulPartyEntry> getSoulParties() {
+		return mSoulPartiesList;
+	}
+
+	public List<SoulPoolEntry> getSoulPools() {
+		return mSoulPoolsList;
+	}
+
+	/* Lookups ignore case and don't allocate */
+	public SoulEntry getSoul(String label) {
+		return mLabels.getSoul(label);
+	}
+
+	public SoulPartyEntry getSoulParty(String label) {
+		return mLabels.getSoulParty(label);
+	}
+
+	public SoulPoolEntry getSoulPool(String label) {
+		return mLabels.getSoulPool(label);
+	}
+
+	/* Any of the above, by label */
+	public SoulGroup getSoulGroup(String label) {
+		return mLabels.get(label);
+	}
+
+	public long getGeneration() {
+		return mGeneration;
+	}
+
+	public SoulsDependencyGraph getDependencies() {
+		return mDependencies;
+	}
+
+	/* The cached expansion of a soul party / pool, given its current history entry */
+	public SoulsExpansionCache.Expansion getExpansion(SoulGroup group, SoulGroup source) {
+		if (mLabels.get(group.getLabel()) != group) {
+			/* Not this snapshot's, so its contents may not be what the cache was invalidated for */
+			return SoulsExpansionCache.expand(source);
+		}
+		return mExpansions.get(group, source);
+	}
+
+	/* Souls without a location when location is null, otherwise null if no soul has that location */
+	public List<SoulEntry> getSoulsByLocation(String location) {
+		if (location == null) {
+			return mNoLocMobs;
+		} else {
+			return mLocsIndex.get(location);
+		}
+	}
+
+	public List<SoulEntry> getSoulsByType(String id) {
+		return mTypesIndex.get(id);
+	}
+
+	public Set<String> getLocations() {
+		return mLocsIndex.keySet();
+	}
+
+	public Set<String> getTypes() {
+		return mTypesIndex.keySet();
+	}
+
+	/* Labels starting with prefix, ignoring case, at most limit of them */
+	public String[] suggestSouls(String prefix, int limit) {
+		return mSoulSuggestions.startingWith(prefix, limit);
+	}
+
+	public String[] suggestSoulParties(String prefix, int limit) {
+		return mSoulPartySuggestions.startingWith(prefix, limit);
+	}
+
+	public String[] suggestSoulPools(String prefix, int limit) {
+		return mSoulPoolSuggestions.startingWith(prefix, limit);
+	}
+
+	/* Souls first, then soul parties, then soul pools */
+	public String[] suggestSoulGroups(String prefix, int limit) {
+		return LabelSuggestions.startingWith(prefix, limit, mSoulSuggestions, mSoulPartySuggestions, mSoulPoolSuggestions);
+	}
+
+	public String[] suggestLocations(String prefix, int limit) {
+		return mLocationSuggestions.startingWith(prefix, limit);
+	}
+
+	public String[] suggestTypes(String prefix, int limit) {
+		return mTypeSuggestions.startingWith(prefix, limit);
+	}
+
+	/* Builds the query index if it hasn't been already - best not called on the main thread */
+	public SoulsQueryIndex getQueryIndex() {
+		SoulsQueryIndex index = mQueryIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = mQueryIndex;
+				if (index == null) {
+					index = new SoulsQueryIndex(mSoulsList);
+					mQueryIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	/* As above - built on the first /los find after a reload */
+	public SoulsFuzzyIndex getFuzzyIndex() {
+		SoulsFuzzyIndex index = mFuzzyIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = mFuzzyIndex;
+				if (index == null) {
+					index = new SoulsFuzzyIndex(mSoulsList);
+					mFuzzyIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	public BestiaryArea getBestiary() {
+		return mBestiary;
+	}
+}
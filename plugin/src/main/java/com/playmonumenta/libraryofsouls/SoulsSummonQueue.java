@@ -0,0 +1,198 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.util.BoundingBox;
+
+import com.playmonumenta.libraryofsouls.utils.BlockOccupancyGrid;
+
+/*
+ * Summons soul groups a few mobs at a time, so summoning a lot at once doesn't stall a tick.
+ *
+ * A batch rolls its group straight away and queues one spawn per soul rolled. Every tick the
+ * queue summons spawns in order until the configured time budget is used up - always at least
+ * one, so it can't stall. A batch's future completes with its entities once its last spawn has
+ * been attempted. Spawns that don't fit (inside blocks) are skipped as with summonGroup().
+ *
+ * Batches from SoulsPlacementService come with the positions where each spawn fitted when they
+ * were picked. The queue tries a few of those against the live blocks, and if blocks changed at
+ * all of them, tries a random position like summonGroup() rather than dropping the spawn.
+ *
+ * Only use from the main thread.
+ */
+public class SoulsSummonQueue {
+	private static SoulsSummonQueue INSTANCE = null;
+
+	/* Positions from a spawn's candidates to try before falling back to a random one */
+	private static final int CANDIDATE_TRIES = 4;
+
+	private static final class Batch {
+		private final Soul[] mSouls;
+		/* By spawn, the x, y, z triples of the positions to pick from, null to pick a random position in mSpawnBb */
+		private final double[][] mCandidates;
+		private final Random mRandom;
+		private final World mWorld;
+		private final BoundingBox mSpawnBb;
+		private final List<Entity> mEntities = new ArrayList<>();
+		private final CompletableFuture<List<Entity>> mFuture = new CompletableFuture<>();
+		private int mNext = 0;
+
+		private Batch(Soul[] souls, double[][] candidates, Random random, World world, BoundingBox spawnBb) {
+			mSouls = souls;
+			mCandidates = candidates;
+			mRandom = random;
+			mWorld = world;
+			mSpawnBb = spawnBb;
+		}
+	}
+
+	private final Plugin mPlugin;
+	private final Deque<Batch> mBatches = new ArrayDeque<>();
+	/* Spawns queued but not yet attempted, over all batches */
+	private int mPending = 0;
+	/* Only runs while there is something queued */
+	private BukkitTask mTask = null;
+
+	public SoulsSummonQueue(Plugin plugin) {
+		mPlugin = plugin;
+		INSTANCE = this;
+	}
+
+	public static SoulsSummonQueue getInstance() {
+		return INSTANCE;
+	}
+
+	/* Rolls group once and queues summoning what was rolled at random places in spawnBb */
+	public CompletableFuture<List<Entity>> summon(SoulGroup group, Random random, World world, BoundingBox spawnBb) {
+		return summon(roll(group, random), null, random, world, spawnBb);
+	}
+
+	/* Queues summoning souls[i] at one of the positions in candidates[i], or at a random place in spawnBb where that is null */
+	CompletableFuture<List<Entity>> summon(Soul[] souls, double[][] candidates, Random random, World world, BoundingBox spawnBb) {
+		Batch batch = new Batch(souls, candidates, random, world, spawnBb);
+		if (batch.mSouls.length == 0) {
+			batch.mFuture.complete(batch.mEntities);
+			return batch.mFuture;
+		}
+
+		mBatches.add(batch);
+		mPending += batch.mSouls.length;
+		if (mTask == null) {
+			mTask = Bukkit.getScheduler().runTaskTimer(mPlugin, this::tick, 0L, 1L);
+		}
+		return batch.mFuture;
+	}
+
+	/* Rolls group once, one entry per mob */
+	static Soul[] roll(SoulGroup group, Random random) {
+		List<Soul> souls = new ArrayList<>();
+		group.forEachRandomSoul(random, (soul, count) -> {
+			for (int i = 0; i < count; i++) {
+				souls.add(soul);
+			}
+		});
+		return souls.toArray(new Soul[0]);
+	}
+
+	/* Number of spawns waiting, over all batches */
+	public int getQueueDepth() {
+		return mPending;
+	}
+
+	/* Number of batches waiting */
+	public int getBatchCount() {
+		return mBatches.size();
+	}
+
+	/* Drops everything queued, completing each batch with what it summoned so far */
+	public void cancelAll() {
+		while (!mBatches.isEmpty()) {
+			Batch batch = mBatches.poll();
+			batch.mFuture.complete(batch.mEntities);
+		}
+		mPending = 0;
+		stop();
+	}
+
+	private void tick() {
+		long deadline = System.nanoTime() + LibraryOfSouls.Config.getSummonBudgetNs();
+		/*
+		 * Blocks can change between ticks, so they are read again each tick - but only once per
+		 * tick for consecutive batches in the same spawn box, such as repeated summons at one spot
+		 */
+		World gridWorld = null;
+		BoundingBox gridBb = null;
+		BlockOccupancyGrid grid = null;
+		do {
+			Batch batch = mBatches.peek();
+			if (batch == null) {
+				break;
+			}
+			if (batch.mWorld != gridWorld || !batch.mSpawnBb.equals(gridBb)) {
+				gridWorld = batch.mWorld;
+				gridBb = batch.mSpawnBb;
+				grid = new BlockOccupancyGrid(batch.mWorld, batch.mSpawnBb);
+			}
+
+			int index = batch.mNext++;
+			Soul soul = batch.mSouls[index];
+			double[] candidates = batch.mCandidates == null ? null : batch.mCandidates[index];
+			mPending--;
+			try {
+				Entity entity = candidates == null ? null : summonAtCandidate(batch, soul, candidates, grid);
+				if (entity != null) {
+					batch.mEntities.add(entity);
+				} else {
+					batch.mEntities.addAll(soul.summonGroup(batch.mRandom, batch.mWorld, batch.mSpawnBb, grid));
+				}
+			} catch (Exception ex) {
+				mPlugin.getLogger().warning("Failed to summon queued '" + soul.getLabel() + "': " + ex.getMessage());
+			}
+
+			if (batch.mNext >= batch.mSouls.length) {
+				mBatches.poll();
+				batch.mFuture.complete(batch.mEntities);
+			}
+		} while (System.nanoTime() < deadline);
+
+		if (mBatches.isEmpty()) {
+			stop();
+		}
+	}
+
+	/* Summons soul at one of the candidate positions that still fits, or returns null if none of those tried does */
+	private static Entity summonAtCandidate(Batch batch, Soul soul, double[] candidates, BlockOccupancyGrid grid) {
+		Double width = soul.getWidth();
+		Double height = soul.getHeight();
+		if (width == null || height == null) {
+			return null;
+		}
+		/* Blocks may have changed since the positions were found */
+		for (int i = 0; i < CANDIDATE_TRIES; i++) {
+			int pick = batch.mRandom.nextInt(candidates.length / 3) * 3;
+			Location loc = new Location(batch.mWorld, candidates[pick], candidates[pick + 1], candidates[pick + 2]);
+			if (!grid.insideBlocks(loc, width, height)) {
+				return soul.summon(loc);
+			}
+		}
+		return null;
+	}
+
+	private void stop() {
+		if (mTask != null) {
+			mTask.cancel();
+			mTask = null;
+		}
+	}
+}
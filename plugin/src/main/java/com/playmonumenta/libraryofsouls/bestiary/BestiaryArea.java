@@ -17,7 +17,7 @@ import com.goncalomb.bukkit.mylib.reflect.NBTTagCompound;
 import com.goncalomb.bukkit.mylib.reflect.NBTUtils;
 import com.playmonumenta.libraryofsouls.LibraryOfSouls;
 import com.playmonumenta.libraryofsouls.SoulEntry;
-import com.playmonumenta.libraryofsouls.SoulsDatabase;
+import com.playmonumenta.libraryofsouls.SoulsSnapshot;
 
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
@@ -41,7 +41,8 @@ public class BestiaryArea implements BestiaryEntryInterface {
 		NOT_FOUND_ITEM.setItemMeta(meta);
 	}
 
-	public BestiaryArea(BestiaryArea parent, String name, ConfigurationSection config) throws Exception {
+	/* Souls are looked up in the given snapshot, which doesn't have to be published yet */
+	public BestiaryArea(BestiaryArea parent, String name, ConfigurationSection config, SoulsSnapshot snapshot) throws Exception {
 		mParent = parent;
 		mName = MiniMessage.get().parse(name).decoration(TextDecoration.ITALIC, false);
 
@@ -49,7 +50,7 @@ public class BestiaryArea implements BestiaryEntryInterface {
 			throw new Exception("Bestiary entry " + PlainComponentSerializer.plain().serialize(mName) + " should contain only location_tag OR children, not both");
 		} else if (config.contains("location_tag")) {
 			mLocation = config.getString("location_tag");
-			List<SoulEntry> souls = SoulsDatabase.getInstance().getSoulsByLocation(mLocation);
+			List<SoulEntry> souls = snapshot.getSoulsByLocation(mLocation);
 			if (souls == null || souls.isEmpty()) {
 				throw new Exception("Bestiary entry " + PlainComponentSerializer.plain().serialize(mName) + " specifies nonexistent location " + mLocation);
 			}
@@ -62,7 +63,7 @@ public class BestiaryArea implements BestiaryEntryInterface {
 			mChildren = new ArrayList<>(childKeys.size());
 			for (String childKey : childKeys) {
 				try {
-					mChildren.add(new BestiaryArea(this, childKey, children.getConfigurationSection(childKey)));
+					mChildren.add(new BestiaryArea(this, childKey, children.getConfigurationSection(childKey), snapshot));
 				} catch (Exception ex) {
 					LibraryOfSouls.getInstance().getLogger().warning("Failed to load bestiary area " + childKey + ": " + ex.getMessage());
 				}
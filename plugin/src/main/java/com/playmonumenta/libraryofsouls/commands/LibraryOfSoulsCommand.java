@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 
@@ -15,8 +16,11 @@ import com.playmonumenta.libraryofsouls.SoulEntry;
 import com.playmonumenta.libraryofsouls.SoulGroup;
 import com.playmonumenta.libraryofsouls.SoulsDatabase;
 import com.playmonumenta.libraryofsouls.SoulsInventory;
+import com.playmonumenta.libraryofsouls.SoulsSnapshot;
 import com.playmonumenta.libraryofsouls.SpawnerInventory;
 
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.ProxiedCommandSender;
@@ -30,6 +34,7 @@ import dev.jorel.commandapi.CommandAPICommand;
 import dev.jorel.commandapi.CommandPermission;
 import dev.jorel.commandapi.SuggestionInfo;
 import dev.jorel.commandapi.arguments.Argument;
+import dev.jorel.commandapi.arguments.GreedyStringArgument;
 import dev.jorel.commandapi.arguments.LocationArgument;
 import dev.jorel.commandapi.arguments.IntegerArgument;
 import dev.jorel.commandapi.arguments.MultiLiteralArgument;
@@ -43,11 +48,19 @@ import net.kyori.adventure.text.event.ClickEvent;
 
 public class LibraryOfSoulsCommand {
 	/* Several sub commands have this same tab completion */
-	public static final Function<SuggestionInfo, String[]> LIST_MOBS_FUNCTION = (info) -> SoulsDatabase.getInstance().listMobNames().stream().toArray(String[]::new);
-	public static final Function<SuggestionInfo, String[]> LIST_SOUL_PARTIES_FUNCTION = (info) -> SoulsDatabase.getInstance().listSoulPartyNames().stream().toArray(String[]::new);
-	public static final Function<SuggestionInfo, String[]> LIST_SOUL_POOLS_FUNCTION = (info) -> SoulsDatabase.getInstance().listSoulPoolNames().stream().toArray(String[]::new);
-	public static final Function<SuggestionInfo, String[]> LIST_SOUL_GROUPS_FUNCTION = (info) -> SoulsDatabase.getInstance().listSoulGroupNames().stream().toArray(String[]::new);
+	/*
+	 * Only labels starting with what has been typed so far are suggested, up to the configured limit.
+	 * These only read the current database snapshot, so they are safe to run off the main thread.
+	 */
+	public static final Function<SuggestionInfo, String[]> LIST_MOBS_FUNCTION = (info) -> SoulsDatabase.getInstance().getSnapshot().suggestSouls(info.currentArg(), LibraryOfSouls.Config.getSuggestionLimit());
+	public static final Function<SuggestionInfo, String[]> LIST_SOUL_PARTIES_FUNCTION = (info) -> SoulsDatabase.getInstance().getSnapshot().suggestSoulParties(info.currentArg(), LibraryOfSouls.Config.getSuggestionLimit());
+	public static final Function<SuggestionInfo, String[]> LIST_SOUL_POOLS_FUNCTION = (info) -> SoulsDatabase.getInstance().getSnapshot().suggestSoulPools(info.currentArg(), LibraryOfSouls.Config.getSuggestionLimit());
+	public static final Function<SuggestionInfo, String[]> LIST_SOUL_GROUPS_FUNCTION = (info) -> SoulsDatabase.getInstance().getSnapshot().suggestSoulGroups(info.currentArg(), LibraryOfSouls.Config.getSuggestionLimit());
+	public static final Function<SuggestionInfo, String[]> LIST_LOCATIONS_FUNCTION = (info) -> SoulsDatabase.getInstance().getSnapshot().suggestLocations(info.currentArg(), LibraryOfSouls.Config.getSuggestionLimit());
+	public static final Function<SuggestionInfo, String[]> LIST_TYPES_FUNCTION = (info) -> SoulsDatabase.getInstance().getSnapshot().suggestTypes(info.currentArg(), LibraryOfSouls.Config.getSuggestionLimit());
 	private static final String COMMAND = "los";
+	/* Best matches shown by /los find - one page of SoulsInventory */
+	private static final int FIND_LIMIT = 36;
 	private static final Pattern VALID_SOUL_GROUP_LABEL = Pattern.compile("[0-9A-Za-z_]+");
 
 	public static void register() {
@@ -192,6 +205,28 @@ public class LibraryOfSoulsCommand {
 			})
 			.register();
 
+		/* los summongroup <name> <pos1> <pos2> spread */
+		arguments.add(new MultiLiteralArgument("spread"));
+		new CommandAPICommand(COMMAND)
+			.withPermission(CommandPermission.fromString("los.summongroup"))
+			.withArguments(arguments)
+			.executes((sender, args) -> {
+				Location pos1 = (Location)args[2];
+				Location pos2 = (Location)args[3];
+				BoundingBox bb = BoundingBox.of(pos1, pos2);
+				/* Summoned over as many ticks as the summon budget needs, so report once it's done */
+				String groupLabel = (String)args[1];
+				LibraryOfSoulsAPI.summonBatch(getSoulGroup(groupLabel), new Random(), pos1.getWorld(), bb)
+					.thenAccept((entities) -> sender.sendMessage(Component.text("Summoned " + entities.size() + " mobs from " + groupLabel)))
+					.exceptionally((ex) -> {
+						Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+						LibraryOfSouls.getInstance().getLogger().warning("Failed to summon " + groupLabel + ": " + cause);
+						sender.sendMessage(ChatColor.RED + "Failed to summon " + groupLabel + ": " + cause.getMessage());
+						return null;
+					});
+			})
+			.register();
+
 		/* los search */
 		arguments.clear();
 		arguments.add(new MultiLiteralArgument("search"));
@@ -209,7 +244,7 @@ public class LibraryOfSoulsCommand {
 		/* los search <area> */
 		arguments.clear();
 		arguments.add(new MultiLiteralArgument("search"));
-		arguments.add(new StringArgument("area").replaceSuggestions((info) -> SoulsDatabase.getInstance().listMobLocations().stream().toArray(String[]::new)));
+		arguments.add(new StringArgument("area").replaceSuggestions(LIST_LOCATIONS_FUNCTION));
 		new CommandAPICommand(COMMAND)
 			.withPermission(CommandPermission.fromString("los.search"))
 			.withArguments(arguments)
@@ -228,7 +263,7 @@ public class LibraryOfSoulsCommand {
 		/* los searchtype <id> */
 		arguments.clear();
 		arguments.add(new MultiLiteralArgument("searchtype"));
-		arguments.add(new StringArgument("id").replaceSuggestions((info) -> SoulsDatabase.getInstance().listMobTypes().stream().toArray(String[]::new)));
+		arguments.add(new StringArgument("id").replaceSuggestions(LIST_TYPES_FUNCTION));
 		new CommandAPICommand(COMMAND)
 			.withPermission(CommandPermission.fromString("los.search"))
 			.withArguments(arguments)
@@ -244,6 +279,85 @@ public class LibraryOfSoulsCommand {
 			})
 			.register();
 
+		/* los query <query> */
+		arguments.clear();
+		arguments.add(new MultiLiteralArgument("query"));
+		arguments.add(new GreedyStringArgument("query"));
+		new CommandAPICommand(COMMAND)
+			.withPermission(CommandPermission.fromString("los.search"))
+			.withArguments(arguments)
+			.executes((sender, args) -> {
+				Player player = getPlayer(sender);
+				String query = (String)args[1];
+				SoulsSnapshot snapshot = SoulsDatabase.getInstance().getSnapshot();
+				/* The first query after a change builds the index, which is too slow for the main thread */
+				Bukkit.getScheduler().runTaskAsynchronously(LibraryOfSouls.getInstance(), () -> {
+					try {
+						List<SoulEntry> souls = snapshot.getQueryIndex().query(query);
+						Bukkit.getScheduler().runTask(LibraryOfSouls.getInstance(), () -> {
+							if (souls.isEmpty()) {
+								player.sendMessage(ChatColor.RED + "No mobs match '" + query + "'");
+							} else {
+								(new SoulsInventory(player, souls, query))
+									.openInventory(player, LibraryOfSouls.getInstance());
+							}
+						});
+					} catch (Exception ex) {
+						Bukkit.getScheduler().runTask(LibraryOfSouls.getInstance(), () -> player.sendMessage(ChatColor.RED + ex.getMessage()));
+					}
+				});
+			})
+			.register();
+
+		/* los find <text> */
+		arguments.clear();
+		arguments.add(new MultiLiteralArgument("find"));
+		arguments.add(new GreedyStringArgument("text"));
+		new CommandAPICommand(COMMAND)
+			.withPermission(CommandPermission.fromString("los.search"))
+			.withArguments(arguments)
+			.executes((sender, args) -> {
+				Player player = getPlayer(sender);
+				String text = (String)args[1];
+				SoulsSnapshot snapshot = SoulsDatabase.getInstance().getSnapshot();
+				/* The first search after a reload builds the fuzzy index */
+				Bukkit.getScheduler().runTaskAsynchronously(LibraryOfSouls.getInstance(), () -> {
+					List<SoulEntry> souls = snapshot.getFuzzyIndex().find(text, FIND_LIMIT);
+					Bukkit.getScheduler().runTask(LibraryOfSouls.getInstance(), () -> {
+						if (souls.isEmpty()) {
+							player.sendMessage(ChatColor.RED + "No mobs similar to '" + text + "'");
+						} else {
+							(new SoulsInventory(player, souls, text))
+								.openInventory(player, LibraryOfSouls.getInstance());
+						}
+					});
+				});
+			})
+			.register();
+
+		/* los references <label> */
+		arguments.clear();
+		arguments.add(new MultiLiteralArgument("references"));
+		arguments.add(new ScoreHolderArgument("label", ScoreHolderType.SINGLE).replaceSuggestions(LIST_SOUL_GROUPS_FUNCTION));
+		new CommandAPICommand(COMMAND)
+			.withPermission(CommandPermission.fromString("los.references"))
+			.withArguments(arguments)
+			.executes((sender, args) -> {
+				String label = (String)args[1];
+				SoulsSnapshot snapshot = SoulsDatabase.getInstance().getSnapshot();
+				List<SoulGroup> references = snapshot.getDependencies().getReferences(label);
+				String missing = snapshot.getSoulGroup(label) == null ? " (does not exist)" : "";
+				if (references.isEmpty()) {
+					sender.sendMessage(ChatColor.GREEN + "Nothing uses " + label + missing);
+				} else {
+					sender.sendMessage(ChatColor.GREEN + label + missing + " is used by:");
+					for (SoulGroup group : references) {
+						sender.sendMessage(ChatColor.WHITE + "  " + group.getLabel());
+					}
+				}
+			})
+			.register();
+
 		/* los spawner <name> */
 		arguments.clear();
 		arguments.add(new MultiLiteralArgument("spawner"));
@@ -437,7 +551,7 @@ public class LibraryOfSoulsCommand {
 			return soul;
 		}
 
-		CommandAPI.fail("Soul '" + name + "' not found");
+		CommandAPI.fail("Soul '" + name + "' not found, try /los find " + name);
 		return null;
 	}
 
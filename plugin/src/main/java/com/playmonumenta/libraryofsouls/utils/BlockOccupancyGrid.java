@@ -0,0 +1,179 @@
+package com.playmonumenta.libraryofsouls.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.util.BoundingBox;
+
+/*
+ * The block shapes around one spawn area, for testing many spawn positions against without
+ * reading the same blocks again for each of them.
+ *
+ * Covers the spawn box plus a margin for the mobs' hitboxes. Each block is read the first time
+ * a test needs it and remembered as a byte - empty, a full cube, or a partial shape kept on the
+ * side - so summoning a whole group reads each block at most once. Positions whose hitbox pokes
+ * out of the covered area read the blocks outside it every time, like Utils.insideBlocks().
+ *
+ * The bytes are kept in sections of 8x8x8 blocks, allocated as tests first reach them, so memory
+ * follows the blocks actually read rather than the size of the box. The first test reads blocks
+ * directly and allocates nothing, so summoning a single mob costs no more than it did without a grid.
+ *
+ * Blocks with no shape are always treated as empty (Bukkit gives them an empty box at the
+ * world origin). Meant for a single summon on the main thread - not for keeping around.
+ */
+public class BlockOccupancyGrid {
+	/* Covers mobs up to 4 blocks wide and 4 tall that spawn anywhere in the box */
+	private static final int MARGIN_XZ = 3;
+	private static final int MARGIN_Y = 5;
+	/* Spawn areas larger than this read blocks directly rather than keep track of that many sections */
+	private static final int MAX_CELLS = 1 << 20;
+	private static final int SECTION_BITS = 3;
+	private static final int SECTION_MASK = (1 << SECTION_BITS) - 1;
+
+	private static final byte UNREAD = 0;
+	private static final byte EMPTY = 1;
+	private static final byte FULL = 2;
+	private static final byte PARTIAL = 3;
+
+	private final World mWorld;
+	private final int mMinX;
+	private final int mMinY;
+	private final int mMinZ;
+	private final int mSizeX;
+	private final int mSizeY;
+	private final int mSizeZ;
+	private final int mSectionsX;
+	private final int mSectionsZ;
+	private final int mSectionCount;
+	/* By section index, then by cell within the section. Null until the second test */
+	private byte[][] mSections = null;
+	/* Shapes of the PARTIAL cells, by cell index in the whole grid */
+	private final Map<Integer, BoundingBox> mShapes = new HashMap<>();
+	private boolean mTested = false;
+
+	public BlockOccupancyGrid(World world, BoundingBox spawnBb) {
+		mWorld = world;
+		mMinX = (int) Math.floor(spawnBb.getMinX()) - MARGIN_XZ;
+		mMinY = (int) Math.floor(spawnBb.getMinY()) - 1;
+		mMinZ = (int) Math.floor(spawnBb.getMinZ()) - MARGIN_XZ;
+		mSizeX = (int) Math.ceil(spawnBb.getMaxX()) + MARGIN_XZ - mMinX + 1;
+		mSizeY = (int) Math.ceil(spawnBb.getMaxY()) + MARGIN_Y - mMinY + 1;
+		mSizeZ = (int) Math.ceil(spawnBb.getMaxZ()) + MARGIN_XZ - mMinZ + 1;
+
+		long cells = (long) mSizeX * mSizeY * mSizeZ;
+		mSectionsX = (mSizeX + SECTION_MASK) >> SECTION_BITS;
+		mSectionsZ = (mSizeZ + SECTION_MASK) >> SECTION_BITS;
+		int sectionsY = (mSizeY + SECTION_MASK) >> SECTION_BITS;
+		mSectionCount = cells > 0 && cells <= MAX_CELLS ? mSectionsX * sectionsY * mSectionsZ : 0;
+	}
+
+	/* Same as Utils.insideBlocks(), for a position in this grid's world */
+	public boolean insideBlocks(Location feetLoc, double width, double height) {
+		BoundingBox bb = new BoundingBox(feetLoc.getX() - width/2.0,
+		                                 feetLoc.getY(),
+		                                 feetLoc.getZ() - width/2.0,
+		                                 feetLoc.getX() + width/2.0,
+		                                 feetLoc.getY() + height,
+		                                 feetLoc.getZ() + width/2.0);
+
+		int minX = (int) Math.floor(bb.getMinX());
+		int minY = (int) Math.floor(bb.getMinY());
+		int minZ = (int) Math.floor(bb.getMinZ());
+		int maxX = (int) Math.ceil(bb.getMaxX());
+		int maxY = (int) Math.ceil(bb.getMaxY());
+		int maxZ = (int) Math.ceil(bb.getMaxZ());
+
+		/* Remembering blocks only pays off once they are read again */
+		boolean remember = mTested;
+		mTested = true;
+
+		for (int z = minZ; z <= maxZ; z++) {
+			for (int x = minX; x <= maxX; x++) {
+				for (int y = minY; y < maxY; y++) {
+					if (overlaps(x, y, z, bb, remember)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean overlaps(int x, int y, int z, BoundingBox bb, boolean remember) {
+		int index = remember ? index(x, y, z) : -1;
+		if (index < 0) {
+			BoundingBox shape = mWorld.getBlockAt(x, y, z).getBoundingBox();
+			return shape.getVolume() > 0 && shape.overlaps(bb);
+		}
+
+		byte[] section = section(x, y, z);
+		int cellIndex = cellIndex(x, y, z);
+		byte cell = section[cellIndex];
+		if (cell == UNREAD) {
+			BoundingBox shape = mWorld.getBlockAt(x, y, z).getBoundingBox();
+			if (shape.getVolume() <= 0) {
+				cell = EMPTY;
+			} else if (shape.getMinX() == x && shape.getMinY() == y && shape.getMinZ() == z
+			           && shape.getMaxX() == x + 1 && shape.getMaxY() == y + 1 && shape.getMaxZ() == z + 1) {
+				cell = FULL;
+			} else {
+				cell = PARTIAL;
+				mShapes.put(index, shape);
+			}
+			section[cellIndex] = cell;
+		}
+
+		switch (cell) {
+			case FULL:
+				/* Same test as BoundingBox.overlaps(), against the block's cube */
+				return x < bb.getMaxX() && x + 1 > bb.getMinX()
+				       && y < bb.getMaxY() && y + 1 > bb.getMinY()
+				       && z < bb.getMaxZ() && z + 1 > bb.getMinZ();
+			case PARTIAL:
+				return mShapes.get(index).overlaps(bb);
+			default:
+				return false;
+		}
+	}
+
+	/* -1 if outside the grid */
+	private int index(int x, int y, int z) {
+		if (mSectionCount == 0) {
+			return -1;
+		}
+		int dx = x - mMinX;
+		int dy = y - mMinY;
+		int dz = z - mMinZ;
+		if (dx < 0 || dy < 0 || dz < 0 || dx >= mSizeX || dy >= mSizeY || dz >= mSizeZ) {
+			return -1;
+		}
+		return (dy * mSizeZ + dz) * mSizeX + dx;
+	}
+
+	/* The section holding a cell inside the grid, allocated on first use */
+	private byte[] section(int x, int y, int z) {
+		if (mSections == null) {
+			mSections = new byte[mSectionCount][];
+		}
+		int sectionX = (x - mMinX) >> SECTION_BITS;
+		int sectionY = (y - mMinY) >> SECTION_BITS;
+		int sectionZ = (z - mMinZ) >> SECTION_BITS;
+		int sectionIndex = (sectionY * mSectionsZ + sectionZ) * mSectionsX + sectionX;
+		byte[] section = mSections[sectionIndex];
+		if (section == null) {
+			section = new byte[1 << (3 * SECTION_BITS)];
+			mSections[sectionIndex] = section;
+		}
+		return section;
+	}
+
+	/* Index of a cell inside the grid within its section */
+	private int cellIndex(int x, int y, int z) {
+		int cellX = (x - mMinX) & SECTION_MASK;
+		int cellY = (y - mMinY) & SECTION_MASK;
+		int cellZ = (z - mMinZ) & SECTION_MASK;
+		return (((cellY << SECTION_BITS) | cellZ) << SECTION_BITS) | cellX;
+	}
+}
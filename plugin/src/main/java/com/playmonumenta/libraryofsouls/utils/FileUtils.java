@@ -7,6 +7,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 
 public class FileUtils {
@@ -46,6 +47,21 @@ public class FileUtils {
 		return content.toString();
 	}
 
+	/* Opens a file for streaming reads; the caller is responsible for closing the reader */
+	public static Reader newReader(String fileName) throws Exception, FileNotFoundException {
+		// Do not attempt to catch exceptions here - let them propagate to the caller
+		if (fileName == null || fileName.isEmpty()) {
+			throw new Exception("Filename is null or empty");
+		}
+
+		File file = new File(fileName);
+		if (!file.exists()) {
+			throw new FileNotFoundException("File '" + fileName + "' does not exist");
+		}
+
+		return new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+	}
+
 	public static void writeFile(String fileName, String contents) throws IOException {
 		// Do not attempt to catch exceptions here - let them propagate to the caller
 		File file = new File(fileName);
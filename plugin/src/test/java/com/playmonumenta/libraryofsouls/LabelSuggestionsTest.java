@@ -0,0 +1,72 @@
+package com.playmonumenta.libraryofsouls;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class LabelSuggestionsTest {
+	private static final String[] WORDS = {"Knight", "Archer", "Ar", "Arch", "Zombie", "Zed", "Guard", "Guardian", "Gu", "Wolf"};
+
+	@Test
+	public void randomEditsMatchRebuild() {
+		for (long seed = 0; seed < 20; seed++) {
+			Random random = new Random(seed);
+			Map<String, String> model = new HashMap<>();
+			LabelSuggestions suggestions = new LabelSuggestions(List.of());
+			for (int step = 0; step < 500; step++) {
+				String label = WORDS[random.nextInt(WORDS.length)] + random.nextInt(3);
+				if (random.nextBoolean()) {
+					label = label.toUpperCase();
+				}
+				if (random.nextInt(3) < 2) {
+					model.put(SoulsLabelIndex.normalize(label), label);
+					suggestions = suggestions.with(label);
+				} else {
+					model.remove(SoulsLabelIndex.normalize(label));
+					suggestions = suggestions.without(label);
+				}
+
+				LabelSuggestions rebuilt = new LabelSuggestions(model.values());
+				assertEquals(rebuilt.getLabels(), suggestions.getLabels(), "seed " + seed + " step " + step);
+				for (String prefix : new String[] {"", "a", "AR", "arch", "g", "gu0", "z", "x"}) {
+					assertArrayEquals(rebuilt.startingWith(prefix, 1000), suggestions.startingWith(prefix, 1000), prefix);
+					assertArrayEquals(expected(model, prefix), suggestions.startingWith(prefix, 1000), prefix);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void startingWithLimitsAcrossSources() {
+		LabelSuggestions souls = new LabelSuggestions(List.of("Guard", "guardian", "Knight"));
+		LabelSuggestions parties = new LabelSuggestions(List.of("#Guards"));
+		LabelSuggestions pools = new LabelSuggestions(List.of("~Guards", "~Any"));
+
+		assertArrayEquals(new String[] {"Guard", "guardian"}, souls.startingWith("GUA", 10));
+		assertArrayEquals(new String[] {"Guard"}, souls.startingWith("gua", 1));
+		assertArrayEquals(new String[] {"Guard", "guardian", "Knight", "#Guards"}, LabelSuggestions.startingWith("", 4, souls, parties, pools));
+		assertArrayEquals(new String[] {"~Any", "~Guards"}, LabelSuggestions.startingWith("~", 10, souls, parties, pools));
+		assertArrayEquals(new String[0], LabelSuggestions.startingWith("x", 10, souls, parties, pools));
+		assertSame(souls, souls.without("Wolf"));
+	}
+
+	private static String[] expected(Map<String, String> model, String prefix) {
+		List<String> keys = new ArrayList<>(model.keySet());
+		keys.sort(null);
+		List<String> result = new ArrayList<>();
+		for (String key : keys) {
+			if (key.startsWith(SoulsLabelIndex.normalize(prefix))) {
+				result.add(model.get(key));
+			}
+		}
+		return result.toArray(new String[0]);
+	}
+}
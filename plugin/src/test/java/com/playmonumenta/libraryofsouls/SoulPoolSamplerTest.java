@@ -0,0 +1,83 @@
+package com.playmonumenta.libraryofsouls;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class SoulPoolSamplerTest {
+	private static final int DRAWS = 200000;
+
+	@Test
+	public void drawsInProportionToWeight() {
+		Map<String, Integer> weights = new LinkedHashMap<>();
+		weights.put("Knight", 1);
+		weights.put("Archer", 3);
+		weights.put("Zombie", 6);
+		weights.put("Husk", 0);
+		weights.put("Missing", 10);
+		SoulsSnapshot snapshot = TestSouls.snapshot(List.of(TestSouls.soul("Knight", "zombie"), TestSouls.soul("Archer", "skeleton"),
+		                                                    TestSouls.soul("Zombie", "zombie"), TestSouls.soul("Husk", "husk")),
+		                                            List.of(), List.of());
+		SoulPoolSampler sampler = new SoulPoolSampler(weights, snapshot);
+
+		Map<String, Integer> counts = new HashMap<>();
+		Random random = new Random(1);
+		for (int i = 0; i < DRAWS; i++) {
+			SoulGroup group = sampler.sample(random);
+			counts.merge(group == null ? "Missing" : group.getLabel(), 1, Integer::sum);
+		}
+
+		/* Entries that don't exist keep their share of the weight, and draw null */
+		assertShare(counts, "Knight", 1.0 / 20);
+		assertShare(counts, "Archer", 3.0 / 20);
+		assertShare(counts, "Zombie", 6.0 / 20);
+		assertShare(counts, "Missing", 10.0 / 20);
+		assertFalse(counts.containsKey("Husk"));
+		assertTrue(sampler.isFor(snapshot));
+		assertEquals(5, sampler.size());
+	}
+
+	@Test
+	public void nothingToDraw() {
+		Random random = new Random(1);
+		SoulPoolSampler empty = new SoulPoolSampler(new HashMap<>(), null);
+		assertTrue(empty.isEmpty());
+		assertEquals(-1, empty.sampleIndex(random));
+		assertNull(empty.sample(random));
+
+		Map<String, Integer> weights = new HashMap<>();
+		weights.put("Knight", 0);
+		SoulPoolSampler zero = new SoulPoolSampler(weights, null);
+		assertTrue(zero.isEmpty());
+		assertEquals(-1, zero.sampleIndex(random));
+	}
+
+	@Test
+	public void singleEntryAlwaysDrawn() {
+		SoulEntry soul = TestSouls.soul("Knight", "zombie");
+		SoulsSnapshot snapshot = TestSouls.snapshot(List.of(soul), List.of(), List.of());
+		Map<String, Integer> weights = new HashMap<>();
+		weights.put("KNIGHT", 7);
+		SoulPoolSampler sampler = new SoulPoolSampler(weights, snapshot);
+
+		Random random = new Random(1);
+		for (int i = 0; i < 1000; i++) {
+			assertSame(soul, sampler.sample(random));
+		}
+	}
+
+	private static void assertShare(Map<String, Integer> counts, String label, double expected) {
+		double share = (double)counts.getOrDefault(label, 0) / DRAWS;
+		assertEquals(expected, share, 0.01, label);
+	}
+}
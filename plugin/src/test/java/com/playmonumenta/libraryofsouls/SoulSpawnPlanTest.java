@@ -0,0 +1,97 @@
+package com.playmonumenta.libraryofsouls;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class SoulSpawnPlanTest {
+	private static final int ROLLS = 10000;
+
+	private final SoulEntry mKnight = TestSouls.soul("Knight", "zombie");
+	private final SoulEntry mArcher = TestSouls.soul("Archer", "skeleton");
+
+	@Test
+	public void partiesOfPartiesAreFlattened() {
+		SoulPartyEntry inner = TestSouls.party("#Inner", "Archer", 3);
+		SoulPartyEntry outer = TestSouls.party("#Outer", "#inner", 2, "KNIGHT", 1, "Missing", 5);
+		SoulsSnapshot snapshot = TestSouls.snapshot(List.of(mKnight, mArcher), List.of(inner, outer), List.of());
+
+		Map<String, Integer> expected = new HashMap<>();
+		expected.put("Knight", 1);
+		expected.put("Archer", 6);
+		Random random = new Random(1);
+		SoulSpawnPlan plan = SoulSpawnPlan.compile(outer, snapshot);
+		assertTrue(plan.isFor(snapshot));
+		for (int i = 0; i < 100; i++) {
+			assertEquals(expected, roll(plan, random));
+		}
+		/* The current history entry compiles to the same thing */
+		assertEquals(expected, roll(SoulSpawnPlan.compile(outer.getHistoryEntries().get(0), snapshot), random));
+	}
+
+	@Test
+	public void poolsAreDrawnEachRoll() {
+		SoulPoolEntry pick = TestSouls.pool("~Pick", "Knight", 1, "Archer", 3);
+		SoulPartyEntry squad = TestSouls.party("#Squad", "~Pick", 4);
+		SoulsSnapshot snapshot = TestSouls.snapshot(List.of(mKnight, mArcher), List.of(squad), List.of(pick));
+
+		/* Compiled against a snapshot the database doesn't have, so the pool's own sampler can't be used */
+		SoulSpawnPlan plan = SoulSpawnPlan.compile(squad, snapshot);
+		Random random = new Random(1);
+		Map<String, Integer> totals = new HashMap<>();
+		for (int i = 0; i < ROLLS; i++) {
+			Map<String, Integer> rolled = roll(plan, random);
+			assertEquals(4, rolled.values().stream().mapToInt(Integer::intValue).sum());
+			for (Map.Entry<String, Integer> entry : rolled.entrySet()) {
+				totals.merge(entry.getKey(), entry.getValue(), Integer::sum);
+			}
+		}
+		assertEquals(0.25, (double)totals.get("Knight") / (ROLLS * 4), 0.02);
+		assertEquals(0.75, (double)totals.get("Archer") / (ROLLS * 4), 0.02);
+	}
+
+	@Test
+	public void cyclesAreSkipped() {
+		SoulPartyEntry a = TestSouls.party("#A", "#B", 1, "Knight", 1);
+		SoulPartyEntry b = TestSouls.party("#B", "#A", 1, "Archer", 2);
+		SoulPoolEntry self = TestSouls.pool("~Self", "~self", 1, "Knight", 1);
+		SoulsSnapshot snapshot = TestSouls.snapshot(List.of(mKnight, mArcher), List.of(a, b), List.of(self));
+
+		Map<String, Integer> expected = new HashMap<>();
+		expected.put("Knight", 1);
+		expected.put("Archer", 2);
+		Random random = new Random(1);
+		assertEquals(expected, roll(SoulSpawnPlan.compile(a, snapshot), random));
+
+		SoulSpawnPlan selfPlan = SoulSpawnPlan.compile(self, snapshot);
+		for (int i = 0; i < 100; i++) {
+			Map<String, Integer> rolled = roll(selfPlan, random);
+			assertTrue(rolled.isEmpty() || rolled.equals(Map.of("Knight", 1)));
+		}
+	}
+
+	@Test
+	public void nothingToRoll() {
+		SoulPoolEntry empty = TestSouls.pool("~Empty", "Knight", 0);
+		SoulPartyEntry missing = TestSouls.party("#Missing", "Nobody", 3, "~Empty", 2);
+		SoulsSnapshot snapshot = TestSouls.snapshot(List.of(mKnight), List.of(missing), List.of(empty));
+
+		Random random = new Random(1);
+		assertTrue(roll(SoulSpawnPlan.compile(missing, snapshot), random).isEmpty());
+		assertTrue(roll(SoulSpawnPlan.compile(missing, null), random).isEmpty());
+		assertFalse(SoulSpawnPlan.compile(missing, null).isFor(snapshot));
+	}
+
+	private static Map<String, Integer> roll(SoulSpawnPlan plan, Random random) {
+		Map<String, Integer> rolled = new HashMap<>();
+		plan.forEachRandomSoul(random, (soul, count) -> rolled.merge(soul.getLabel(), count, Integer::sum));
+		return rolled;
+	}
+}
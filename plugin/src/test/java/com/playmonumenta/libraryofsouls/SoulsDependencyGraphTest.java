@@ -0,0 +1,178 @@
+package com.playmonumenta.libraryofsouls;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Checks graphs updated with with / without against a brute force search of the same groups,
+ * including cycles and labels that don't exist.
+ */
+public class SoulsDependencyGraphTest {
+	private static final String[] LABELS = {"#A", "#B", "#C", "#D", "#E", "~F", "~G", "~H", "~I", "Soul", "Missing"};
+
+	@Test
+	public void randomEditsMatchSearch() {
+		for (long seed = 0; seed < 50; seed++) {
+			Random random = new Random(seed);
+			/* Normalized label -> group */
+			Map<String, SoulGroup> groups = new HashMap<>();
+			SoulsDependencyGraph graph = new SoulsDependencyGraph(List.of(), List.of());
+			for (int step = 0; step < 200; step++) {
+				String label = LABELS[random.nextInt(9)];
+				if (random.nextInt(3) < 2) {
+					Map<String, Integer> entries = new HashMap<>();
+					Set<String> keys = new HashSet<>();
+					int count = random.nextInt(3);
+					for (int i = 0; i < count; i++) {
+						String entry = LABELS[random.nextInt(LABELS.length)];
+						if (keys.add(SoulsLabelIndex.normalize(entry))) {
+							entries.put(random.nextBoolean() ? entry : entry.toLowerCase(), 1);
+						}
+					}
+					SoulGroup group = label.startsWith("#") ? TestSouls.party(label, entries) : TestSouls.pool(label, entries);
+					groups.put(SoulsLabelIndex.normalize(label), group);
+					graph = graph.with(group, entries.keySet());
+				} else {
+					groups.remove(SoulsLabelIndex.normalize(label));
+					graph = graph.without(label.toLowerCase());
+				}
+				check(groups, graph, "seed " + seed + " step " + step);
+			}
+		}
+	}
+
+	@Test
+	public void cyclesAndOrder() {
+		SoulPartyEntry a = TestSouls.party("#A", "#B", 1, "Soul", 2);
+		SoulPartyEntry b = TestSouls.party("#B", "~C", 1);
+		SoulPoolEntry c = TestSouls.pool("~C", "Soul", 1);
+		SoulsDependencyGraph graph = new SoulsDependencyGraph(List.of(a, b), List.of(c));
+
+		assertTrue(graph.reaches("#a", "~c"));
+		assertFalse(graph.reaches("~c", "#a"));
+		assertEquals(List.of(), graph.getCycles());
+		assertEquals(List.of(c, b, a), graph.getTopologicalOrder());
+		assertEquals(Set.of("#a", "#b", "~c"), graph.getContainingLabels("soul"));
+
+		SoulPoolEntry cycle = TestSouls.pool("~C", "#A", 1);
+		SoulsDependencyGraph cyclic = graph.with(cycle, cycle.getEntryWeights().keySet());
+		assertTrue(cyclic.reaches("~c", "#a"));
+		assertEquals(Set.of(a, b, cycle), new HashSet<>(cyclic.getCycles()));
+		assertEquals(Set.of("#a", "#b", "~c"), cyclic.getContainingLabels("soul"));
+		assertEquals(List.of(), graph.getCycles());
+	}
+
+	private static void check(Map<String, SoulGroup> groups, SoulsDependencyGraph graph, String message) {
+		List<SoulPartyEntry> soulParties = new ArrayList<>();
+		List<SoulPoolEntry> soulPools = new ArrayList<>();
+		for (SoulGroup group : groups.values()) {
+			if (group instanceof SoulPartyEntry) {
+				soulParties.add((SoulPartyEntry)group);
+			} else {
+				soulPools.add((SoulPoolEntry)group);
+			}
+		}
+		assertTrue(graph.sameEdges(new SoulsDependencyGraph(soulParties, soulPools)), message);
+
+		Set<SoulGroup> cycles = new HashSet<>();
+		for (String from : LABELS) {
+			String fromKey = SoulsLabelIndex.normalize(from);
+			Set<String> reachable = reachable(groups, fromKey);
+			if (reachable.contains(fromKey)) {
+				cycles.add(groups.get(fromKey));
+			}
+			for (String to : LABELS) {
+				String toKey = SoulsLabelIndex.normalize(to);
+				boolean expected = fromKey.equals(toKey) || reachable.contains(toKey);
+				assertEquals(expected, graph.reaches(from, to.toUpperCase()), message + " " + from + " -> " + to);
+			}
+
+			List<String> references = new ArrayList<>();
+			for (SoulGroup group : graph.getReferences(from)) {
+				references.add(SoulsLabelIndex.normalize(group.getLabel()));
+			}
+			assertEquals(containing(groups, fromKey), references, message + " " + from);
+
+			/* Labels that aren't groups can be contained too, so this looks for the groups reaching one that lists it */
+			List<String> direct = containing(groups, fromKey);
+			Set<String> containingLabels = new HashSet<>();
+			for (String key : groups.keySet()) {
+				Set<String> searched = reachable(groups, key);
+				searched.add(key);
+				if (!key.equals(fromKey) && !Collections.disjoint(searched, direct)) {
+					containingLabels.add(key);
+				}
+			}
+			assertEquals(containingLabels, graph.getContainingLabels(from), message + " " + from);
+		}
+		assertEquals(cycles, new HashSet<>(graph.getCycles()), message);
+
+		/* Every group not in a cycle comes after everything it reaches */
+		List<SoulGroup> order = graph.getTopologicalOrder();
+		assertEquals(groups.size(), order.size(), message);
+		for (int i = 0; i < order.size(); i++) {
+			String key = SoulsLabelIndex.normalize(order.get(i).getLabel());
+			if (reachable(groups, key).contains(key)) {
+				continue;
+			}
+			for (int j = i + 1; j < order.size(); j++) {
+				assertFalse(reachable(groups, key).contains(SoulsLabelIndex.normalize(order.get(j).getLabel())), message + " order");
+			}
+		}
+	}
+
+	/* Normalized labels of the groups reachable from key through one or more groups that exist */
+	private static Set<String> reachable(Map<String, SoulGroup> groups, String key) {
+		Set<String> result = new HashSet<>();
+		Deque<String> queue = new ArrayDeque<>();
+		queue.add(key);
+		while (!queue.isEmpty()) {
+			SoulGroup group = groups.get(queue.poll());
+			if (group == null) {
+				continue;
+			}
+			for (String entry : entries(group)) {
+				String entryKey = SoulsLabelIndex.normalize(entry);
+				if (groups.containsKey(entryKey) && result.add(entryKey)) {
+					queue.add(entryKey);
+				}
+			}
+		}
+		return result;
+	}
+
+	/* Normalized labels of the groups directly containing key, in label order */
+	private static List<String> containing(Map<String, SoulGroup> groups, String key) {
+		List<String> result = new ArrayList<>();
+		for (Map.Entry<String, SoulGroup> entry : groups.entrySet()) {
+			for (String label : entries(entry.getValue())) {
+				if (SoulsLabelIndex.normalize(label).equals(key)) {
+					result.add(entry.getKey());
+				}
+			}
+		}
+		result.sort(null);
+		return result;
+	}
+
+	private static Set<String> entries(SoulGroup group) {
+		if (group instanceof SoulPartyEntry) {
+			return ((SoulPartyEntry)group).getEntryCounts().keySet();
+		}
+		return ((SoulPoolEntry)group).getEntryWeights().keySet();
+	}
+}
@@ -0,0 +1,116 @@
+package com.playmonumenta.libraryofsouls;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/* Souls here can't have their NBT parsed, so their names come from a map instead */
+public class SoulsFuzzyIndexTest {
+	private static final String[] LABELS = {"Knight", "EliteKnight", "EliteKnightCaptain", "Archer", "ArcherCaptain", "Zombie", "Guard", "Guardian"};
+	private static final String[] NAMES = {"Knight", "Elite Knight", "Captain", "Archer", "Zombie Guard", "Night Watch", "Warden"};
+	private static final String[] QUERIES = {"knight", "knigt", "elite", "captain", "archr", "guard", "zombie guard", "watch"};
+
+	/* Normalized label -> name */
+	private final Map<String, String> mNames = new HashMap<>();
+
+	@Test
+	public void closestMatchesFirst() {
+		SoulEntry knight = soul("Knight", "Knight");
+		SoulEntry captain = soul("EliteKnightCaptain", "Elite Knight Captain");
+		SoulEntry archer = soul("Archer", "Archer");
+		SoulEntry nightWatch = soul("NightWatch", "Night Watch");
+		SoulsFuzzyIndex index = new SoulsFuzzyIndex(List.of(archer, captain, knight, nightWatch), this::name);
+
+		/* Night Watch has most of the trigrams of "knight", but fewer than both knights */
+		assertEquals(List.of(knight, captain, nightWatch), index.find("knight", 10));
+		/* One wrong letter still matches, and the shorter name is still closer */
+		assertEquals(List.of(knight, captain), index.find("KNIGT", 10));
+		assertEquals(List.of(knight), index.find("knight", 1));
+		assertEquals(List.of(captain), index.find("captian", 10));
+		assertEquals(List.of(archer), index.find("archer", 10));
+		assertEquals(List.of(nightWatch), index.find("night watch", 10));
+		assertEquals(List.of(), index.find("zzz", 10));
+		assertEquals(List.of(), index.find("", 10));
+		assertEquals(List.of(), index.find("knight", 0));
+	}
+
+	@Test
+	public void randomEditsMatchRebuild() {
+		for (long seed = 0; seed < 20; seed++) {
+			Random random = new Random(seed);
+			mNames.clear();
+			/* Normalized label -> soul */
+			Map<String, SoulEntry> souls = new HashMap<>();
+			SoulsFuzzyIndex index = new SoulsFuzzyIndex(List.of(), this::name);
+			for (int step = 0; step < 300; step++) {
+				String label = LABELS[random.nextInt(LABELS.length)];
+				String key = SoulsLabelIndex.normalize(label);
+				switch (random.nextInt(3)) {
+					case 0: {
+						SoulEntry soul = soul(label, NAMES[random.nextInt(NAMES.length)]);
+						souls.put(key, soul);
+						index = index.with(soul);
+						break;
+					}
+					case 1: {
+						/* Renamed in place - the index has to remember which trigrams the soul was posted under */
+						if (souls.containsKey(key)) {
+							mNames.put(key, NAMES[random.nextInt(NAMES.length)]);
+							index = index.with(souls.get(key));
+						}
+						break;
+					}
+					default:
+						souls.remove(key);
+						mNames.remove(key);
+						index = index.without(label.toLowerCase());
+				}
+
+				List<String> keys = new ArrayList<>(souls.keySet());
+				keys.sort(null);
+				List<SoulEntry> sorted = new ArrayList<>();
+				for (String soulKey : keys) {
+					sorted.add(souls.get(soulKey));
+				}
+				SoulsFuzzyIndex rebuilt = new SoulsFuzzyIndex(sorted, this::name);
+				String message = "seed " + seed + " step " + step;
+				assertTrue(index.samePostings(rebuilt), message);
+				for (String query : QUERIES) {
+					assertEquals(rebuilt.find(query, 3), index.find(query, 3), message + " " + query);
+				}
+			}
+		}
+	}
+
+	/* Enough souls sharing trigrams that the table counting them has to grow, all equally close so they come by label */
+	@Test
+	public void manyMatches() {
+		List<SoulEntry> souls = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			souls.add(soul(String.format("Guard%03d", i), "Guard"));
+		}
+		List<SoulEntry> reversed = new ArrayList<>(souls);
+		Collections.reverse(reversed);
+		SoulsFuzzyIndex index = new SoulsFuzzyIndex(reversed, this::name);
+
+		assertEquals(souls, index.find("guard", 1000));
+		assertEquals(souls.subList(0, 10), index.find("guard", 10));
+	}
+
+	private SoulEntry soul(String label, String name) {
+		mNames.put(SoulsLabelIndex.normalize(label), name);
+		return TestSouls.soul(label, "zombie");
+	}
+
+	private String name(SoulEntry soul) {
+		return mNames.get(SoulsLabelIndex.normalize(soul.getLabel()));
+	}
+}
@@ -0,0 +1,80 @@
+package com.playmonumenta.libraryofsouls;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class SoulsLabelIndexTest {
+	/* Few enough labels that the table stays small and most of them share runs with others */
+	private static final int LABELS = 40;
+
+	@Test
+	public void randomEditsMatchModel() {
+		for (long seed = 0; seed < 20; seed++) {
+			Random random = new Random(seed);
+			Map<String, SoulGroup> model = new HashMap<>();
+			SoulsLabelIndex index = new SoulsLabelIndex(List.of(), List.of(), List.of());
+			for (int step = 0; step < 2000; step++) {
+				String label = label(random);
+				if (random.nextInt(5) < 3) {
+					SoulGroup group = group(random, label);
+					model.put(SoulsLabelIndex.normalize(group.getLabel()), group);
+					index = index.with(group);
+				} else {
+					/* Removing shifts later entries of the run back, which every other lookup must survive */
+					model.remove(SoulsLabelIndex.normalize(label));
+					index = index.without(label.toUpperCase());
+				}
+
+				assertEquals(model.size(), index.size(), "seed " + seed + " step " + step);
+				for (int i = 0; i < LABELS; i++) {
+					for (String prefix : new String[] {"", "#", "~"}) {
+						String key = prefix + "label" + i;
+						assertSame(model.get(key), index.get(key), "seed " + seed + " step " + step + " " + key);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void lookupsIgnoreCaseAndCheckType() {
+		SoulEntry soul = TestSouls.soul("EliteKnight", "zombie");
+		SoulPartyEntry soulParty = TestSouls.party("#Patrol", "EliteKnight", 1);
+		SoulsLabelIndex index = new SoulsLabelIndex(List.of(soul), List.of(soulParty), List.of());
+
+		assertSame(soul, index.get("eliteknight"));
+		assertSame(soul, index.getSoul("ELITEKNIGHT"));
+		assertNull(index.getSoulParty("EliteKnight"));
+		assertSame(soulParty, index.getSoulParty("#patrol"));
+		assertNull(index.getSoulPool("#patrol"));
+		assertNull(index.get(null));
+		assertNull(index.get("Knight"));
+
+		SoulsLabelIndex without = index.without("ELITEKNIGHT");
+		assertNull(without.get("EliteKnight"));
+		assertSame(soul, index.get("EliteKnight"));
+		assertSame(without, without.without("EliteKnight"));
+	}
+
+	private static String label(Random random) {
+		String[] prefixes = {"", "#", "~"};
+		return prefixes[random.nextInt(prefixes.length)] + "Label" + random.nextInt(LABELS);
+	}
+
+	private static SoulGroup group(Random random, String label) {
+		if (label.startsWith("#")) {
+			return TestSouls.party(label);
+		} else if (label.startsWith("~")) {
+			return TestSouls.pool(label);
+		}
+		return TestSouls.soul(random.nextBoolean() ? label : label.toLowerCase(), "zombie");
+	}
+}
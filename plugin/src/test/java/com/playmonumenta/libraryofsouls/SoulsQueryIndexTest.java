@@ -0,0 +1,130 @@
+package com.playmonumenta.libraryofsouls;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Souls here can't have their NBT parsed, so their terms come from a map instead - which the
+ * random test changes in place before passing the soul back in, as commands do with souls.
+ */
+public class SoulsQueryIndexTest {
+	private static final String[] LABELS = {"Knight", "EliteKnight", "Archer", "Zombie", "Husk", "Witch", "Guard", "Wolf"};
+	private static final String[] TERMS = {"type:zombie", "type:skeleton", "loc:white", "loc:orange", "tag:elite", "tag:boss",
+	                                       "modifiedby:alice", "modifiedby:bob", "name:knight", "name:captain"};
+
+	/* Normalized label -> terms */
+	private final Map<String, String[]> mTerms = new HashMap<>();
+
+	@Test
+	public void queriesIntersectTerms() throws Exception {
+		SoulEntry knight = soul("Knight", "type:zombie", "loc:white", "tag:elite", "modifiedby:alice", "name:knight");
+		SoulEntry eliteKnight = soul("EliteKnight", "type:zombie", "loc:white", "loc:orange", "modifiedby:bob", "name:eliteknight", "name:elite", "name:knight");
+		SoulEntry archer = soul("Archer", "type:skeleton", "loc:white", "tag:elite", "modifiedby:alice", "name:archer");
+		SoulsQueryIndex index = new SoulsQueryIndex(List.of(archer, eliteKnight, knight), this::terms);
+
+		assertEquals(List.of(eliteKnight, knight), index.query("type:zombie"));
+		assertEquals(List.of(archer, knight), index.query("LOC:White tag:elite"));
+		assertEquals(List.of(knight), index.query("tag:elite id:zombie author:alice"));
+		assertEquals(List.of(eliteKnight, knight), index.query("knight"));
+		assertEquals(List.of(eliteKnight), index.query("name:*elite* location:orange"));
+		assertEquals(List.of(archer, eliteKnight, knight), index.query("loc:wh*"));
+		assertEquals(List.of(), index.query("type:zombie loc:nowhere"));
+		assertEquals(List.of(), index.query("tag:boss"));
+		assertThrows(Exception.class, () -> index.query("colour:red"));
+		assertThrows(Exception.class, () -> index.query("type:"));
+		assertThrows(Exception.class, () -> index.query("   "));
+	}
+
+	@Test
+	public void randomEditsMatchRebuild() throws Exception {
+		for (long seed = 0; seed < 20; seed++) {
+			Random random = new Random(seed);
+			mTerms.clear();
+			/* Normalized label -> soul */
+			Map<String, SoulEntry> souls = new HashMap<>();
+			SoulsQueryIndex index = new SoulsQueryIndex(List.of(), this::terms);
+			for (int step = 0; step < 300; step++) {
+				String label = LABELS[random.nextInt(LABELS.length)];
+				String key = SoulsLabelIndex.normalize(label);
+				switch (random.nextInt(3)) {
+					case 0: {
+						SoulEntry soul = soul(label, randomTerms(random));
+						souls.put(key, soul);
+						index = index.with(soul);
+						break;
+					}
+					case 1: {
+						/* Changed in place - the index has to remember where the soul was posted before */
+						if (souls.containsKey(key)) {
+							mTerms.put(key, randomTerms(random));
+							index = index.with(souls.get(key));
+						}
+						break;
+					}
+					default:
+						souls.remove(key);
+						mTerms.remove(key);
+						index = index.without(label.toUpperCase());
+				}
+
+				List<SoulEntry> sorted = sorted(souls);
+				String message = "seed " + seed + " step " + step;
+				assertTrue(index.samePostings(new SoulsQueryIndex(sorted, this::terms)), message);
+				for (int i = 0; i < 10; i++) {
+					String first = TERMS[random.nextInt(TERMS.length)];
+					String second = TERMS[random.nextInt(TERMS.length)];
+					assertEquals(matching(sorted, first, second), index.query(first + " " + second), message + " " + first + " " + second);
+				}
+			}
+		}
+	}
+
+	private SoulEntry soul(String label, String... terms) {
+		mTerms.put(SoulsLabelIndex.normalize(label), terms);
+		return TestSouls.soul(label, "zombie");
+	}
+
+	private String[] terms(SoulEntry soul) {
+		return mTerms.get(SoulsLabelIndex.normalize(soul.getLabel())).clone();
+	}
+
+	private static String[] randomTerms(Random random) {
+		List<String> terms = new ArrayList<>();
+		for (String term : TERMS) {
+			if (random.nextInt(3) == 0) {
+				terms.add(term);
+			}
+		}
+		return terms.toArray(new String[0]);
+	}
+
+	private static List<SoulEntry> sorted(Map<String, SoulEntry> souls) {
+		List<String> keys = new ArrayList<>(souls.keySet());
+		keys.sort(null);
+		List<SoulEntry> result = new ArrayList<>();
+		for (String key : keys) {
+			result.add(souls.get(key));
+		}
+		return result;
+	}
+
+	private List<SoulEntry> matching(List<SoulEntry> souls, String... terms) {
+		List<SoulEntry> result = new ArrayList<>();
+		for (SoulEntry soul : souls) {
+			if (Arrays.asList(terms(soul)).containsAll(Arrays.asList(terms))) {
+				result.add(soul);
+			}
+		}
+		return result;
+	}
+}
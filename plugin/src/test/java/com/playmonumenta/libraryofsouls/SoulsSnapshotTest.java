@@ -0,0 +1,198 @@
+package com.playmonumenta.libraryofsouls;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Applies random edits to a snapshot the way the database does, checking after each that the
+ * incrementally updated indexes match a snapshot built from scratch with the same entries.
+ */
+public class SoulsSnapshotTest {
+	private static final String[] SOUL_LABELS = {"Knight", "EliteKnight", "Archer", "ArcherCaptain", "Zombie", "Husk", "Drowned", "Spider", "Witch", "Wolf", "Golem", "Guard"};
+	private static final String[] PARTY_LABELS = {"#Patrol", "#Camp", "#Boss", "#Ambush", "#Guards"};
+	private static final String[] POOL_LABELS = {"~Forest", "~Cave", "~Guards", "~Elites", "~Any"};
+	private static final String[] TYPES = {"zombie", "skeleton", "spider", "husk"};
+	private static final String[] LOCATIONS = {"white", "orange", "magenta", "lightblue", "yellow"};
+
+	private final Map<String, SoulEntry> mSouls = new HashMap<>();
+	private final Map<String, SoulPartyEntry> mSoulParties = new HashMap<>();
+	private final Map<String, SoulPoolEntry> mSoulPools = new HashMap<>();
+
+	@Test
+	public void randomEditsMatchRebuild() {
+		for (long seed = 0; seed < 20; seed++) {
+			mSouls.clear();
+			mSoulParties.clear();
+			mSoulPools.clear();
+			Random random = new Random(seed);
+			SoulsSnapshot snapshot = TestSouls.snapshot(mSouls.values(), mSoulParties.values(), mSoulPools.values());
+			for (int step = 0; step < 300; step++) {
+				snapshot = edit(random, snapshot);
+				assertEquals(Collections.emptyList(), snapshot.checkIndexes(), "seed " + seed + " step " + step);
+				checkReads(snapshot, TestSouls.snapshot(mSouls.values(), mSoulParties.values(), mSoulPools.values()));
+			}
+		}
+	}
+
+	@Test
+	public void editsLeaveOriginalUnchanged() {
+		SoulsSnapshot original = TestSouls.snapshot(List.of(TestSouls.soul("Knight", "zombie", "white")),
+		                                            List.of(TestSouls.party("#Patrol", "Knight", 2)), List.of());
+		SoulsSnapshot edited = original.withSoul(TestSouls.soul("Archer", "skeleton", "orange"))
+			.withoutSoul("knight")
+			.withSoulPool(TestSouls.pool("~Any", "#Patrol", 1));
+
+		assertEquals(Collections.emptyList(), original.checkIndexes());
+		assertEquals(Collections.emptyList(), edited.checkIndexes());
+		assertEquals(List.of("white"), new ArrayList<>(original.getLocations()));
+		assertEquals(List.of("orange"), new ArrayList<>(edited.getLocations()));
+		assertNull(original.getSoul("archer"));
+		assertNull(edited.getSoul("knight"));
+		assertFalse(original.getDependencies().reaches("~any", "#patrol"));
+		assertTrue(edited.getDependencies().reaches("~any", "#patrol"));
+		assertEquals(List.of(edited.getSoulPool("~Any")), edited.getDependencies().getReferences("#PATROL"));
+	}
+
+	private SoulsSnapshot edit(Random random, SoulsSnapshot snapshot) {
+		switch (random.nextInt(8)) {
+			case 0:
+			case 1: {
+				SoulEntry soul = TestSouls.soul(randomCase(random, pick(random, SOUL_LABELS)), pick(random, TYPES), locations(random));
+				mSouls.put(SoulsLabelIndex.normalize(soul.getLabel()), soul);
+				return snapshot.withSoul(soul);
+			}
+			case 2: {
+				String label = randomCase(random, pick(random, SOUL_LABELS));
+				mSouls.remove(SoulsLabelIndex.normalize(label));
+				return snapshot.withoutSoul(label);
+			}
+			case 3: {
+				/* Changed in place, as the location commands do, then passed back in */
+				if (mSouls.isEmpty()) {
+					return snapshot;
+				}
+				List<SoulEntry> souls = new ArrayList<>(mSouls.values());
+				souls.sort((a, b) -> a.getLabel().compareTo(b.getLabel()));
+				SoulEntry soul = souls.get(random.nextInt(souls.size()));
+				String location = pick(random, LOCATIONS);
+				if (!soul.getLocationNames().remove(location)) {
+					soul.getLocationNames().add(location);
+				}
+				return snapshot.withSoul(soul);
+			}
+			case 4: {
+				SoulPartyEntry soulParty = TestSouls.party(randomCase(random, pick(random, PARTY_LABELS)), entries(random));
+				mSoulParties.put(SoulsLabelIndex.normalize(soulParty.getLabel()), soulParty);
+				return snapshot.withSoulParty(soulParty);
+			}
+			case 5: {
+				String label = randomCase(random, pick(random, PARTY_LABELS));
+				mSoulParties.remove(SoulsLabelIndex.normalize(label));
+				return snapshot.withoutSoulParty(label);
+			}
+			case 6: {
+				SoulPoolEntry soulPool = TestSouls.pool(randomCase(random, pick(random, POOL_LABELS)), entries(random));
+				mSoulPools.put(SoulsLabelIndex.normalize(soulPool.getLabel()), soulPool);
+				return snapshot.withSoulPool(soulPool);
+			}
+			default: {
+				String label = randomCase(random, pick(random, POOL_LABELS));
+				mSoulPools.remove(SoulsLabelIndex.normalize(label));
+				return snapshot.withoutSoulPool(label);
+			}
+		}
+	}
+
+	/* What checkIndexes() doesn't look at directly - the results of the lookups themselves */
+	private static void checkReads(SoulsSnapshot snapshot, SoulsSnapshot rebuilt) {
+		assertEquals(rebuilt.getSouls(), snapshot.getSouls());
+		assertEquals(rebuilt.getSoulParties(), snapshot.getSoulParties());
+		assertEquals(rebuilt.getSoulPools(), snapshot.getSoulPools());
+
+		List<String> labels = new ArrayList<>();
+		Collections.addAll(labels, SOUL_LABELS);
+		Collections.addAll(labels, PARTY_LABELS);
+		Collections.addAll(labels, POOL_LABELS);
+		for (String label : labels) {
+			assertSame(rebuilt.getSoulGroup(label), snapshot.getSoulGroup(label.toUpperCase()), label);
+			for (String other : labels) {
+				assertEquals(rebuilt.getDependencies().reaches(label, other), snapshot.getDependencies().reaches(label, other), label + " -> " + other);
+			}
+			assertEquals(rebuilt.getDependencies().getReferences(label), snapshot.getDependencies().getReferences(label), label);
+			assertEquals(rebuilt.getDependencies().getContainingLabels(label), snapshot.getDependencies().getContainingLabels(label), label);
+		}
+
+		assertEquals(rebuilt.getLocations(), snapshot.getLocations());
+		for (String location : LOCATIONS) {
+			assertEquals(rebuilt.getSoulsByLocation(location), snapshot.getSoulsByLocation(location), location);
+		}
+		assertEquals(rebuilt.getSoulsByLocation(null), snapshot.getSoulsByLocation(null));
+		assertEquals(rebuilt.getTypes(), snapshot.getTypes());
+		for (String type : TYPES) {
+			assertEquals(rebuilt.getSoulsByType(type), snapshot.getSoulsByType(type), type);
+		}
+
+		for (String prefix : new String[] {"", "a", "ARCH", "#", "#g", "~", "~e", "x"}) {
+			assertArrayEquals(rebuilt.suggestSoulGroups(prefix, 1000), snapshot.suggestSoulGroups(prefix, 1000), prefix);
+			assertArrayEquals(rebuilt.suggestSoulGroups(prefix, 3), snapshot.suggestSoulGroups(prefix, 3), prefix);
+			assertArrayEquals(rebuilt.suggestLocations(prefix, 1000), snapshot.suggestLocations(prefix, 1000), prefix);
+			assertArrayEquals(rebuilt.suggestTypes(prefix, 1000), snapshot.suggestTypes(prefix, 1000), prefix);
+		}
+	}
+
+	private static String pick(Random random, String[] values) {
+		return values[random.nextInt(values.length)];
+	}
+
+	/* Labels are matched ignoring case, so edits sometimes name an entry in a different case */
+	private static String randomCase(Random random, String label) {
+		switch (random.nextInt(4)) {
+			case 0:
+				return label.toLowerCase();
+			case 1:
+				return label.toUpperCase();
+			default:
+				return label;
+		}
+	}
+
+	private static String[] locations(Random random) {
+		List<String> locations = new ArrayList<>();
+		for (String location : LOCATIONS) {
+			if (random.nextInt(3) == 0) {
+				locations.add(location);
+			}
+		}
+		return locations.toArray(new String[0]);
+	}
+
+	/* Any label, including ones that don't exist and ones that make cycles */
+	private static Map<String, Integer> entries(Random random) {
+		String[][] kinds = {SOUL_LABELS, PARTY_LABELS, POOL_LABELS};
+		Map<String, Integer> entries = new HashMap<>();
+		Set<String> keys = new HashSet<>();
+		int count = random.nextInt(4);
+		for (int i = 0; i < count; i++) {
+			String label = randomCase(random, pick(random, kinds[random.nextInt(kinds.length)]));
+			if (keys.add(SoulsLabelIndex.normalize(label))) {
+				entries.put(label, 1 + random.nextInt(3));
+			}
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,85 @@
+package com.playmonumenta.libraryofsouls;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bukkit.NamespacedKey;
+
+/*
+ * Builds entries without a server. Souls use the constructor that doesn't parse their NBT, so
+ * anything reading it (names, tags) can't be used - the indexes that need those take them from
+ * a function in tests instead.
+ */
+final class TestSouls {
+	private TestSouls() {
+	}
+
+	static SoulEntry soul(String label, String type, String... locations) {
+		try {
+			SoulHistoryEntry history = new SoulHistoryEntry("{}", label, label, NamespacedKey.minecraft(type), false, false, 0, "Tester",
+			                                                new HashSet<>(Arrays.asList(locations)), "", null, null);
+			List<SoulHistoryEntry> historyList = new ArrayList<>();
+			historyList.add(history);
+			return new SoulEntry(historyList, new HashSet<>(Arrays.asList(locations)), "");
+		} catch (Exception ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/* entries alternate label, count */
+	static SoulPartyEntry party(String label, Object... entries) {
+		return party(label, map(entries));
+	}
+
+	static SoulPartyEntry party(String label, Map<String, Integer> entryCounts) {
+		try {
+			List<SoulPartyHistoryEntry> history = new ArrayList<>();
+			history.add(new SoulPartyHistoryEntry(label, 0, "Tester", entryCounts));
+			return new SoulPartyEntry(history);
+		} catch (Exception ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/* entries alternate label, weight */
+	static SoulPoolEntry pool(String label, Object... entries) {
+		return pool(label, map(entries));
+	}
+
+	static SoulPoolEntry pool(String label, Map<String, Integer> entryWeights) {
+		try {
+			List<SoulPoolHistoryEntry> history = new ArrayList<>();
+			history.add(new SoulPoolHistoryEntry(label, 0, "Tester", entryWeights));
+			return new SoulPoolEntry(history);
+		} catch (Exception ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/* Built from scratch, the way the database builds it on load */
+	static SoulsSnapshot snapshot(Collection<SoulEntry> souls, Collection<SoulPartyEntry> soulParties, Collection<SoulPoolEntry> soulPools) {
+		return new SoulsSnapshot(byLabel(souls), byLabel(soulParties), byLabel(soulPools));
+	}
+
+	private static <T extends SoulGroup> TreeMap<String, T> byLabel(Collection<T> entries) {
+		TreeMap<String, T> result = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for (T entry : entries) {
+			result.put(entry.getLabel(), entry);
+		}
+		return result;
+	}
+
+	private static Map<String, Integer> map(Object... entries) {
+		Map<String, Integer> result = new HashMap<>();
+		for (int i = 0; i < entries.length; i += 2) {
+			result.put((String)entries[i], (Integer)entries[i + 1]);
+		}
+		return result;
+	}
+}